@@ -0,0 +1,130 @@
+package linear;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static linear.TestMatrices.random;
+
+/**
+ * Операции Ops в размерах слоев из Test3-Test5: вход 28 * 28, скрытые слои 10 * 2^i, пакет 200
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class OpsBenchmark {
+    private static final int INPUT = 28 * 28;
+
+    @Param({"10", "160", "1280", "5120"})
+    public int width;
+
+    @Param({"1", "200"})
+    public int batch;
+
+    @Param({"netlib", "vector"})
+    public String backend;
+
+    private MatrixF32 input;
+    private MatrixF32 weights;
+    private VectorF32 bias;
+    private MatrixF32 output;
+    private MatrixF32 error;
+    private MatrixF32 inputError;
+    private MatrixF32 weightsGradient;
+    private VectorF32 sample;
+    private VectorF32 sampleOutput;
+    private VectorF32 ones;
+    private VectorF32 a;
+    private VectorF32 b;
+    private VectorF32 c;
+
+    @Setup
+    public void setup() {
+        Ops.setBackend(Backend.fromName(backend));
+
+        var random = new Random(1);
+        input = new MatrixF32(batch, INPUT, random(random, batch * INPUT));
+        weights = new MatrixF32(INPUT, width, random(random, INPUT * width), true);
+        bias = new VectorF32(random(random, width));
+        output = new MatrixF32(batch, width);
+        error = new MatrixF32(batch, width, random(random, batch * width));
+        inputError = new MatrixF32(batch, INPUT);
+        weightsGradient = new MatrixF32(width, INPUT);
+        sample = new VectorF32(random(random, INPUT));
+        sampleOutput = new VectorF32(width);
+        ones = new VectorF32(batch);
+        ones.fill(1.0f);
+        a = new VectorF32(random(random, batch * width));
+        b = new VectorF32(random(random, batch * width));
+        c = new VectorF32(batch * width);
+    }
+
+    /**
+     * Прямой проход слоя: input * weights
+     */
+    @Benchmark
+    public MatrixF32 productMatrixMatrix() {
+        return Ops.product(input, weights, output, 1.0f, 0.0f);
+    }
+
+    /**
+     * Прямой проход слоя со смещением и эпилогом
+     */
+    @Benchmark
+    public MatrixF32 productEpilogue() {
+        return Ops.product(input, weights, bias, output, (matrix, row, rows) -> {});
+    }
+
+    /**
+     * Ошибка предыдущего слоя: error * weights^T
+     */
+    @Benchmark
+    public MatrixF32 productBackward() {
+        return Ops.product(error, weights.transpose(), inputError, 1.0f, 0.0f);
+    }
+
+    /**
+     * Градиент весов: error^T * input
+     */
+    @Benchmark
+    public MatrixF32 productWeightsGradient() {
+        return Ops.product(error.transpose(), input, weightsGradient, 1.0f, 0.0f);
+    }
+
+    @Benchmark
+    public VectorF32 productVectorMatrix() {
+        return Ops.product(sample, weights, sampleOutput, 1.0f, 0.0f);
+    }
+
+    @Benchmark
+    public VectorF32 productMatrixVector() {
+        return Ops.product(weights.transpose(), sample, sampleOutput, 1.0f, 0.0f);
+    }
+
+    /**
+     * Сумма строк ошибки для градиента смещения
+     */
+    @Benchmark
+    public VectorF32 productBiasGradient() {
+        return Ops.product(ones, error, bias, -1e-9f, 1.0f);
+    }
+
+    @Benchmark
+    public MatrixF32 productVectorVector() {
+        return Ops.product(sample, sampleOutput, weights.transpose(), 1e-9f, 1.0f);
+    }
+
+    @Benchmark
+    public MatrixF32 productScalar() {
+        return Ops.product(weightsGradient, 1.0f - 1e-9f);
+    }
+
+    @Benchmark
+    public VectorF32 multipleElements() {
+        return Ops.multipleElements(a, b, c, 1.0f, 0.0f);
+    }
+}
@@ -0,0 +1,83 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * applyBatch/diffBatch всех функций активации. Каждый замер включает копирование исходной матрицы,
+ * его стоимость измеряется отдельно в copy()
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class ActivationBenchmark {
+    @Param({"10", "160", "1280", "5120"})
+    public int width;
+
+    @Param({"1", "200"})
+    public int batch;
+
+    @Param({"ReLU", "LeakyReLU", "SReLU", "Softmax", "SoftmaxStable", "SoftmaxStable2", "Linear"})
+    public String activation;
+
+    private Activation.Interface function;
+    private MatrixF32 source;
+    private MatrixF32 work;
+    private MatrixF32 output;
+
+    private static Activation.Interface fromName(String name) {
+        return switch (name) {
+            case "ReLU" -> new Activation.ReLU();
+            case "LeakyReLU" -> new Activation.LeakyReLU();
+            case "SReLU" -> new Activation.SReLU();
+            case "Softmax" -> new Activation.Softmax();
+            case "SoftmaxStable" -> new Activation.SoftmaxStable();
+            case "SoftmaxStable2" -> new Activation.SoftmaxStable2();
+            case "Linear" -> new Activation.Linear();
+            default -> throw new IllegalArgumentException(name);
+        };
+    }
+
+    @Setup
+    public void setup() {
+        function = fromName(activation);
+
+        var random = new Random(1);
+        var data = new float[batch * width];
+        for (var i = 0; i < data.length; i++) {
+            data[i] = random.nextFloat(-1, 1);
+        }
+
+        source = new MatrixF32(batch, width, data);
+        work = new MatrixF32(batch, width);
+        output = new MatrixF32(batch, width);
+    }
+
+    @Benchmark
+    public MatrixF32 copy() {
+        Ops.copy(source, work);
+
+        return work;
+    }
+
+    @Benchmark
+    public MatrixF32 applyBatch() {
+        Ops.copy(source, work);
+
+        return function.applyBatch(work);
+    }
+
+    @Benchmark
+    public MatrixF32 diffBatch() {
+        Ops.copy(source, work);
+
+        return function.diffBatch(work, output);
+    }
+}
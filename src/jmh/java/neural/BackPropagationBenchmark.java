@@ -0,0 +1,86 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+import linear.TestMatrices;
+import neural.optimizer.Adam;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обратный проход сети 28 * 28 - width - 10 и полный шаг обучения с прямым проходом
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class BackPropagationBenchmark {
+    private static final int INPUT = 28 * 28;
+    private static final int OUTPUT = 10;
+
+    @Param({"10", "160", "1280", "5120"})
+    public int width;
+
+    @Param({"1", "200"})
+    public int batch;
+
+    private FeedForwardNeuralNetwork network;
+    private BackPropagation backPropagation;
+    private Optimizer.Interface optimizer;
+    private Layer[] layers;
+    private MatrixF32[] results;
+    private MatrixF32 input;
+    private MatrixF32 target;
+
+    private static Layer layer(Random random, int previous, int size, Activation.Interface activation) {
+        return new Layer(null, size, previous > 0 ? TestMatrices.random(random, size, previous, 0.1f).transpose() : null)
+                .set(activation);
+    }
+
+    @Setup
+    public void setup() {
+        var random = new Random(1);
+
+        input = TestMatrices.random(random, batch, INPUT, 0.1f);
+        target = new MatrixF32(batch, OUTPUT);
+        for (var i = 0; i < batch; i++) {
+            target.set((long) i * OUTPUT + random.nextInt(OUTPUT), 1.0f);
+        }
+
+        layers = new Layer[]{
+                layer(random, 0, INPUT, new Activation.Linear()),
+                layer(random, INPUT, width, new Activation.LeakyReLU()),
+                layer(random, width, OUTPUT, new Activation.SoftmaxStable()),
+        };
+
+        results = new MatrixF32[]{input, new MatrixF32(batch, width), new MatrixF32(batch, OUTPUT)};
+        for (var i = 1; i < layers.length; i++) {
+            Ops.product(results[i - 1], layers[i].weights, layers[i].bias, results[i], layers[i].activation);
+        }
+
+        backPropagation = new BackPropagation();
+        optimizer = new Adam();
+
+        network = new FeedForwardNeuralNetwork(new Random(1), new Adam());
+        network.addLayer(INPUT);
+        network.addLayer(width).set(new Activation.LeakyReLU());
+        network.addLayer(OUTPUT).set(new Activation.SoftmaxStable());
+    }
+
+    /**
+     * Только обратный проход и обновление весов, результаты слоев не пересчитываются
+     */
+    @Benchmark
+    public float apply() {
+        return backPropagation.apply(optimizer, layers, results, target, 1e-6f);
+    }
+
+    @Benchmark
+    public MatrixF32 train() {
+        return network.train(input, target, 1e-6f);
+    }
+}
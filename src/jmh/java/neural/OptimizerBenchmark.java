@@ -0,0 +1,67 @@
+package neural;
+
+import linear.VectorF32;
+import neural.optimizer.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Шаг оптимизатора по весам слоя 28 * 28 x width
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class OptimizerBenchmark {
+    private static final int INPUT = 28 * 28;
+
+    @Param({"10", "160", "1280", "5120"})
+    public int width;
+
+    @Param({"SGD", "Momentum", "Nesterov", "AdaGrad", "RMSProp", "AdaDelta", "Adam"})
+    public String optimizer;
+
+    private Optimizer.Interface function;
+    private VectorF32 weights;
+    private VectorF32 gradient;
+
+    private static Optimizer.Interface fromName(String name) {
+        return switch (name) {
+            case "SGD" -> new SGD();
+            case "Momentum" -> new Momentum();
+            case "Nesterov" -> new Nesterov();
+            case "AdaGrad" -> new AdaGrad();
+            case "RMSProp" -> new RMSProp();
+            case "AdaDelta" -> new AdaDelta();
+            case "Adam" -> new Adam();
+            default -> throw new IllegalArgumentException(name);
+        };
+    }
+
+    @Setup
+    public void setup() {
+        function = fromName(optimizer);
+
+        var random = new Random(1);
+        var weightsData = new float[INPUT * width];
+        var gradientData = new float[INPUT * width];
+        for (var i = 0; i < weightsData.length; i++) {
+            weightsData[i] = random.nextFloat(-0.1f, 0.1f);
+            gradientData[i] = random.nextFloat(-1e-3f, 1e-3f);
+        }
+
+        weights = new VectorF32(weightsData);
+        gradient = new VectorF32(gradientData);
+    }
+
+    @Benchmark
+    public VectorF32 apply() {
+        function.apply(1, weights, gradient, 1e-6f);
+
+        return weights;
+    }
+}
@@ -1,9 +1,18 @@
 import linear.MatrixF32;
 import linear.Ops;
+import linear.SparseMatrixF32;
 import linear.VectorF32;
 import neural.Activation;
 import neural.NeuralAlgo;
+import neural.RidgeRegression;
 
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -24,16 +33,72 @@ public class RosenblattPerceptron {
     public static final float ALPHA = 1.0f;
     final private Random random;
     final private MatrixF32 sensorLayer;
+    /**
+     * Разреженные S-A связи, как у Розенблатта: у каждого A-нейрона fanIn случайных входов. null, если связи полные
+     */
+    final private SparseMatrixF32 sparseSensorLayer;
     final private MatrixF32 assocLayer;
+    /**
+     * sensorLayer как построчная матрица S x A для пакетного умножения (Ops.product(matrix, vector) читает
+     * sensorLayer по столбцам) и нулевое смещение к ней
+     */
+    final private MatrixF32 sensorLayerBatch;
+    final private VectorF32 assocBias;
+    /**
+     * assocLayer как построчная матрица A x R и нулевое смещение к ней
+     */
+    final private MatrixF32 assocLayerBatch;
+    final private VectorF32 outputBias;
+    /**
+     * Активация R-слоя без состояния, одна на все вызовы
+     */
+    final private Activation.Softmax softmax = new Activation.Softmax(ALPHA);
+    /**
+     * Буферы пакетного обучения, пересоздаются при смене размера пакета
+     */
+    private MatrixF32 batchHidden;
+    private MatrixF32 batchResult;
+    private MatrixF32 batchDelta;
+    /**
+     * Строка кэша cacheLayer1 для обучения по одному образцу
+     */
+    final private float[] cacheRow;
+    /**
+     * Активации A-слоя одного образца при разреженных связях и та же память как матрица 1 x A
+     */
+    final private VectorF32 sampleHidden;
+    final private MatrixF32 sampleHiddenRow;
 
     public RosenblattPerceptron(int sensorLayerSize, int outputLayerSize, int assocLayerSize, Random random) {
+        this(sensorLayerSize, outputLayerSize, assocLayerSize, 0, random);
+    }
+
+    /**
+     * fanIn - число случайных S-входов каждого A-нейрона, 0 - полные связи. Разреженный S-слой хранит и считает
+     * A * fanIn весов вместо A * S
+     */
+    public RosenblattPerceptron(int sensorLayerSize, int outputLayerSize, int assocLayerSize, int fanIn, Random random) {
         this.random = new Random(random.nextLong());
 
-        this.sensorLayer = new MatrixF32(assocLayerSize, sensorLayerSize);
-        this.assocLayer = new MatrixF32(outputLayerSize, assocLayerSize);
+        if (fanIn > 0) {
+            this.sensorLayer = null;
+            this.sparseSensorLayer = SparseMatrixF32.random(assocLayerSize, sensorLayerSize, fanIn, random);
+        } else {
+            this.sensorLayer = new MatrixF32(assocLayerSize, sensorLayerSize);
+            this.sparseSensorLayer = null;
+            generateWeights(this.sensorLayer.getData(), random);
+        }
 
-        generateWeights(this.sensorLayer.getData(), random);
+        this.assocLayer = new MatrixF32(outputLayerSize, assocLayerSize);
         generateWeights(this.assocLayer.getData(), random);
+
+        this.sensorLayerBatch = sensorLayer != null ? new MatrixF32(sensorLayerSize, assocLayerSize, sensorLayer.getData()) : null;
+        this.assocBias = new VectorF32(assocLayerSize);
+        this.assocLayerBatch = new MatrixF32(assocLayerSize, outputLayerSize, assocLayer.getData());
+        this.outputBias = new VectorF32(outputLayerSize);
+        this.cacheRow = new float[assocLayerSize];
+        this.sampleHidden = new VectorF32(assocLayerSize);
+        this.sampleHiddenRow = sampleHidden.toHorizontalMatrix();
     }
 
     private void generateWeights(float[] layer, Random random) {
@@ -45,7 +110,7 @@ public class RosenblattPerceptron {
     public float[] eval(float[] sensorData) {
         final var hiddenResultMatrix = evalLayer1(sensorData);
         final var resultMatrix = evalLayer2(hiddenResultMatrix);
-        new Activation.Softmax(ALPHA).apply(resultMatrix);
+        softmax.apply(resultMatrix);
 
         return resultMatrix.getData();
     }
@@ -54,7 +119,18 @@ public class RosenblattPerceptron {
         return Ops.product(assocLayer, hiddenResultMatrix);
     }
 
+    /**
+     * Активации A-слоя одного образца. При разреженных связях считаются без промежуточных матриц в буфер,
+     * действительный до следующего вызова
+     */
     public VectorF32 evalLayer1(float[] sensorData) {
+        if (sparseSensorLayer != null) {
+            Ops.product(sparseSensorLayer, sensorData, sampleHidden);
+            normalizeRows(sampleHiddenRow, 0, 1);
+
+            return sampleHidden;
+        }
+
         final var hiddenResultMatrix = Ops.product(sensorLayer, new VectorF32(sensorData));
         new Activation.ReLU().apply(hiddenResultMatrix);
         NeuralAlgo.normalize(hiddenResultMatrix);
@@ -62,8 +138,88 @@ public class RosenblattPerceptron {
         return hiddenResultMatrix;
     }
 
+    /**
+     * Активации A-слоя всех строк sensorData в result (строка на образец), как evalLayer1 для каждой строки.
+     * S-A связи не обучаются, поэтому в обучении их достаточно посчитать один раз: умножением матриц
+     * блоками строк параллельно, ReLU и нормировка - в эпилоге блока
+     */
+    public MatrixF32 evalLayer1(MatrixF32 sensorData, MatrixF32 result) {
+        if (sparseSensorLayer != null) {
+            return Ops.product(sensorData, sparseSensorLayer.transpose(), result, RosenblattPerceptron::normalizeRows);
+        }
+
+        return Ops.product(sensorData, sensorLayerBatch, assocBias, result, RosenblattPerceptron::normalizeRows);
+    }
+
+    /**
+     * ReLU и NeuralAlgo.normalize для строк [row, row + rows): после ReLU минимум 0, остается деление на максимум
+     */
+    private static void normalizeRows(MatrixF32 matrix, int row, int rows) {
+        var columns = matrix.getColumns();
+
+        for (var r = row; r < row + rows; r++) {
+            var start = (long) r * matrix.getStride();
+            var max = 0.0f;
+
+            for (var j = 0; j < columns; j++) {
+                var value = Math.max(0.0f, matrix.get(start + j));
+                matrix.set(start + j, value);
+                max = Math.max(max, value);
+            }
+
+            for (var j = 0; j < columns; j++) {
+                matrix.set(start + j, matrix.get(start + j) / max);
+            }
+        }
+    }
+
+    /**
+     * Кэш активаций A-слоя обучающей выборки одним off-heap буфером, вне кучи и без ее ограничения размера
+     */
+    public MatrixF32 cacheLayer1(MatrixF32 sensorData) {
+        return evalLayer1(sensorData, MatrixF32.allocate(Arena.ofAuto(), sensorData.getRows(), assocLayer.getColumns()));
+    }
+
+    /**
+     * Кэш в отображенном файле file: при A = 32000 кэш 60000 образцов занимает около 7,7 ГБ, страницы
+     * вытесняются ОС, а не держатся в памяти процесса
+     */
+    public MatrixF32 cacheLayer1(MatrixF32 sensorData, Path file) throws IOException {
+        var rows = sensorData.getRows();
+        var columns = assocLayer.getColumns();
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) rows * columns * Float.BYTES, Arena.ofAuto());
+
+            return evalLayer1(sensorData, new MatrixF32(rows, columns, segment));
+        }
+    }
+
+    /**
+     * Обучение по строке row кэша cacheLayer1. Строка копируется прямо из хранилища кэша в буфер cacheRow
+     */
+    public float[] trainLayer2(MatrixF32 cache, int row, float[] target, float speed, float dropoutFactor) {
+        if (cache.isTransposed() || cache.getColumns() != cacheRow.length) {
+            throw new IllegalArgumentException("incompatible cache");
+        }
+
+        var start = cache.getOffset() + (long) row * cache.getStride();
+
+        if (cache.isNative()) {
+            MemorySegment.copy(cache.getSegment(), ValueLayout.JAVA_FLOAT, start * Float.BYTES, cacheRow, 0, cacheRow.length);
+        } else {
+            System.arraycopy(cache.getData(), (int) start, cacheRow, 0, cacheRow.length);
+        }
+
+        return trainLayer2(cacheRow, target, speed, dropoutFactor);
+    }
+
     public float[] trainLayer2(VectorF32 hiddenResultMatrix, float[] target, float speed, float dropoutFactor) {
-        hiddenResultMatrix = new VectorF32(hiddenResultMatrix.getData().clone());
+        return trainLayer2(hiddenResultMatrix.getData().clone(), target, speed, dropoutFactor);
+    }
+
+    private float[] trainLayer2(float[] hiddenResult, float[] target, float speed, float dropoutFactor) {
+        var hiddenResultMatrix = new VectorF32(hiddenResult);
 
         if (dropoutFactor > 0) {
             NeuralAlgo.dropout(random, hiddenResultMatrix.getData(), dropoutFactor);
@@ -73,7 +229,7 @@ public class RosenblattPerceptron {
 
         final var result = resultMatrix.getData();
 
-        new Activation.Softmax(ALPHA).apply(resultMatrix);
+        softmax.apply(resultMatrix);
 
         NeuralAlgo.deltaCorrection(
                 speed * NeuralAlgo.dropoutRate(dropoutFactor),
@@ -91,4 +247,101 @@ public class RosenblattPerceptron {
         final var hiddenResultMatrix = evalLayer1(sensorData);
         return trainLayer2(hiddenResultMatrix, target, speed, dropoutFactor);
     }
+
+    /**
+     * Пакетное обучение: строки sensorData - образцы, строки target - ответы.
+     * Возвращает результаты пакета в буфере, действительном до следующего вызова
+     */
+    public MatrixF32 train(MatrixF32 sensorData, MatrixF32 target, float speed, float dropoutFactor) {
+        var hidden = batchBuffers(sensorData.getRows());
+        evalLayer1(sensorData, hidden);
+
+        return trainLayer2(hidden, target, speed, dropoutFactor);
+    }
+
+    /**
+     * Пакетное обучение по строкам order[from], order[from + 1], ... кэша cacheLayer1, по строке на строку target
+     */
+    public MatrixF32 trainLayer2(MatrixF32 cache, int[] order, int from, MatrixF32 target, float speed, float dropoutFactor) {
+        var hidden = batchBuffers(target.getRows());
+
+        for (var i = 0; i < target.getRows(); i++) {
+            Ops.copy(cache.rows(order[from + i], 1), hidden.rows(i, 1));
+        }
+
+        return trainLayer2(hidden, target, speed, dropoutFactor);
+    }
+
+    /**
+     * Прямой проход и поправка весов A-R - по одному умножению матриц на пакет, поправка равна сумме поправок
+     * trainLayer2 по образцам пакета. hidden - буфер batchHidden, дропаут применяется к нему
+     */
+    private MatrixF32 trainLayer2(MatrixF32 hidden, MatrixF32 target, float speed, float dropoutFactor) {
+        if (dropoutFactor > 0) {
+            for (var i = 0; i < hidden.getRows(); i++) {
+                NeuralAlgo.dropout(random, hidden.getData(), i * hidden.getColumns(), hidden.getColumns(), dropoutFactor);
+            }
+        }
+
+        Ops.product(hidden, assocLayerBatch, outputBias, batchResult, softmax);
+
+        NeuralAlgo.deltaCorrection(
+                speed * NeuralAlgo.dropoutRate(dropoutFactor),
+                batchResult,
+                target,
+                hidden,
+                assocLayerBatch,
+                batchDelta
+        );
+
+        return batchResult;
+    }
+
+    /**
+     * eval для каждой строки sensorData. Возвращает результаты в буфере, действительном до следующего вызова
+     */
+    public MatrixF32 eval(MatrixF32 sensorData) {
+        var hidden = batchBuffers(sensorData.getRows());
+        evalLayer1(sensorData, hidden);
+
+        return Ops.product(hidden, assocLayerBatch, outputBias, batchResult, softmax);
+    }
+
+    /**
+     * Веса A-R одним проходом по выборке вместо эпох trainLayer2: A-слой над случайными S-A связями -
+     * фиксированные признаки, и A-R веса находятся гребневой регрессией на ответы target.
+     * Активации A-слоя считаются пакетами по batchSize строк и сразу копятся в RidgeRegression, вся матрица
+     * активаций в памяти не нужна
+     */
+    public void solveLayer2(MatrixF32 sensorData, MatrixF32 target, float ridge, int batchSize) {
+        var regression = new RidgeRegression(assocLayerBatch.getRows(), assocLayerBatch.getColumns());
+
+        for (var row = 0; row < sensorData.getRows(); row += batchSize) {
+            var rows = Math.min(batchSize, sensorData.getRows() - row);
+            var hidden = batchBuffers(rows);
+
+            regression.add(evalLayer1(sensorData.rows(row, rows), hidden), target.rows(row, rows));
+        }
+
+        regression.solve(ridge, assocLayerBatch);
+    }
+
+    /**
+     * solveLayer2 по готовому кэшу cacheLayer1
+     */
+    public void solveLayer2(MatrixF32 cache, MatrixF32 target, float ridge) {
+        var regression = new RidgeRegression(assocLayerBatch.getRows(), assocLayerBatch.getColumns());
+        regression.add(cache, target);
+        regression.solve(ridge, assocLayerBatch);
+    }
+
+    private MatrixF32 batchBuffers(int rows) {
+        if (batchHidden == null || batchHidden.getRows() != rows) {
+            batchHidden = new MatrixF32(rows, assocLayerBatch.getRows());
+            batchResult = new MatrixF32(rows, assocLayerBatch.getColumns());
+            batchDelta = new MatrixF32(rows, assocLayerBatch.getColumns());
+        }
+
+        return batchHidden;
+    }
 }
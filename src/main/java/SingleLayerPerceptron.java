@@ -1,6 +1,9 @@
 
+import jdk.incubator.vector.FloatVector;
 import linear.MatrixF32;
 import linear.Ops;
+import linear.VectorF32;
+import neural.NeuralAlgo;
 
 import java.util.Random;
 
@@ -14,11 +17,18 @@ public class SingleLayerPerceptron {
     final private MatrixF32 weights;
     final private int sensorLayerSize;
     final private int outputLayerSize;
+    final private VectorF32 bias;
+    /**
+     * Буферы пакетного обучения, пересоздаются при смене размера пакета
+     */
+    private MatrixF32 batchResult;
+    private MatrixF32 batchDelta;
 
     public SingleLayerPerceptron(int sensorLayerSize, int outputLayerSize, long seed) {
         this.sensorLayerSize = sensorLayerSize;
         this.outputLayerSize = outputLayerSize;
         this.weights = new MatrixF32(outputLayerSize, sensorLayerSize);
+        this.bias = new VectorF32(outputLayerSize);
 
         generateWeights(seed);
     }
@@ -34,6 +44,28 @@ public class SingleLayerPerceptron {
         return result;
     }
 
+    /**
+     * eval для каждой строки sensorData, результат в result
+     */
+    public MatrixF32 eval(MatrixF32 sensorData, MatrixF32 result) {
+        return Ops.product(sensorData, weights.transpose(), bias, result, SingleLayerPerceptron::activation);
+    }
+
+    private static void activation(MatrixF32 matrix, int row, int rows) {
+        final var species = Ops.species;
+        final var columns = matrix.getColumns();
+
+        for (var i = row; i < row + rows; i++) {
+            final var start = (long) i * matrix.getStride();
+
+            for (var j = 0; j < columns; j += species.length()) {
+                var mask = species.indexInRange(j, columns);
+                var exp = Ops.exp(matrix.load(species, start + j, mask).neg());
+                matrix.store(FloatVector.broadcast(species, 1.0f).div(exp.add(1.0f)), start + j, mask);
+            }
+        }
+    }
+
     private float activation(float x) {
         return 1 / (1 + (float)Math.exp(-x));
     }
@@ -64,4 +96,23 @@ public class SingleLayerPerceptron {
             }
         }
     }
+
+    /**
+     * Обучение на пакете: строки sensorData - образцы, строки target - ответы. Прямой проход и поправка весов -
+     * по одному умножению матриц на пакет, поправка равна сумме поправок train по образцам пакета.
+     * Возвращает результаты пакета в буфере, действительном до следующего вызова
+     */
+    public MatrixF32 trainBatch(MatrixF32 sensorData, MatrixF32 target, float speed) {
+        var rows = sensorData.getRows();
+
+        if (batchResult == null || batchResult.getRows() != rows) {
+            batchResult = new MatrixF32(rows, outputLayerSize);
+            batchDelta = new MatrixF32(rows, outputLayerSize);
+        }
+
+        eval(sensorData, batchResult);
+        NeuralAlgo.deltaCorrection(speed, batchResult, target, sensorData, weights.transpose(), batchDelta);
+
+        return batchResult;
+    }
 }
@@ -1,6 +1,8 @@
+import linear.MatrixF32;
+
 import java.io.*;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Тест сходимости Розенблатта
@@ -8,19 +10,19 @@ import java.util.LinkedList;
 public class Test0 extends TestBase {
 
     public static final float INITIAL_SPEED = 0.02f;
+    private static final int BATCH_SIZE = 50;
 
     public static void main(String[] args) throws RuntimeException {
         try (
             var testImagesFile = new FileInputStream("src/main/resources/t10k-images-idx3-ubyte.gz");
             var testLabelsFile = new FileInputStream("src/main/resources/t10k-labels-idx1-ubyte.gz");
-            var trainImagesFile = new FileInputStream("src/main/resources/train-images-idx3-ubyte.gz");
             var trainLabelsFile = new FileInputStream("src/main/resources/train-labels-idx1-ubyte.gz")
         ) {
             var start = System.currentTimeMillis();
 
             var testImages = getImages(testImagesFile);
             var testLabels = getLabels(testLabelsFile);
-            var trainImages = getImages(trainImagesFile);
+            var trainImages = getImagesMatrix("train-images-idx3-ubyte.gz");
             var trainLabels = getLabels(trainLabelsFile);
 
             var loaded = System.currentTimeMillis() - start;
@@ -43,15 +45,15 @@ public class Test0 extends TestBase {
         }
     }
 
-    private static void train(float[][] testImages, byte[] testLabels, float[][] trainImages, byte[] trainLabels, SingleLayerPerceptron p) {
-        var prevFail = (float) trainImages.length + 1;
+    private static void train(float[][] testImages, byte[] testLabels, MatrixF32 trainImages, byte[] trainLabels, SingleLayerPerceptron p) {
+        var prevFail = (float) trainLabels.length + 1;
         var fail = prevFail - 1;
         var speed = INITIAL_SPEED;
-        var order = new LinkedList<Integer>();
-
-        for (var i = 0; i < trainImages.length; i++) {
-            order.add(i);
-        }
+        var order = new int[trainLabels.length];
+        Arrays.setAll(order, i -> i);
+        var random = new Random(1);
+        var images = new MatrixF32(BATCH_SIZE, trainImages.getColumns());
+        var targets = new MatrixF32(BATCH_SIZE, 10);
 
         var speedScale = 1f;
         var speedDecayTime = 15f;
@@ -64,12 +66,12 @@ public class Test0 extends TestBase {
                 speedDecayStart = epoch;
             }
 
-            Collections.shuffle(order);
+            shuffle(random, order);
 
-            for (var i : order) {
-                byte label = trainLabels[i];
-                var target = createTargetForLabel(label);
-                p.train(trainImages[i], target, speed * speedScale);
+            for (var from = 0; from < order.length; from += BATCH_SIZE) {
+                var rows = Math.min(BATCH_SIZE, order.length - from);
+                var batch = batch(trainImages, order, from, images.rows(0, rows));
+                p.trainBatch(batch, targets(trainLabels, order, from, targets.rows(0, rows)), speed * speedScale);
             }
 
             fail = test(testImages, testLabels, p);
@@ -77,7 +79,7 @@ public class Test0 extends TestBase {
 
             var epochTime = System.currentTimeMillis() - epochStart;
 
-            System.out.println("epoch is " + epoch + " done. " + epochTime + " ms. Error rate is: " + (trainFail / trainImages.length) * 100 + "%. Test error rate is: " + (fail / testImages.length) * 100 + "%. speed was: " + speed * speedScale);
+            System.out.println("epoch is " + epoch + " done. " + epochTime + " ms. Error rate is: " + (trainFail / trainLabels.length) * 100 + "%. Test error rate is: " + (fail / testImages.length) * 100 + "%. speed was: " + speed * speedScale);
         }
     }
 }
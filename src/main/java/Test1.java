@@ -1,9 +1,9 @@
-import linear.VectorF32;
+import linear.MatrixF32;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.SecureRandom;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Тест сходимости для разных A-size
@@ -11,27 +11,27 @@ import java.util.LinkedList;
 public class Test1 extends TestBase {
 
     private static final int EPOCHS = 300;
+    private static final int BATCH_SIZE = 50;
     private static final float INITIAL_SPEED = 0.005f;
 
     public static void main(String[] args) throws RuntimeException {
         try (
                 var testImagesFile = new FileInputStream("src/main/resources/t10k-images-idx3-ubyte.gz");
                 var testLabelsFile = new FileInputStream("src/main/resources/t10k-labels-idx1-ubyte.gz");
-                var trainImagesFile = new FileInputStream("src/main/resources/train-images-idx3-ubyte.gz");
                 var trainLabelsFile = new FileInputStream("src/main/resources/train-labels-idx1-ubyte.gz")
         ) {
             var start = System.currentTimeMillis();
 
             var testImages = getImages(testImagesFile);
             var testLabels = getLabels(testLabelsFile);
-            var trainImages = getImages(trainImagesFile);
+            var trainImages = getImagesMatrix("train-images-idx3-ubyte.gz");
             var trainLabels = getLabels(trainLabelsFile);
 
             var loaded = System.currentTimeMillis() - start;
 
             System.out.println("Files loaded " + loaded + " ms");
 
-            var result = trainImages.length;
+            var result = trainLabels.length;
 
             var speed = INITIAL_SPEED;
 
@@ -45,7 +45,7 @@ public class Test1 extends TestBase {
 
                 var fail = test(testImages, testLabels, p);
 
-                var trainRate = ((float)result / trainImages.length) * 100;
+                var trainRate = ((float)result / trainLabels.length) * 100;
                 var testRate = (fail / testImages.length) * 100;
                 System.out.println("test is done. " + (System.currentTimeMillis() - testStart) + " ms. Error rate is: " + trainRate + "% " + ". Test Error rate is: " + testRate + "%");
             }
@@ -56,21 +56,16 @@ public class Test1 extends TestBase {
         }
     }
 
-    private static int train(float[][] testImages, byte[] testLabels, float[][] trainImages, byte[] trainLabels, float speed, RosenblattPerceptron p) {
-        var order = new LinkedList<Integer>();
+    private static int train(float[][] testImages, byte[] testLabels, MatrixF32 trainImages, byte[] trainLabels, float speed, RosenblattPerceptron p) {
+        var order = new int[trainLabels.length];
+        Arrays.setAll(order, i -> i);
+        var random = new Random(1);
+        var targets = new MatrixF32(BATCH_SIZE, 10);
 
-        for (var i = 0; i < trainImages.length; i++) {
-            order.add(i);
-        }
-
-        var layer1 = new VectorF32[trainImages.length];
-
-        for (var i = 0; i < trainImages.length; i++) {
-            layer1[i] = p.evalLayer1(trainImages[i]);
-        }
+        var layer1 = p.cacheLayer1(trainImages);
 
         var fail = 0;
-        var prevFail = trainImages.length;
+        var prevFail = trainLabels.length;
         var failRate = 0.1f;
         var bestResult = prevFail;
 
@@ -89,18 +84,15 @@ public class Test1 extends TestBase {
             }
 
             // Перемешивание образцов ускоряет сходимость сети
-            Collections.shuffle(order);
-
-            for (var i : order) {
-                byte label = trainLabels[i];
-                var target = createTargetForLabel(label);
-                var r = p.trainLayer2(layer1[i], target, speed * speedScale, 0);
-                if (getAnswer(r) != label) {
-                    fail++;
-                }
+            shuffle(random, order);
+
+            for (var from = 0; from < order.length; from += BATCH_SIZE) {
+                var target = targets(trainLabels, order, from, targets.rows(0, Math.min(BATCH_SIZE, order.length - from)));
+                var r = p.trainLayer2(layer1, order, from, target, speed * speedScale, 0);
+                fail += errors(r, trainLabels, order, from);
             }
 
-            failRate = ((float) fail / trainImages.length);
+            failRate = ((float) fail / trainLabels.length);
 
             var testFail = test(testImages, testLabels, p);
 
@@ -1,4 +1,4 @@
-import linear.VectorF32;
+import linear.MatrixF32;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -11,27 +11,27 @@ import java.util.*;
 public class Test2 extends TestBase {
 
     private static final int EPOCHS = 300;
+    private static final int BATCH_SIZE = 50;
     private static final float INITIAL_SPEED = 0.01f;
 
     public static void main(String[] args) throws RuntimeException {
         try (
                 var testImagesFile = new FileInputStream("src/main/resources/t10k-images-idx3-ubyte.gz");
                 var testLabelsFile = new FileInputStream("src/main/resources/t10k-labels-idx1-ubyte.gz");
-                var trainImagesFile = new FileInputStream("src/main/resources/train-images-idx3-ubyte.gz");
                 var trainLabelsFile = new FileInputStream("src/main/resources/train-labels-idx1-ubyte.gz")
         ) {
             var start = System.currentTimeMillis();
 
             var testImages = getImages(testImagesFile);
             var testLabels = getLabels(testLabelsFile);
-            var trainImages = getImages(trainImagesFile);
+            var trainImages = getImagesMatrix("train-images-idx3-ubyte.gz");
             var trainLabels = getLabels(trainLabelsFile);
 
             var loaded = System.currentTimeMillis() - start;
 
             System.out.println("Files loaded " + loaded + " ms");
 
-            var result = trainImages.length;
+            var result = trainLabels.length;
 
             for (var i = 9; i <= 9; i++) {
                 var a = 125 * Math.pow(2, i);
@@ -45,7 +45,7 @@ public class Test2 extends TestBase {
 
                 var fail = test(testImages, testLabels, p);
 
-                var trainRate = ((float)result / trainImages.length) * 100;
+                var trainRate = ((float)result / trainLabels.length) * 100;
                 var testRate = (fail / testImages.length) * 100;
                 System.out.println("test is done. " + (System.currentTimeMillis() - testStart) + " ms. Error rate is: " + trainRate + "% " + ". Test Error rate is: " + testRate + "%");
             }
@@ -56,18 +56,13 @@ public class Test2 extends TestBase {
         }
     }
 
-    private static int train(float[][] testImages, byte[] testLabels, float[][] trainImages, byte[] trainLabels, float speed, float dropout, RosenblattPerceptron p) {
-        var order = new LinkedList<Integer>();
+    private static int train(float[][] testImages, byte[] testLabels, MatrixF32 trainImages, byte[] trainLabels, float speed, float dropout, RosenblattPerceptron p) {
+        var order = new int[trainLabels.length];
+        Arrays.setAll(order, i -> i);
+        var random = new Random(1);
+        var targets = new MatrixF32(BATCH_SIZE, 10);
 
-        for (var i = 0; i < trainImages.length; i++) {
-            order.add(i);
-        }
-
-        var layer1 = new VectorF32[trainImages.length];
-
-        for (var i = 0; i < trainImages.length; i++) {
-            layer1[i] = p.evalLayer1(trainImages[i]);
-        }
+        var layer1 = p.cacheLayer1(trainImages);
 
         var fail = 0;
         var speedScale = 1f;
@@ -79,7 +74,7 @@ public class Test2 extends TestBase {
             var epochStart = System.currentTimeMillis();
 
             // Перемешивание образцов ускоряет сходимость сети
-            Collections.shuffle(order);
+            shuffle(random, order);
 
             if ((epoch - speedDecayStart) > speedDecayTime) {
                 speedScale *= 0.5f;
@@ -87,16 +82,13 @@ public class Test2 extends TestBase {
                 speedDecayStart = epoch;
             }
 
-            for (var i : order) {
-                byte label = trainLabels[i];
-                var target = createTargetForLabel(label);
-                var r = p.trainLayer2(layer1[i], target, speed * speedScale, dropout);
-                if (getAnswer(r) != label) {
-                    fail++;
-                }
+            for (var from = 0; from < order.length; from += BATCH_SIZE) {
+                var target = targets(trainLabels, order, from, targets.rows(0, Math.min(BATCH_SIZE, order.length - from)));
+                var r = p.trainLayer2(layer1, order, from, target, speed * speedScale, dropout);
+                fail += errors(r, trainLabels, order, from);
             }
 
-            var failRate = ((float) fail / trainImages.length);
+            var failRate = ((float) fail / trainLabels.length);
 
             var testFail = test(testImages, testLabels, p);
 
@@ -1,14 +1,12 @@
+import dataset.BatchLoader;
+import linear.MatrixF32;
 import neural.Activation;
 import neural.Dropout;
 import neural.FeedForwardNeuralNetwork;
 import neural.optimizer.*;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.SecureRandom;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.Random;
 
 /**
@@ -20,24 +18,21 @@ public class Test41 extends TestBase {
     public static final int BATCH_SIZE = 200;
 
     public static void main(String[] args) throws RuntimeException {
+        var start = System.currentTimeMillis();
+
         try (
-                var testImagesFile = new FileInputStream("src/main/resources/t10k-images-idx3-ubyte.gz");
-                var testLabelsFile = new FileInputStream("src/main/resources/t10k-labels-idx1-ubyte.gz");
-                var trainImagesFile = new FileInputStream("src/main/resources/train-images-idx3-ubyte.gz");
-                var trainLabelsFile = new FileInputStream("src/main/resources/train-labels-idx1-ubyte.gz")
+                var loader = new BatchLoader(
+                        getImagesBytes("train-images-idx3-ubyte.gz"), getLabels("train-labels-idx1-ubyte.gz"), 10, BATCH_SIZE, new Random()
+                )
         ) {
-            var start = System.currentTimeMillis();
-
-            var testImages = getImagesBatch(testImagesFile);
-            var testLabels = getLabels(testLabelsFile);
-            var trainImages = getImagesBatch(trainImagesFile);
-            var trainLabels = getLabels(trainLabelsFile);
+            var testImages = getImagesMatrix("t10k-images-idx3-ubyte.gz");
+            var testLabels = getLabels("t10k-labels-idx1-ubyte.gz");
 
             var loaded = System.currentTimeMillis() - start;
 
             System.out.println("Files loaded " + loaded + " ms");
 
-            var result = trainImages.length;
+            var result = loader.batches() * BATCH_SIZE;
 
             for (var i = 0; i <= 8; i++) {
                 for (var j = 0; j <= 6; j++) {
@@ -105,13 +100,13 @@ public class Test41 extends TestBase {
 
                     System.out.println("Starting test with speed " + speed * speedOptimizerScale + "(" + a + "), volume " + p.volume() + ", Opt: " + optimizer.getClass().getSimpleName());
 
-                    result = train(testImages, testLabels, trainImages, trainLabels, speed * speedOptimizerScale, dropoutInputAlgo, p);
+                    result = train(testImages, testLabels, loader, speed * speedOptimizerScale, dropoutInputAlgo, p);
 
                     var testStart = System.currentTimeMillis();
 
                     var fail = testBatch(testImages, testLabels, p);
 
-                    var trainRate = ((float)result / trainLabels.length) * 100;
+                    var trainRate = ((float)result / (loader.batches() * BATCH_SIZE)) * 100;
 
                     var testRate = (fail / testLabels.length) * 100;
                     System.out.println("test is done. " + (System.currentTimeMillis() - testStart) + " ms. Error rate is: " + trainRate + "% " + ". Test Error rate is: " + testRate + "%");
@@ -119,31 +114,21 @@ public class Test41 extends TestBase {
             }
 
             System.out.println("Success");
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static int train(float[] testImages, byte[] testLabels, float[] trainImages, byte[] trainLabels, float speed, Dropout.Zero dropoutA, FeedForwardNeuralNetwork p) {
-        var order = new LinkedList<Integer>();
-
-        int imageSize = p.inputSize();
+    private static int train(MatrixF32 testImages, byte[] testLabels, BatchLoader loader, float speed, Dropout.Zero dropoutA, FeedForwardNeuralNetwork p) throws InterruptedException {
 
-        int imageCount = trainImages.length / imageSize;
-        int trainSize = 60000;//imageCount;
-        int testSize = testImages.length / imageSize;//imageCount;
-
-        for (var i = 0; i < imageCount; i++) {
-            order.add(i);
-        }
+        int trainSize = loader.batches() * BATCH_SIZE;
+        int testSize = testLabels.length;
 
         var fail = 0;
         var failRate = 0.1f;
 
         var batchSize = BATCH_SIZE;
 
-        var imagesBuffer = new float[imageSize * batchSize];
-        var labelsBuffer = new float[10 * batchSize];
         var testRateAvg = -1f;
         var bestTestRateAvg = 1f;
         var speedScale = 1f;
@@ -164,22 +149,14 @@ public class Test41 extends TestBase {
             }
 
             // Перемешивание образцов ускоряет сходимость сети
-            Collections.shuffle(order);
-
-            var j = 0;
-            for (var i : order.subList(0, trainSize)) {
-                byte label = trainLabels[i];
-                System.arraycopy(createTargetForLabel(label), 0, labelsBuffer, j * 10, 10);
-                System.arraycopy(trainImages, i * imageSize, imagesBuffer, j * imageSize, imageSize);
-                j++;
-
-                if (j >= batchSize) {
-                    j = 0;
-                    var r = p.train(imagesBuffer, labelsBuffer, speed * speedScale);
-                    for (var k = 0; k < batchSize; k++) {
-                        if (getAnswer(Arrays.copyOfRange(r, k * 10, (k + 1) * 10)) != getAnswer(Arrays.copyOfRange(labelsBuffer, k * 10, (k + 1) * 10))) {
-                            fail++;
-                        }
+            loader.epoch();
+
+            BatchLoader.Batch batch;
+            while ((batch = loader.next()) != null) {
+                var r = p.train(batch.images, batch.targets, speed * speedScale).getData();
+                for (var k = 0; k < batchSize; k++) {
+                    if (getAnswer(r, k * 10, 10) != batch.labels[k]) {
+                        fail++;
                     }
                 }
             }
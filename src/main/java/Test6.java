@@ -0,0 +1,129 @@
+import linear.MatrixF32;
+import linear.Ops;
+import neural.Activation;
+import neural.AsyncTrainer;
+import neural.FeedForwardNeuralNetwork;
+import neural.optimizer.Adam;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Сравнение синхронного обучения с асинхронным без блокировок (AsyncTrainer): скорость в образцах в секунду
+ * и ошибка на тестовой выборке по эпохам. Число потоков задается -Dworkers
+ */
+public class Test6 extends TestBase {
+
+    private static final int EPOCHS = 30;
+    public static final int BATCH_SIZE = 200;
+    private static final int HIDDEN = 320;
+    private static final float SPEED = 0.001f;
+
+    public static void main(String[] args) throws RuntimeException {
+        try {
+            var start = System.currentTimeMillis();
+
+            var testImages = getImagesMatrix("t10k-images-idx3-ubyte.gz");
+            var testLabels = getLabels("t10k-labels-idx1-ubyte.gz");
+            var trainImages = getImagesMatrix("train-images-idx3-ubyte.gz");
+            var trainLabels = getLabels("train-labels-idx1-ubyte.gz");
+
+            System.out.println("Files loaded " + (System.currentTimeMillis() - start) + " ms");
+
+            var workers = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+
+            for (var mode : new String[]{"sync", "async", "async-striped"}) {
+                var p = network();
+                var trainer = mode.equals("sync") ? null : new AsyncTrainer(p, Adam::new, workers, mode.equals("async-striped"));
+
+                System.out.println("Starting " + mode + " with " + (trainer == null ? 1 : workers) + " threads, volume " + p.volume());
+
+                // Один порядок образцов для всех режимов
+                var random = new Random(1);
+                var images = new MatrixF32(trainLabels.length, p.inputSize());
+                var targets = new MatrixF32(trainLabels.length, 10);
+
+                for (var epoch = 0; epoch < EPOCHS; epoch++) {
+                    shuffle(random, trainImages, trainLabels, images, targets);
+
+                    AsyncTrainer.Result result;
+
+                    if (trainer == null) {
+                        result = train(p, images, targets);
+                    } else {
+                        result = trainer.train(images, targets, BATCH_SIZE, SPEED);
+                    }
+
+                    var testRate = testBatch(testImages, testLabels, p) / testLabels.length;
+
+                    System.out.println(mode + " epoch " + epoch + ": " + result.nanos() / 1000000 + " ms, "
+                            + Math.round(result.samplesPerSecond()) + " samples/s. Error rate is: " + result.errorRate() * 100
+                            + "%. Loss: " + result.loss() + ". Test error rate is: " + testRate * 100 + "%");
+                }
+            }
+
+            System.out.println("Success");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static FeedForwardNeuralNetwork network() {
+        return new FeedForwardNeuralNetwork(new Random(3), new Adam())
+                .addLayer(28 * 28).parent()
+                .addLayer(HIDDEN).set(new Activation.LeakyReLU()).parent()
+                .addLayer(HIDDEN).set(new Activation.LeakyReLU()).parent()
+                .addLayer(10).set(new Activation.SoftmaxStable()).parent();
+    }
+
+    /**
+     * Эпоха FeedForwardNeuralNetwork.train с той же статистикой, что у AsyncTrainer
+     */
+    private static AsyncTrainer.Result train(FeedForwardNeuralNetwork p, MatrixF32 images, MatrixF32 targets) {
+        var batches = images.getRows() / BATCH_SIZE;
+        var errors = 0L;
+        var start = System.nanoTime();
+
+        for (var batch = 0; batch < batches; batch++) {
+            var target = targets.rows(batch * BATCH_SIZE, BATCH_SIZE);
+            var result = p.train(images.rows(batch * BATCH_SIZE, BATCH_SIZE), target, SPEED).getData();
+
+            for (var k = 0; k < BATCH_SIZE; k++) {
+                if (getAnswer(result, k * 10, 10) != targetLabel(target, k)) {
+                    errors++;
+                }
+            }
+        }
+
+        return new AsyncTrainer.Result((long) batches * BATCH_SIZE, System.nanoTime() - start, Float.NaN, errors);
+    }
+
+    private static int targetLabel(MatrixF32 target, int row) {
+        for (var i = 0; i < 10; i++) {
+            if (target.get(row * 10L + i) == 1.0f) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void shuffle(Random random, MatrixF32 images, byte[] labels, MatrixF32 shuffledImages, MatrixF32 shuffledTargets) {
+        var order = new int[labels.length];
+
+        for (var i = 0; i < order.length; i++) {
+            var j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+
+        var targetsData = shuffledTargets.getData();
+        Arrays.fill(targetsData, 0.0f);
+
+        for (var i = 0; i < order.length; i++) {
+            Ops.copy(images.rows(order[i], 1), shuffledImages.rows(i, 1));
+            targetsData[i * 10 + labels[order[i]]] = 1.0f;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import linear.MatrixF32;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Перцептрон Розенблатта с весами A-R, найденными гребневой регрессией за один проход (solveLayer2),
+ * для разных A-size. -Dridge задает регуляризацию, -DfanIn - число S-входов A-нейрона (0 - полные связи)
+ */
+public class Test7 extends TestBase {
+
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) throws RuntimeException {
+        try {
+            var start = System.currentTimeMillis();
+
+            var testImages = getImagesMatrix("t10k-images-idx3-ubyte.gz");
+            var testLabels = getLabels("t10k-labels-idx1-ubyte.gz");
+            var trainImages = getImagesMatrix("train-images-idx3-ubyte.gz");
+            var trainLabels = getLabels("train-labels-idx1-ubyte.gz");
+
+            System.out.println("Files loaded " + (System.currentTimeMillis() - start) + " ms");
+
+            var order = new int[trainLabels.length];
+            Arrays.setAll(order, i -> i);
+            var targets = targets(trainLabels, order, 0, new MatrixF32(trainLabels.length, 10));
+            var ridge = Float.parseFloat(System.getProperty("ridge", "0.001"));
+            var fanIn = Integer.getInteger("fanIn", 0);
+
+            for (var i = 0; i < 5; i++) {
+                var a = 500 * (int) Math.pow(2, i);
+                var p = new RosenblattPerceptron(28 * 28, 10, a, fanIn, new SecureRandom(new byte[]{3}));
+                var solveStart = System.currentTimeMillis();
+
+                p.solveLayer2(trainImages, targets, ridge, BATCH_SIZE);
+
+                var solveTime = System.currentTimeMillis() - solveStart;
+                var trainRate = test(trainImages, trainLabels, p) / trainLabels.length;
+                var testRate = test(testImages, testLabels, p) / testLabels.length;
+
+                System.out.println("A-size " + a + " solved in " + solveTime + " ms. Error rate is: " + trainRate * 100 + "%. Test error rate is: " + testRate * 100 + "%");
+            }
+
+            System.out.println("Success");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Ошибки на строках images пакетами через evalLayer1 и evalLayer2
+     */
+    private static float test(MatrixF32 images, byte[] labels, RosenblattPerceptron p) {
+        var order = new int[labels.length];
+        Arrays.setAll(order, i -> i);
+        var fail = 0;
+
+        for (var row = 0; row < labels.length; row += BATCH_SIZE) {
+            var rows = Math.min(BATCH_SIZE, labels.length - row);
+            fail += errors(p.eval(images.rows(row, rows)), labels, order, row);
+        }
+
+        return fail;
+    }
+}
@@ -1,17 +1,33 @@
+import dataset.ByteDataset;
+import dataset.IdxCache;
+import linear.MatrixF32;
+import linear.Ops;
+import neural.Evaluator;
 import neural.FeedForwardNeuralNetwork;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
 import java.util.zip.GZIPInputStream;
 
 public class TestBase {
     protected static int getAnswer(float[] result) {
+        return getAnswer(result, 0, result.length);
+    }
+
+    /**
+     * Ответ по строке result[offset:offset + length] пакетного результата, без копирования
+     */
+    protected static int getAnswer(float[] result, int offset, int length) {
         var a = 0;
         var max = 0.0f;
 
-        for (var i = 0; i < result.length; i++) {
-            if (result[i] > max) {
-                max = result[i];
+        for (var i = 0; i < length; i++) {
+            if (result[offset + i] > max) {
+                max = result[offset + i];
                 a = i;
             }
         }
@@ -113,6 +129,25 @@ public class TestBase {
         return images;
     }
 
+    /**
+     * Изображения файла name из src/main/resources через IdxCache: gzip распаковывается только при первом запуске,
+     * дальше матрица отображается из кэша без копирования
+     */
+    protected static MatrixF32 getImagesMatrix(String name) throws IOException {
+        return IdxCache.images(Path.of("src/main/resources", name));
+    }
+
+    /**
+     * Изображения байтами, в float переводятся по пакетам (ByteDataset.batch)
+     */
+    protected static ByteDataset getImagesBytes(String name) throws IOException {
+        return IdxCache.bytes(Path.of("src/main/resources", name));
+    }
+
+    protected static byte[] getLabels(String name) throws IOException {
+        return IdxCache.labels(Path.of("src/main/resources", name));
+    }
+
     protected static float test(float[][] testImages, byte[] testLabels, SingleLayerPerceptron p) {
 
         var fail = 0.0f;
@@ -131,6 +166,71 @@ public class TestBase {
         return fail;
     }
 
+    /**
+     * Ошибки на всех строках testImages одним пакетом
+     */
+    protected static float test(MatrixF32 testImages, byte[] testLabels, SingleLayerPerceptron p) {
+        var results = p.eval(testImages, new MatrixF32(testImages.getRows(), 10));
+        var order = new int[testLabels.length];
+        Arrays.setAll(order, i -> i);
+
+        return errors(results, testLabels, order, 0);
+    }
+
+    /**
+     * Перемешивание порядка образцов на месте
+     */
+    protected static int[] shuffle(Random random, int[] order) {
+        for (var i = order.length - 1; i > 0; i--) {
+            var j = random.nextInt(i + 1);
+            var t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+
+        return order;
+    }
+
+    /**
+     * Строки images с номерами order[from], order[from + 1], ... в строки result
+     */
+    protected static MatrixF32 batch(MatrixF32 images, int[] order, int from, MatrixF32 result) {
+        for (var i = 0; i < result.getRows(); i++) {
+            Ops.copy(images.rows(order[from + i], 1), result.rows(i, 1));
+        }
+
+        return result;
+    }
+
+    /**
+     * Ответы образцов order[from], order[from + 1], ... строками result
+     */
+    protected static MatrixF32 targets(byte[] labels, int[] order, int from, MatrixF32 result) {
+        var data = result.getData();
+        Arrays.fill(data, 0, result.getRows() * 10, 0.0f);
+
+        for (var i = 0; i < result.getRows(); i++) {
+            data[i * 10 + labels[order[from + i]]] = 1.0f;
+        }
+
+        return result;
+    }
+
+    /**
+     * Число строк пакетного результата с неверным ответом
+     */
+    protected static int errors(MatrixF32 results, byte[] labels, int[] order, int from) {
+        var fail = 0;
+
+        for (var i = 0; i < results.getRows(); i++) {
+            if (Ops.argmax(results, i) != labels[order[from + i]]) {
+                fail++;
+            }
+        }
+
+        return fail;
+    }
+
     protected static float test(float[][] testImages, byte[] testLabels, RosenblattPerceptron p) {
 
         var fail = 0.0f;
@@ -156,7 +256,7 @@ public class TestBase {
         for (var i = 0; i < testLabels.length; i++) {
             byte label = testLabels[i];
 
-            int answer = getAnswer(Arrays.copyOfRange(results, 10 * i, 10 * (i + 1)));
+            int answer = getAnswer(results, 10 * i, 10);
 
             if (answer != label) {
                 fail++;
@@ -165,4 +265,16 @@ public class TestBase {
 
         return fail;
     }
+
+    /**
+     * Evaluator по сети: буферы частей выделяются один раз на сеть, а не на каждую проверку эпохи
+     */
+    private static final Map<FeedForwardNeuralNetwork, Evaluator> evaluators = new WeakHashMap<>();
+
+    /**
+     * Ошибки на тестовой выборке через Evaluator: параллельно, частями, без копирования строк
+     */
+    protected static float testBatch(MatrixF32 testImages, byte[] testLabels, FeedForwardNeuralNetwork p) {
+        return evaluators.computeIfAbsent(p, Evaluator::new).evaluate(testImages, testLabels).errors();
+    }
 }
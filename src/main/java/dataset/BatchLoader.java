@@ -0,0 +1,177 @@
+package dataset;
+
+import linear.MatrixF32;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Пакеты обучения с перемешиванием по эпохам. Пока сеть обучается на текущем пакете, фоновый поток собирает
+ * следующий во второй буфер: строки ByteDataset переводятся во float, метки в one-hot цели. Буферы и порядок
+ * образцов (int[]) выделяются один раз, next только передает готовый буфер.
+ * Пакет, возвращенный next, действителен до следующего вызова next или epoch
+ */
+public final class BatchLoader implements AutoCloseable {
+
+    public static final class Batch {
+        public final MatrixF32 images;
+        public final MatrixF32 targets;
+        public final byte[] labels;
+
+        private Batch(int batchSize, int inputSize, int classes) {
+            images = new MatrixF32(batchSize, inputSize);
+            targets = new MatrixF32(batchSize, classes);
+            labels = new byte[batchSize];
+        }
+    }
+
+    private final ByteDataset images;
+    private final byte[] labels;
+    private final int batchSize;
+    private final Random random;
+    private final int[] order;
+    private final Batch[] buffers;
+    private final Thread thread;
+
+    /**
+     * Число пакетов эпохи, неполный последний пакет пропускается
+     */
+    private final int batches;
+    private int produced;
+    private int taken;
+    private int done;
+    private boolean filling;
+    private boolean closed;
+
+    public BatchLoader(ByteDataset images, byte[] labels, int classes, int batchSize, Random random) {
+        if (images.getCount() != labels.length) {
+            throw new IllegalArgumentException(images.getCount() + " images, " + labels.length + " labels");
+        }
+
+        this.images = images;
+        this.labels = labels;
+        this.batchSize = batchSize;
+        this.random = random;
+        this.order = new int[labels.length];
+        this.buffers = new Batch[]{
+                new Batch(batchSize, images.getSize(), classes),
+                new Batch(batchSize, images.getSize(), classes),
+        };
+        this.batches = labels.length / batchSize;
+        this.produced = batches;
+        this.taken = batches;
+        this.done = batches;
+
+        for (var i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        thread = Thread.ofPlatform().daemon().name("batch-loader").start(this::run);
+    }
+
+    public int batches() {
+        return batches;
+    }
+
+    /**
+     * Новая эпоха с новым порядком образцов, недочитанные пакеты прошлой эпохи отбрасываются
+     */
+    public synchronized void epoch() throws InterruptedException {
+        while (filling) {
+            wait();
+        }
+
+        for (var i = order.length - 1; i > 0; i--) {
+            var j = random.nextInt(i + 1);
+            var t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+
+        produced = 0;
+        taken = 0;
+        done = 0;
+        notifyAll();
+    }
+
+    /**
+     * Следующий пакет эпохи или null, если эпоха закончилась. Прошлый пакет освобождается для фонового потока
+     */
+    public synchronized Batch next() throws InterruptedException {
+        done = taken;
+        notifyAll();
+
+        if (taken == batches) {
+            return null;
+        }
+
+        while (produced == taken) {
+            wait();
+        }
+
+        return buffers[taken++ % buffers.length];
+    }
+
+    /**
+     * Останавливает фоновый поток и ждет его. Прерывание ожидания не теряется: флаг прерывания восстанавливается,
+     * фоновый поток завершится сам
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                int index;
+
+                synchronized (this) {
+                    while (!closed && (produced == batches || produced - done == buffers.length)) {
+                        wait();
+                    }
+
+                    if (closed) {
+                        return;
+                    }
+
+                    index = produced;
+                    filling = true;
+                }
+
+                fill(buffers[index % buffers.length], index * batchSize);
+
+                synchronized (this) {
+                    filling = false;
+                    produced++;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fill(Batch batch, int from) {
+        images.batch(order, from, batch.images);
+
+        var targets = batch.targets.getData();
+        var classes = batch.targets.getColumns();
+        Arrays.fill(targets, 0.0f);
+
+        for (var i = 0; i < batchSize; i++) {
+            var label = labels[order[from + i]];
+            batch.labels[i] = label;
+            targets[i * classes + label] = 1.0f;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package dataset;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import linear.MatrixF32;
+import linear.Ops;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Образцы по байту на признак (uint8, как пиксели MNIST), вчетверо меньше float. В float переводится только
+ * текущий пакет: байты расширяются векторно и умножаются на scale прямо в переиспользуемый буфер пакета
+ */
+public final class ByteDataset {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_128;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, Ops.species.vectorShape());
+
+    private final int count;
+    private final int size;
+    private final MemorySegment data;
+    private final float scale;
+
+    /**
+     * data - count строк по size байт подряд, на куче или отображенные из файла
+     */
+    public ByteDataset(int count, int size, MemorySegment data, float scale) {
+        if (data.byteSize() < (long) count * size) {
+            throw new IllegalArgumentException("Dataset is too small: " + data.byteSize());
+        }
+
+        this.count = count;
+        this.size = size;
+        this.data = data;
+        this.scale = scale;
+    }
+
+    /**
+     * Значения 0..255 переводятся в [0, 1]
+     */
+    public ByteDataset(int count, int size, byte[] data) {
+        this(count, size, MemorySegment.ofArray(data), 1.0f / 255);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public float get(int row, int column) {
+        return Byte.toUnsignedInt(data.get(ValueLayout.JAVA_BYTE, (long) row * size + column)) * scale;
+    }
+
+    /**
+     * Строки row..row + result.getRows() в result
+     */
+    public MatrixF32 batch(int row, MatrixF32 result) {
+        for (var r = 0; r < result.getRows(); r++) {
+            widen(row + r, result, r);
+        }
+
+        return result;
+    }
+
+    /**
+     * Строки order[from], order[from + 1], ... в result, для перемешанных эпох
+     */
+    public MatrixF32 batch(int[] order, int from, MatrixF32 result) {
+        for (var r = 0; r < result.getRows(); r++) {
+            widen(order[from + r], result, r);
+        }
+
+        return result;
+    }
+
+    /**
+     * 16 байт за раз, каждая часть по числу дорожек float расширяется до int без знака и переводится во float
+     */
+    private void widen(int row, MatrixF32 result, int resultRow) {
+        if (result.getColumns() != size) {
+            throw new IllegalArgumentException("Batch has " + result.getColumns() + " columns, dataset has " + size);
+        }
+
+        var lanes = INTS.length();
+        var source = (long) row * size;
+        var target = (long) resultRow * result.getStride();
+        var bound = BYTES.loopBound(size);
+        var j = 0;
+
+        for (; j < bound; j += BYTES.length()) {
+            var bytes = ByteVector.fromMemorySegment(BYTES, data, source + j, ByteOrder.nativeOrder());
+
+            for (var part = 0; part < BYTES.length() / lanes; part++) {
+                var floats = (FloatVector) bytes.convertShape(VectorOperators.ZERO_EXTEND_B2I, INTS, part)
+                        .convert(VectorOperators.I2F, 0);
+                result.store(floats.mul(scale), target + j + (long) part * lanes);
+            }
+        }
+
+        for (; j < size; j++) {
+            result.set(target + j, Byte.toUnsignedInt(data.get(ValueLayout.JAVA_BYTE, source + j)) * scale);
+        }
+    }
+}
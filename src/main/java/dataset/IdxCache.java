@@ -0,0 +1,216 @@
+package dataset;
+
+import linear.MatrixF32;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Кэш IDX-файлов (MNIST) в несжатом двоичном виде. Файл .gz распаковывается один раз: изображения хранятся
+ * переведенными в float из [0, 1] (images) или исходными байтами (bytes), метки остаются байтами. Дальше кэш отображается в память (FileChannel.map)
+ * и читается без копирования, процессы с одним кэшем делят страницы в памяти ОС.
+ * Кэш пересобирается, если у исходного файла изменились размер или время изменения
+ */
+public final class IdxCache {
+    public static final int IMAGES = 2051;
+    public static final int LABELS = 2049;
+
+    private static final int MAGIC = 0x49445843;
+    private static final int VERSION = 2;
+    /**
+     * Заголовок кэша, данные после него выровнены на 64 байта
+     */
+    private static final int HEADER = 64;
+
+    private static final long MAGIC_OFFSET = 0;
+    private static final long VERSION_OFFSET = 4;
+    private static final long IDX_MAGIC_OFFSET = 8;
+    private static final long COUNT_OFFSET = 12;
+    private static final long ROWS_OFFSET = 16;
+    private static final long COLUMNS_OFFSET = 20;
+    private static final long SOURCE_SIZE_OFFSET = 24;
+    private static final long SOURCE_MODIFIED_OFFSET = 32;
+    private static final long ELEMENT_OFFSET = 40;
+
+    private IdxCache() {
+    }
+
+    /**
+     * Каталог кэша по умолчанию, задается -Ddataset.cache
+     */
+    public static Path directory() {
+        return Path.of(System.getProperty("dataset.cache", "target/dataset-cache"));
+    }
+
+    public static MatrixF32 images(Path source) throws IOException {
+        return images(source, directory());
+    }
+
+    /**
+     * Изображения source как матрица count x rows * columns поверх отображенного кэша, только для чтения
+     */
+    public static MatrixF32 images(Path source, Path directory) throws IOException {
+        var segment = open(source, directory, IMAGES, Float.BYTES);
+        var count = segment.get(ValueLayout.JAVA_INT, COUNT_OFFSET);
+        var size = segment.get(ValueLayout.JAVA_INT, ROWS_OFFSET) * segment.get(ValueLayout.JAVA_INT, COLUMNS_OFFSET);
+
+        return new MatrixF32(count, size, segment.asSlice(HEADER, (long) count * size * Float.BYTES));
+    }
+
+    public static ByteDataset bytes(Path source) throws IOException {
+        return bytes(source, directory());
+    }
+
+    /**
+     * Изображения source байтами поверх отображенного кэша, в float переводятся по пакетам
+     */
+    public static ByteDataset bytes(Path source, Path directory) throws IOException {
+        var segment = open(source, directory, IMAGES, Byte.BYTES);
+        var count = segment.get(ValueLayout.JAVA_INT, COUNT_OFFSET);
+        var size = segment.get(ValueLayout.JAVA_INT, ROWS_OFFSET) * segment.get(ValueLayout.JAVA_INT, COLUMNS_OFFSET);
+
+        return new ByteDataset(count, size, segment.asSlice(HEADER, (long) count * size), 1.0f / 255);
+    }
+
+    public static byte[] labels(Path source) throws IOException {
+        return labels(source, directory());
+    }
+
+    public static byte[] labels(Path source, Path directory) throws IOException {
+        var segment = open(source, directory, LABELS, Byte.BYTES);
+        var count = segment.get(ValueLayout.JAVA_INT, COUNT_OFFSET);
+
+        return segment.asSlice(HEADER, count).toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    /**
+     * element - байт на значение: Float.BYTES для изображений во float, Byte.BYTES для исходных байтов
+     */
+    private static MemorySegment open(Path source, Path directory, int idxMagic, int element) throws IOException {
+        var name = source.getFileName().toString();
+        var base = name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+        var cache = directory.resolve(base + (idxMagic == IMAGES && element == Byte.BYTES ? ".u8.bin" : ".bin"));
+        var segment = map(cache);
+
+        if (segment == null || !isValid(segment, source, idxMagic, element)) {
+            Files.createDirectories(directory);
+            build(source, cache, idxMagic, element);
+            segment = map(cache);
+
+            if (segment == null || !isValid(segment, source, idxMagic, element)) {
+                throw new IOException("Cache is invalid: " + cache);
+            }
+        }
+
+        return segment;
+    }
+
+    private static MemorySegment map(Path cache) throws IOException {
+        if (!Files.isRegularFile(cache) || Files.size(cache) < HEADER) {
+            return null;
+        }
+
+        try (var channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        }
+    }
+
+    private static boolean isValid(MemorySegment segment, Path source, int idxMagic, int element) throws IOException {
+        if (segment.get(ValueLayout.JAVA_INT, MAGIC_OFFSET) != MAGIC
+                || segment.get(ValueLayout.JAVA_INT, VERSION_OFFSET) != VERSION
+                || segment.get(ValueLayout.JAVA_INT, IDX_MAGIC_OFFSET) != idxMagic
+                || segment.get(ValueLayout.JAVA_INT, ELEMENT_OFFSET) != element
+                || segment.get(ValueLayout.JAVA_LONG, SOURCE_SIZE_OFFSET) != Files.size(source)
+                || segment.get(ValueLayout.JAVA_LONG, SOURCE_MODIFIED_OFFSET) != Files.getLastModifiedTime(source).toMillis()) {
+            return false;
+        }
+
+        long size = (long) segment.get(ValueLayout.JAVA_INT, COUNT_OFFSET)
+                * segment.get(ValueLayout.JAVA_INT, ROWS_OFFSET)
+                * segment.get(ValueLayout.JAVA_INT, COLUMNS_OFFSET);
+
+        return segment.byteSize() == HEADER + size * element;
+    }
+
+    /**
+     * Пишет кэш во временный файл и переименовывает его, процессы, собирающие кэш одновременно, не видят
+     * недописанный файл
+     */
+    private static void build(Path source, Path cache, int idxMagic, int element) throws IOException {
+        var temp = Files.createTempFile(cache.getParent(), cache.getFileName().toString(), ".tmp");
+
+        try (
+                var input = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(source))));
+                var output = FileChannel.open(temp, StandardOpenOption.WRITE)
+        ) {
+            var magic = input.readInt();
+
+            if (magic != idxMagic) {
+                throw new IOException("Magick is invalid: " + magic);
+            }
+
+            var count = input.readInt();
+            var rows = idxMagic == IMAGES ? input.readInt() : 1;
+            var columns = idxMagic == IMAGES ? input.readInt() : 1;
+
+            var header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder())
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(idxMagic)
+                    .putInt(count)
+                    .putInt(rows)
+                    .putInt(columns)
+                    .putLong(Files.size(source))
+                    .putLong(Files.getLastModifiedTime(source).toMillis())
+                    .putInt(element)
+                    .position(HEADER)
+                    .flip();
+
+            write(output, header);
+
+            // Изображения пишутся по одному, метки одним блоком
+            var records = idxMagic == IMAGES ? count : 1;
+            var size = idxMagic == IMAGES ? rows * columns : count;
+            var bytes = new byte[size];
+            var buffer = ByteBuffer.allocateDirect(size * element).order(ByteOrder.nativeOrder());
+
+            for (var i = 0; i < records; i++) {
+                input.readFully(bytes);
+                buffer.clear();
+
+                if (element == Float.BYTES) {
+                    for (var b : bytes) {
+                        buffer.putFloat(Byte.toUnsignedInt(b) / 255.0f);
+                    }
+                } else {
+                    buffer.put(bytes);
+                }
+
+                write(output, buffer.flip());
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(FileChannel output, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+}
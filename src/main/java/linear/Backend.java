@@ -0,0 +1,59 @@
+package linear;
+
+import linear.backend.Netlib;
+import linear.backend.VectorApi;
+
+/**
+ * Реализация примитивов BLAS, через которые Ops выполняет все операции над float[].
+ * Семантика и порядок хранения (column-major) совпадают с netlib
+ */
+public class Backend {
+    public interface Interface {
+        void sgemm(String transa, String transb, int m, int n, int k, float alpha,
+                   float[] a, int offseta, int lda,
+                   float[] b, int offsetb, int ldb,
+                   float beta, float[] c, int offsetc, int ldc);
+
+        void sgemv(String trans, int m, int n, float alpha,
+                   float[] a, int offseta, int lda,
+                   float[] x, int offsetx,
+                   float beta, float[] y, int offsety);
+
+        /**
+         * y = alpha * a .* x + beta * y, диагональный ssbmv
+         */
+        void multipleElements(int n, float alpha, float[] a, int offseta, float[] x, int offsetx, float beta, float[] y, int offsety);
+
+        void saxpy(int n, float alpha, float[] x, int offsetx, float[] y, int offsety);
+
+        void sscal(int n, float alpha, float[] x, int offsetx);
+
+        float sdot(int n, float[] x, int offsetx, float[] y, int offsety);
+
+        int isamax(int n, float[] x, int offsetx);
+
+        /**
+         * Допускает ли sgemm блоки внутри массива, у которых последний столбец короче ld
+         */
+        default boolean supportsSubmatrices() {
+            return true;
+        }
+    }
+
+    /**
+     * netlib (по умолчанию), vector, либо полное имя класса, реализующего Backend.Interface
+     */
+    public static Interface fromName(String name) {
+        return switch (name) {
+            case "netlib" -> new Netlib();
+            case "vector" -> new VectorApi();
+            default -> {
+                try {
+                    yield (Interface) Class.forName(name).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("Unknown backend " + name, e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package linear;
+
+/**
+ * Разложение Холецкого симметричной положительно определенной матрицы, matrix = L * L^T, и решение систем с ним.
+ * Разложение блочное: диагональный блок раскладывается поэлементно, панель под ним - подстановкой, а остаток
+ * матрицы обновляется умножением матриц (Ops.product, параллельно). Читается только нижний треугольник
+ */
+public class Cholesky {
+
+    public static final int BLOCK = 128;
+
+    /**
+     * Заменяет на месте нижний треугольник matrix на L. Верхний треугольник не читается, часть его у диагонали
+     * после разложения не определена
+     */
+    public static MatrixF32 factor(MatrixF32 matrix) {
+        var n = matrix.getRows();
+
+        if (n != matrix.getColumns() || matrix.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        for (var k = 0; k < n; k += BLOCK) {
+            var size = Math.min(BLOCK, n - k);
+
+            factorBlock(matrix, k, size);
+            solvePanel(matrix, k, size);
+            updateTrailing(matrix, k, size);
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Решает на месте matrix * X = rhs по разложению factor, столбцы rhs - независимые правые части
+     */
+    public static MatrixF32 solve(MatrixF32 factor, MatrixF32 rhs) {
+        var n = factor.getRows();
+        var columns = rhs.getColumns();
+
+        if (rhs.getRows() != n || rhs.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        var sums = new double[columns];
+
+        // L * Y = rhs, строки L читаются подряд
+        for (var i = 0; i < n; i++) {
+            for (var c = 0; c < columns; c++) {
+                sums[c] = rhs.get(index(rhs, i, c));
+            }
+
+            for (var t = 0; t < i; t++) {
+                var value = (double) factor.get(index(factor, i, t));
+
+                for (var c = 0; c < columns; c++) {
+                    sums[c] -= value * rhs.get(index(rhs, t, c));
+                }
+            }
+
+            var diagonal = factor.get(index(factor, i, i));
+
+            for (var c = 0; c < columns; c++) {
+                rhs.set(index(rhs, i, c), (float) (sums[c] / diagonal));
+            }
+        }
+
+        // L^T * X = Y: готовая строка X сразу вычитается из предыдущих, тоже по строкам L
+        for (var i = n - 1; i >= 0; i--) {
+            var diagonal = factor.get(index(factor, i, i));
+
+            for (var c = 0; c < columns; c++) {
+                rhs.set(index(rhs, i, c), rhs.get(index(rhs, i, c)) / diagonal);
+            }
+
+            for (var t = 0; t < i; t++) {
+                var value = factor.get(index(factor, i, t));
+
+                for (var c = 0; c < columns; c++) {
+                    rhs.set(index(rhs, t, c), rhs.get(index(rhs, t, c)) - value * rhs.get(index(rhs, i, c)));
+                }
+            }
+        }
+
+        return rhs;
+    }
+
+    /**
+     * Диагональный блок [k, k + size), предыдущие столбцы уже вычтены updateTrailing
+     */
+    private static void factorBlock(MatrixF32 matrix, int k, int size) {
+        for (var j = k; j < k + size; j++) {
+            var sum = (double) matrix.get(index(matrix, j, j));
+
+            for (var t = k; t < j; t++) {
+                var value = matrix.get(index(matrix, j, t));
+                sum -= (double) value * value;
+            }
+
+            if (!(sum > 0)) {
+                throw new ArithmeticException("matrix is not positive definite");
+            }
+
+            var diagonal = (float) Math.sqrt(sum);
+            matrix.set(index(matrix, j, j), diagonal);
+
+            for (var i = j + 1; i < k + size; i++) {
+                matrix.set(index(matrix, i, j), (float) (dot(matrix, i, j, k, j) / diagonal));
+            }
+        }
+    }
+
+    /**
+     * Строки под диагональным блоком: X * L11^T = A21
+     */
+    private static void solvePanel(MatrixF32 matrix, int k, int size) {
+        for (var i = k + size; i < matrix.getRows(); i++) {
+            for (var j = k; j < k + size; j++) {
+                var value = dot(matrix, i, j, k, j) / matrix.get(index(matrix, j, j));
+                matrix.set(index(matrix, i, j), (float) value);
+            }
+        }
+    }
+
+    /**
+     * A22 -= L21 * L21^T по блокам строк, только нижний треугольник с диагональными блоками
+     */
+    private static void updateTrailing(MatrixF32 matrix, int k, int size) {
+        var n = matrix.getRows();
+        var start = k + size;
+
+        for (var row = start; row < n; row += BLOCK) {
+            var rows = Math.min(BLOCK, n - row);
+            var columns = row + rows - start;
+
+            Ops.product(
+                    matrix.view(row, k, rows, size),
+                    matrix.view(start, k, columns, size).transpose(),
+                    matrix.view(row, start, rows, columns),
+                    -1.0f,
+                    1.0f
+            );
+        }
+    }
+
+    /**
+     * matrix[i][j] - сумма matrix[i][t] * matrix[j][t] по t из [from, to)
+     */
+    private static double dot(MatrixF32 matrix, int i, int j, int from, int to) {
+        var sum = (double) matrix.get(index(matrix, i, j));
+
+        for (var t = from; t < to; t++) {
+            sum -= (double) matrix.get(index(matrix, i, t)) * matrix.get(index(matrix, j, t));
+        }
+
+        return sum;
+    }
+
+    private static long index(MatrixF32 matrix, int row, int column) {
+        return (long) row * matrix.getStride() + column;
+    }
+}
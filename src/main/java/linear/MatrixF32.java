@@ -1,16 +1,43 @@
 package linear;
 
-public class MatrixF32 {
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+public final class MatrixF32 {
     private  final int rows;
     private final int columns;
     private boolean transposed = false;
     float[] data;
 
+    /**
+     * Off-heap хранилище, null для матриц поверх float[]
+     */
+    final MemorySegment segment;
+
+    /**
+     * Смещение первого элемента в data или segment, в элементах
+     */
+    private final long offset;
+
+    /**
+     * Расстояние между началами соседних строк хранилища (столбцов, если матрица транспонирована)
+     */
+    private final int stride;
+
     public MatrixF32(int rows, int columns, float[] data, boolean transposed) {
         this.rows = rows;
         this.columns = columns;
         this.data = data;
+        this.segment = null;
         this.transposed = transposed;
+        this.offset = 0;
+        this.stride = transposed ? rows : columns;
 
         if (data.length != rows * columns) {
             throw new ArrayIndexOutOfBoundsException("data length is invalid");
@@ -18,19 +45,91 @@ public class MatrixF32 {
     }
 
     public MatrixF32(int rows, int columns, float[] data) {
+        this(rows, columns, data, false);
+    }
+
+    public MatrixF32(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = new float[rows * columns];
+        this.segment = null;
+        this.offset = 0;
+        this.stride = columns;
+    }
+
+    /**
+     * Представление поверх части data без копирования: элемент (i, j) лежит в data[offset + i * stride + j],
+     * для транспонированной матрицы - в data[offset + j * stride + i]
+     */
+    public MatrixF32(int rows, int columns, float[] data, int offset, int stride, boolean transposed) {
         this.rows = rows;
         this.columns = columns;
         this.data = data;
+        this.segment = null;
+        this.transposed = transposed;
+        this.offset = offset;
+        this.stride = stride;
 
-        if (data.length != rows * columns) {
-            throw new ArrayIndexOutOfBoundsException("data length is invalid");
+        checkBounds(data.length);
+    }
+
+    public MatrixF32(int rows, int columns, MemorySegment segment, boolean transposed) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = null;
+        this.segment = segment;
+        this.transposed = transposed;
+        this.offset = 0;
+        this.stride = transposed ? rows : columns;
+
+        if (segment.byteSize() != (long) rows * columns * Float.BYTES) {
+            throw new ArrayIndexOutOfBoundsException("segment size is invalid");
         }
     }
 
-    public MatrixF32(int rows, int columns) {
+    public MatrixF32(int rows, int columns, MemorySegment segment, long offset, int stride, boolean transposed) {
         this.rows = rows;
         this.columns = columns;
-        this.data = new float[rows * columns];
+        this.data = null;
+        this.segment = segment;
+        this.transposed = transposed;
+        this.offset = offset;
+        this.stride = stride;
+
+        checkBounds(segment.byteSize() / Float.BYTES);
+    }
+
+    private void checkBounds(long length) {
+        if (stride < getLineLength() || offset < 0 || (getLongSize() > 0 && getEnd() > length)) {
+            throw new ArrayIndexOutOfBoundsException("view is out of storage bounds");
+        }
+    }
+
+    public MatrixF32(int rows, int columns, MemorySegment segment) {
+        this(rows, columns, segment, false);
+    }
+
+    /**
+     * Матрица вне кучи, время жизни памяти определяется arena. Размер может превышать 2^31 элементов
+     */
+    public static MatrixF32 allocate(Arena arena, int rows, int columns) {
+        return new MatrixF32(rows, columns, arena.allocate((long) rows * columns * Float.BYTES, 64));
+    }
+
+    public static MatrixF32 allocate(Arena arena, int rows, int columns, boolean transposed) {
+        return new MatrixF32(rows, columns, arena.allocate((long) rows * columns * Float.BYTES, 64), transposed);
+    }
+
+    /**
+     * Нулевая непрерывная матрица того же размера, транспонирования и вида хранилища, что и template.
+     * Off-heap память освобождается сборщиком мусора вместе с матрицей
+     */
+    public static MatrixF32 allocateLike(MatrixF32 template) {
+        if (template.isNative()) {
+            return allocate(Arena.ofAuto(), template.getRows(), template.getColumns(), template.isTransposed());
+        }
+
+        return new MatrixF32(template.getRows(), template.getColumns(), new float[template.getSize()], template.isTransposed());
     }
 
     public int getRows() {
@@ -41,26 +140,181 @@ public class MatrixF32 {
         return columns;
     }
 
+    /**
+     * Число элементов, которое помещается в int. Off-heap матрица может быть больше 2^31 элементов, см. getLongSize
+     */
     public int getSize() {
-        return rows * columns;
+        return Math.toIntExact(getLongSize());
+    }
+
+    public long getLongSize() {
+        return (long) rows * columns;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Число строк хранилища: строк матрицы, либо столбцов, если она транспонирована
+     */
+    public int getLines() {
+        return transposed ? columns : rows;
+    }
+
+    public int getLineLength() {
+        return transposed ? rows : columns;
+    }
+
+    /**
+     * Индекс в хранилище, следующий за последним элементом матрицы
+     */
+    public long getEnd() {
+        return offset + (long) (getLines() - 1) * stride + getLineLength();
+    }
+
+    /**
+     * Элементы лежат подряд, без промежутков между строками хранилища
+     */
+    public boolean isContiguous() {
+        return stride == getLineLength() || getLines() <= 1;
+    }
+
+    /**
+     * Подматрица rows x columns, начиная с элемента (row, column). Данные общие с исходной матрицей
+     */
+    public MatrixF32 view(int row, int column, int rows, int columns) {
+        if (row < 0 || column < 0 || row + rows > this.rows || column + columns > this.columns) {
+            throw new ArrayIndexOutOfBoundsException("view is out of matrix bounds");
+        }
+
+        var start = transposed
+                ? offset + (long) column * stride + row
+                : offset + (long) row * stride + column;
+
+        if (data == null) {
+            return new MatrixF32(rows, columns, segment, start, stride, transposed);
+        }
+
+        return new MatrixF32(rows, columns, data, (int) start, stride, transposed);
+    }
+
+    /**
+     * Строка хранилища с номером line как непрерывная матрица 1 x getLineLength()
+     */
+    public MatrixF32 line(int line) {
+        var start = offset + (long) line * stride;
+
+        if (data == null) {
+            return new MatrixF32(1, getLineLength(), segment, start, getLineLength(), false);
+        }
+
+        return new MatrixF32(1, getLineLength(), data, (int) start, getLineLength(), false);
+    }
+
+    /**
+     * Строки [row, row + rows) матрицы
+     */
+    public MatrixF32 rows(int row, int rows) {
+        return view(row, 0, rows, columns);
     }
 
     public boolean isTransposed() {
         return transposed;
     }
 
+    public boolean isNative() {
+        return data == null;
+    }
+
     public float[] getData() {
+        if (data == null) {
+            throw new UnsupportedOperationException("off-heap matrix has no backing array, use getSegment()");
+        }
+
         return data;
     }
+
+    /**
+     * Off-heap хранилище матрицы целиком, без учета offset. Для матриц поверх float[] возвращает heap-сегмент,
+     * пригодный только для копирования
+     */
+    public MemorySegment getSegment() {
+        return segment != null ? segment : MemorySegment.ofArray(data);
+    }
 //
 //    public void setData(float[] data) {
 //        this.data = data;
 //    }
 
+    /**
+     * Элемент хранилища с индексом i относительно offset
+     */
+    public float get(long i) {
+        return data != null ? data[(int) (offset + i)] : segment.getAtIndex(ValueLayout.JAVA_FLOAT, offset + i);
+    }
+
+    public void set(long i, float value) {
+        if (data != null) {
+            data[(int) (offset + i)] = value;
+        } else {
+            segment.setAtIndex(ValueLayout.JAVA_FLOAT, offset + i, value);
+        }
+    }
+
+    public FloatVector load(VectorSpecies<Float> species, long i) {
+        return data != null
+                ? FloatVector.fromArray(species, data, (int) (offset + i))
+                : FloatVector.fromMemorySegment(species, segment, (offset + i) * Float.BYTES, ByteOrder.nativeOrder());
+    }
+
+    public FloatVector load(VectorSpecies<Float> species, long i, VectorMask<Float> mask) {
+        return data != null
+                ? FloatVector.fromArray(species, data, (int) (offset + i), mask)
+                : FloatVector.fromMemorySegment(species, segment, (offset + i) * Float.BYTES, ByteOrder.nativeOrder(), mask);
+    }
+
+    public void store(FloatVector vector, long i) {
+        if (data != null) {
+            vector.intoArray(data, (int) (offset + i));
+        } else {
+            vector.intoMemorySegment(segment, (offset + i) * Float.BYTES, ByteOrder.nativeOrder());
+        }
+    }
+
+    public void store(FloatVector vector, long i, VectorMask<Float> mask) {
+        if (data != null) {
+            vector.intoArray(data, (int) (offset + i), mask);
+        } else {
+            vector.intoMemorySegment(segment, (offset + i) * Float.BYTES, ByteOrder.nativeOrder(), mask);
+        }
+    }
+
     public MatrixF32 transpose() {
-        return new MatrixF32(this.columns, this.rows, data, !transposed);
+        if (data == null) {
+            return new MatrixF32(this.columns, this.rows, segment, offset, stride, !transposed);
+        }
+
+        return new MatrixF32(this.columns, this.rows, data, (int) offset, stride, !transposed);
     }
+
     public VectorF32 asVector() {
+        if (data == null) {
+            if (!isContiguous()) {
+                throw new UnsupportedOperationException("strided view can not be flattened");
+            }
+
+            return new VectorF32(segment.asSlice(offset * Float.BYTES, getLongSize() * Float.BYTES));
+        }
+
+        if (offset != 0 || data.length != getSize()) {
+            throw new UnsupportedOperationException("view of an array can not be flattened");
+        }
+
         return new VectorF32(data);
     }
 }
@@ -1,13 +1,143 @@
 package linear;
 
-import dev.ludovic.netlib.BLAS;
 import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
 
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
 public class Ops {
 
     public static final VectorSpecies<Float> species = FloatVector.SPECIES_MAX;
 
+    /**
+     * Пул для разбиения крупных произведений матриц, размер задается -Dlinear.threads
+     */
+    private static final ForkJoinPool pool = new ForkJoinPool(Integer.getInteger("linear.threads", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Произведения с меньшим числом умножений выполняются в вызывающем потоке
+     */
+    private static final long PARALLEL_THRESHOLD = Long.getLong("linear.parallelThreshold", 1L << 21);
+
+    /**
+     * Число элементов результата в блоке строк, для которого bias, произведение и epilogue выполняются подряд
+     */
+    private static final int EPILOGUE_BLOCK = Integer.getInteger("linear.epilogueBlock", 1 << 14);
+
+    private static final Tasks<EpilogueTask> epilogueTasks = new Tasks<>(EpilogueTask::new);
+    private static final Tasks<ProductTask> productTasks = new Tasks<>(ProductTask::new);
+    private static final Tasks<SparseTask> sparseTasks = new Tasks<>(SparseTask::new);
+
+    /**
+     * Обработка блока строк результата сразу после его вычисления, пока блок еще в кэше
+     */
+    public interface Epilogue {
+        /**
+         * Обрабатывает на месте строки [row, row + rows) matrix
+         */
+        void applyRows(MatrixF32 matrix, int row, int rows);
+    }
+
+    /**
+     * Задача пула произведений. Части не ждут друг друга через join, ожидание которого выделяет узел, а по счетчику
+     * CountedCompleter завершают родителя. Узел делится через forkAll, лист заканчивает compute вызовом tryComplete,
+     * после forkAll и tryComplete задача уже может выполняться снова и не трогает свои поля.
+     * Корень отмечает себя завершенным и будит поток, запустивший его через invoke. Задачи пула не сериализуются
+     */
+    @SuppressWarnings("serial")
+    public abstract static class Task extends CountedCompleter<Void> {
+        /**
+         * Общий верх цепочек завершения: CountedCompleter отмечает завершенной только последнюю задачу цепочки,
+         * поэтому ею служит TOP, а корень отмечает себя сам до сигнала
+         */
+        private static final CountedCompleter<Void> TOP = new CountedCompleter<>() {
+            @Override
+            public void compute() {
+            }
+        };
+
+        private volatile Thread waiter;
+
+        /**
+         * Корень
+         */
+        protected Task() {
+            super(TOP);
+        }
+
+        /**
+         * Часть parent, при null - корень
+         */
+        protected Task(Task parent) {
+            super(parent != null ? parent : TOP);
+        }
+
+        /**
+         * Вызывается, когда лист досчитан или обе части узла завершены, до завершения родителя
+         */
+        protected void completed() {
+        }
+
+        /**
+         * right отдается в пул, left считается в текущем потоке, узел завершится после обеих частей.
+         * Части переинициализирует вызывающий
+         */
+        protected final void forkAll(Task left, Task right) {
+            setPendingCount(1);
+            right.fork();
+            left.compute();
+        }
+
+        @Override
+        public final void onCompletion(CountedCompleter<?> caller) {
+            completed();
+
+            if (getCompleter() == TOP) {
+                quietlyComplete();
+                wake();
+            }
+        }
+
+        /**
+         * Исключение поднимается до корня, TOP общий для всех корней и не отмечается
+         */
+        @Override
+        public final boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+            if (getCompleter() != TOP) {
+                return true;
+            }
+
+            wake();
+
+            return false;
+        }
+
+        private void wake() {
+            var thread = waiter;
+
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private static volatile Backend.Interface backend = Backend.fromName(System.getProperty("linear.backend", "netlib"));
+
+    public static Backend.Interface getBackend() {
+        return backend;
+    }
+
+    public static void setBackend(Backend.Interface backend) {
+        Ops.backend = backend;
+    }
+
     public static void assertNoNan(float[] d) {
 //        for (var i : d) {
 //            if (Float.isNaN(i)) {
@@ -16,65 +146,141 @@ public class Ops {
 //        }
     }
 
+    /**
+     * Off-heap векторы длиннее VECTOR_CHUNK обрабатываются отрезками: SegmentOps видит вектор как матрицу 1 x n,
+     * а число ее столбцов - int. Вектор такой длины может быть только off-heap
+     */
+    private static final long VECTOR_CHUNK = 1L << 30;
+
+    private static VectorF32 slice(VectorF32 vector, long from, long length) {
+        return new VectorF32(vector.getSegment().asSlice(from * Float.BYTES, length * Float.BYTES));
+    }
+
     public static VectorF32 multipleElements(VectorF32 vector1, VectorF32 vector2, VectorF32 result, float alpha, float beta) {
-        getBlas().ssbmv("L",
+        if (vector1.getLongSize() > VECTOR_CHUNK) {
+            for (var from = 0L; from < vector1.getLongSize(); from += VECTOR_CHUNK) {
+                var length = Math.min(VECTOR_CHUNK, vector1.getLongSize() - from);
+                multipleElements(slice(vector1, from, length), slice(vector2, from, length), slice(result, from, length), alpha, beta);
+            }
+
+            return result;
+        }
+
+        if (vector1.isNative() || vector2.isNative() || result.isNative()) {
+            SegmentOps.multipleElements(vector1.getSize(), alpha, vector1.toHorizontalMatrix(), vector2.toHorizontalMatrix(), beta, result.toHorizontalMatrix());
+
+            return result;
+        }
+
+        backend.multipleElements(
                 vector1.getSize(),
-                0,
                 alpha,
                 vector1.getData(),
-                1,
+                0,
                 vector2.getData(),
-                1,
+                0,
                 beta,
                 result.getData(),
-                1
+                0
         );
 
         return result;
     }
 
     public static VectorF32 product(VectorF32 vector, MatrixF32 matrix, VectorF32 result, float alpha, float beta) {
-        getBlas().sgemv(
+        if (vector.isNative() || matrix.isNative() || result.isNative()
+                || !fitsBackend(matrix, matrix.getOffset(), matrix.getStride(), matrix.getLines())) {
+            SegmentOps.sgemv(
+                    matrix.isTransposed(),
+                    matrix.getLineLength(),
+                    matrix.getLines(),
+                    alpha,
+                    matrix,
+                    0,
+                    matrix.getStride(),
+                    vector.toHorizontalMatrix(),
+                    0,
+                    beta,
+                    result.toHorizontalMatrix(),
+                    0
+            );
+
+            return result;
+        }
+
+        backend.sgemv(
                 matrix.isTransposed() ? "T" : "N",
-                matrix.isTransposed() ? matrix.getRows() : matrix.getColumns(),
-                matrix.isTransposed() ? matrix.getColumns() : matrix.getRows(),
+                matrix.getLineLength(),
+                matrix.getLines(),
                 alpha,
                 matrix.getData(),
-                matrix.isTransposed() ? matrix.getRows() : matrix.getColumns(),
+                (int) matrix.getOffset(),
+                matrix.getStride(),
                 vector.getData(),
-                1,
+                0,
                 beta,
                 result.getData(),
-                1
+                0
         );
 
         return result;
     }
 
+    /**
+     * Хранилище matrix читается как column-major. Представление с промежутками между строками сначала копируется
+     * в непрерывную матрицу той же формы, так что результат тот же, что у его непрерывной копии
+     */
     public static VectorF32 product(MatrixF32 matrix, VectorF32 vector, VectorF32 result, float alpha, float beta) {
-        getBlas().sgemv(
+        if (!matrix.isContiguous()) {
+            var packed = new MatrixF32(matrix.getLines(), matrix.getLineLength());
+            copy(matrix, packed);
+
+            return product(matrix.isTransposed() ? packed.transpose() : packed, vector, result, alpha, beta);
+        }
+
+        if (vector.isNative() || matrix.isNative() || result.isNative()) {
+            SegmentOps.sgemv(
+                    matrix.isTransposed(),
+                    matrix.isTransposed() ? matrix.getColumns() : matrix.getRows(),
+                    matrix.isTransposed() ? matrix.getRows() : matrix.getColumns(),
+                    alpha,
+                    matrix,
+                    0,
+                    matrix.isTransposed() ? matrix.getColumns() : matrix.getRows(),
+                    vector.toHorizontalMatrix(),
+                    0,
+                    beta,
+                    result.toHorizontalMatrix(),
+                    0
+            );
+
+            return result;
+        }
+
+        backend.sgemv(
                 matrix.isTransposed() ? "T" : "N",
                 matrix.isTransposed() ? matrix.getColumns() : matrix.getRows(),
                 matrix.isTransposed() ? matrix.getRows() : matrix.getColumns(),
                 alpha,
                 matrix.getData(),
+                (int) matrix.getOffset(),
                 matrix.isTransposed() ? matrix.getColumns() : matrix.getRows(),
                 vector.getData(),
-                1,
+                0,
                 beta,
                 result.getData(),
-                1
+                0
         );
 
         return result;
     }
 
-    private static BLAS getBlas() {
-        return BLAS.getInstance();
-    }
-
     public static MatrixF32 product(VectorF32 vector1, VectorF32 vector2, MatrixF32 result, float alpha, float beta) {
-        productF32Blas(result.getData(), vector1.toVerticalMatrix(), vector2.toHorizontalMatrix(), vector1.getData(), vector2.getData(), alpha, beta);
+        if (result.getRows() != vector1.getSize() || result.getColumns() != vector2.getSize()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible result matrix");
+        }
+
+        productF32Blas(result, vector1.toVerticalMatrix(), vector2.toHorizontalMatrix(), alpha, beta);
 
         return result;
     }
@@ -129,41 +335,758 @@ public class Ops {
             throw new ArrayIndexOutOfBoundsException("incompatible matrix");
         }
 
-        float[] data1 = matrix1.getData();
-        float[] data2 = matrix2.getData();
-        float[] resultData = result.getData();
+        if (result.getRows() != matrix1.getRows() || result.getColumns() != matrix2.getColumns()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible result matrix");
+        }
+
+        if (result.isTransposed()) {
+            // result^T = matrix2^T * matrix1^T, хранилище result^T построчное
+            productF32Blas(result.transpose(), matrix2.transpose(), matrix1.transpose(), alpha, beta);
 
-        productF32Blas(resultData, matrix1, matrix2, data1, data2, alpha, beta);
+            return result;
+        }
+
+        productF32Blas(result, matrix1, matrix2, alpha, beta);
 
         return result;
     }
 
+    /**
+     * result = epilogue(matrix1 * matrix2 + bias), bias прибавляется к каждой строке.
+     * Результат считается блоками строк: каждый блок заполняется bias, дополняется произведением и сразу
+     * передается в epilogue
+     */
+    public static MatrixF32 product(MatrixF32 matrix1, MatrixF32 matrix2, VectorF32 bias, MatrixF32 result, Epilogue epilogue) {
+        if (matrix1.getColumns() != matrix2.getRows() || bias.getSize() != matrix2.getColumns()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        if (result.getRows() != matrix1.getRows() || result.getColumns() != matrix2.getColumns() || result.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible result matrix");
+        }
+
+        var rows = result.getRows();
+        var blockRows = Math.max(1, Math.min(rows, EPILOGUE_BLOCK / Math.max(1, result.getColumns())));
+
+        if (pool.getParallelism() > 1 && rows > blockRows && (long) rows * result.getColumns() * matrix2.getRows() >= PARALLEL_THRESHOLD) {
+            var task = epilogueTasks.acquire().set(matrix1, matrix2, bias, result, epilogue, blockRows, 0, rows);
+            invoke(task);
+            epilogueTasks.release(task);
+
+            return result;
+        }
+
+        productBlocks(matrix1, matrix2, bias, result, epilogue, blockRows, 0, rows);
+
+        return result;
+    }
+
+    /**
+     * result = matrix1 * matrix2, matrix1 разреженная: nnz(matrix1) * columns умножений вместо
+     * rows * columns * matrix2.getRows(). Строки считаются параллельно
+     */
+    public static MatrixF32 product(SparseMatrixF32 matrix1, MatrixF32 matrix2, MatrixF32 result) {
+        if (!matrix1.isTransposed()) {
+            return product(matrix1, matrix2, null, result, (matrix, row, rows) -> {});
+        }
+
+        if (matrix1.getColumns() != matrix2.getRows() || matrix2.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        if (result.getRows() != matrix1.getRows() || result.getColumns() != matrix2.getColumns() || result.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible result matrix");
+        }
+
+        // Строка хранилища matrix1 разносится по разным строкам результата, поэтому потоки делят столбцы
+        var length = species.length();
+        var blocks = (result.getColumns() + length - 1) / length;
+        var work = (long) matrix1.getNonZeros() * result.getColumns();
+
+        if (!isParallel(blocks, work)) {
+            sparseTransposedAxpy(matrix1, matrix2, result, 0, result.getColumns());
+
+            return result;
+        }
+
+        invoke(SparseKernel.TRANSPOSED_AXPY, matrix1, matrix2, null, result, null, blocks, work);
+
+        return result;
+    }
+
+    /**
+     * Столбцы [from, to) результата matrix1 * matrix2 при транспонированной разреженной matrix1: для каждого ненулевого
+     * элемента (line, column) хранилища matrix1 к строке column результата прибавляется строка line матрицы matrix2
+     */
+    private static void sparseTransposedAxpy(SparseMatrixF32 matrix1, MatrixF32 matrix2, MatrixF32 result, int from, int to) {
+        final var rowStart = matrix1.getRowStart();
+        final var columnIndex = matrix1.getColumnIndex();
+        final var values = matrix1.getValues();
+        final var upperBound = from + species.loopBound(to - from);
+
+        for (var row = 0; row < result.getRows(); row++) {
+            final var start = (long) row * result.getStride();
+            var j = from;
+
+            for (; j < upperBound; j += species.length()) {
+                result.store(FloatVector.zero(species), start + j);
+            }
+
+            for (; j < to; j++) {
+                result.set(start + j, 0.0f);
+            }
+        }
+
+        for (var line = 0; line < matrix1.getLines(); line++) {
+            final var source = (long) line * matrix2.getStride();
+
+            for (var k = rowStart[line]; k < rowStart[line + 1]; k++) {
+                final var value = values[k];
+                final var start = (long) columnIndex[k] * result.getStride();
+                var j = from;
+
+                for (; j < upperBound; j += species.length()) {
+                    result.store(matrix2.load(species, source + j).mul(value).add(result.load(species, start + j)), start + j);
+                }
+
+                for (; j < to; j++) {
+                    result.set(start + j, result.get(start + j) + value * matrix2.get(source + j));
+                }
+            }
+        }
+    }
+
+    /**
+     * result = epilogue(matrix1 * matrix2 + bias), matrix1 разреженная, bias == null - без смещения.
+     * Если matrix2 хранится построчно, строка результата - сумма строк matrix2 с весами строки matrix1.
+     * Если транспонирована (веса слоя), элемент результата - сумма по строке хранилища matrix2 с выборкой (gather)
+     * по столбцам строки matrix1. Строки считаются параллельно, epilogue применяется к каждой строке сразу после нее
+     */
+    public static MatrixF32 product(SparseMatrixF32 matrix1, MatrixF32 matrix2, VectorF32 bias, MatrixF32 result, Epilogue epilogue) {
+        if (matrix1.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        if (matrix1.getColumns() != matrix2.getRows() || (bias != null && bias.getSize() != matrix2.getColumns())) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        if (result.getRows() != matrix1.getRows() || result.getColumns() != matrix2.getColumns() || result.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible result matrix");
+        }
+
+        var work = (long) matrix1.getNonZeros() * result.getColumns();
+
+        if (!isParallel(result.getRows(), work)) {
+            sparseRows(matrix1, matrix2, bias, result, epilogue, 0, result.getRows());
+
+            return result;
+        }
+
+        invoke(SparseKernel.SPARSE_DENSE, matrix1, matrix2, bias, result, epilogue, result.getRows(), work);
+
+        return result;
+    }
+
+    /**
+     * Строки [from, to) результата product(SparseMatrixF32, MatrixF32, VectorF32, MatrixF32, Epilogue)
+     */
+    private static void sparseRows(SparseMatrixF32 matrix1, MatrixF32 matrix2, VectorF32 bias, MatrixF32 result, Epilogue epilogue, int from, int to) {
+        for (var row = from; row < to; row++) {
+            if (matrix2.isTransposed()) {
+                sparseGatherRow(matrix1, matrix2, bias, result, row);
+            } else {
+                sparseAxpyRow(matrix1, matrix2, bias, result, row);
+            }
+
+            epilogue.applyRows(result, row, 1);
+        }
+    }
+
+    /**
+     * result = matrix * vector, matrix разреженная: элемент result - сумма по строке хранилища matrix с выборкой
+     * из vector. Для одного образца, без промежуточных матриц
+     */
+    public static VectorF32 product(SparseMatrixF32 matrix, float[] vector, VectorF32 result) {
+        if (matrix.isTransposed() || matrix.getColumns() != vector.length || result.getLongSize() != matrix.getRows()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        final var rowStart = matrix.getRowStart();
+        final var columnIndex = matrix.getColumnIndex();
+        final var values = matrix.getValues();
+
+        for (var row = 0; row < matrix.getRows(); row++) {
+            result.set(row, gatherDot(vector, 0, columnIndex, values, rowStart[row], rowStart[row + 1]));
+        }
+
+        return result;
+    }
+
+    /**
+     * Число ненулевых элементов матрицы
+     */
+    public static long nonZeros(MatrixF32 matrix) {
+        final var lineLength = matrix.getLineLength();
+        final var upperBound = species.loopBound(lineLength);
+        var result = 0L;
+
+        for (var line = 0; line < matrix.getLines(); line++) {
+            final var start = (long) line * matrix.getStride();
+            var j = 0;
+
+            for (; j < upperBound; j += species.length()) {
+                result += matrix.load(species, start + j).compare(VectorOperators.NE, 0.0f).trueCount();
+            }
+
+            for (; j < lineLength; j++) {
+                if (matrix.get(start + j) != 0.0f) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static MatrixF32 product(MatrixF32 matrix1, SparseMatrixF32 matrix2, MatrixF32 result) {
+        return product(matrix1, matrix2, result, (matrix, row, rows) -> {});
+    }
+
+    /**
+     * result = epilogue(matrix1 * matrix2), matrix2 разреженная.
+     * Если matrix2 транспонирована (например веса S-A, хранимые строками по нейронам A), элемент результата -
+     * сумма по строке хранилища matrix2 с выборкой (gather) элементов строки matrix1.
+     * Иначе (градиент весов по разреженному входу) строки matrix2 с весами из строки matrix1 разносятся (scatter)
+     * по своим столбцам строки результата, нули matrix1 пропускаются.
+     * Строки считаются параллельно, epilogue применяется к каждой строке сразу после нее
+     */
+    public static MatrixF32 product(MatrixF32 matrix1, SparseMatrixF32 matrix2, MatrixF32 result, Epilogue epilogue) {
+        if (matrix1.getColumns() != matrix2.getRows()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        if (result.getRows() != matrix1.getRows() || result.getColumns() != matrix2.getColumns() || result.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible result matrix");
+        }
+
+        if (matrix2.isTransposed() && matrix1.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        var work = (long) matrix2.getNonZeros() * result.getRows();
+
+        if (!isParallel(result.getRows(), work)) {
+            sparseRows(matrix1, matrix2, result, epilogue, 0, result.getRows());
+
+            return result;
+        }
+
+        invoke(SparseKernel.DENSE_SPARSE, matrix2, matrix1, null, result, epilogue, result.getRows(), work);
+
+        return result;
+    }
+
+    /**
+     * Строки [from, to) результата product(MatrixF32, SparseMatrixF32, MatrixF32, Epilogue)
+     */
+    private static void sparseRows(MatrixF32 matrix1, SparseMatrixF32 matrix2, MatrixF32 result, Epilogue epilogue, int from, int to) {
+        for (var row = from; row < to; row++) {
+            if (matrix2.isTransposed()) {
+                gatherSparseRow(matrix1, matrix2, result, row);
+            } else {
+                scatterSparseRow(matrix1, matrix2, result, row);
+            }
+
+            epilogue.applyRows(result, row, 1);
+        }
+    }
+
+    /**
+     * Строка row результата: bias плюс строки matrix2 с весами строки row разреженной matrix1
+     */
+    private static void sparseAxpyRow(SparseMatrixF32 matrix1, MatrixF32 matrix2, VectorF32 bias, MatrixF32 result, int row) {
+        final var rowStart = matrix1.getRowStart();
+        final var columnIndex = matrix1.getColumnIndex();
+        final var values = matrix1.getValues();
+        final var columns = result.getColumns();
+        final var upperBound = species.loopBound(columns);
+        final var start = (long) row * result.getStride();
+
+        fillRow(result, bias, start);
+
+        for (var k = rowStart[row]; k < rowStart[row + 1]; k++) {
+            final var value = values[k];
+            final var source = (long) columnIndex[k] * matrix2.getStride();
+            var j = 0;
+
+            for (; j < upperBound; j += species.length()) {
+                result.store(matrix2.load(species, source + j).mul(value).add(result.load(species, start + j)), start + j);
+            }
+
+            for (; j < columns; j++) {
+                result.set(start + j, result.get(start + j) + value * matrix2.get(source + j));
+            }
+        }
+    }
+
+    /**
+     * Строка row результата при транспонированной matrix2: элемент line - bias плюс сумма по ненулевым элементам
+     * строки row разреженной matrix1 с выборкой из строки хранилища line матрицы matrix2
+     */
+    private static void sparseGatherRow(SparseMatrixF32 matrix1, MatrixF32 matrix2, VectorF32 bias, MatrixF32 result, int row) {
+        final var from = matrix1.getRowStart()[row];
+        final var to = matrix1.getRowStart()[row + 1];
+        final var columnIndex = matrix1.getColumnIndex();
+        final var values = matrix1.getValues();
+        final var start = (long) row * result.getStride();
+
+        for (var line = 0; line < result.getColumns(); line++) {
+            var sum = gatherDot(matrix2, (long) line * matrix2.getStride(), columnIndex, values, from, to);
+            result.set(start + line, bias != null ? sum + bias.get(line) : sum);
+        }
+    }
+
+    /**
+     * Строка row результата при транспонированной разреженной matrix2
+     */
+    private static void gatherSparseRow(MatrixF32 matrix1, SparseMatrixF32 matrix2, MatrixF32 result, int row) {
+        final var rowStart = matrix2.getRowStart();
+        final var columnIndex = matrix2.getColumnIndex();
+        final var values = matrix2.getValues();
+        final var input = (long) row * matrix1.getStride();
+        final var start = (long) row * result.getStride();
+
+        for (var line = 0; line < matrix2.getLines(); line++) {
+            result.set(start + line, gatherDot(matrix1, input, columnIndex, values, rowStart[line], rowStart[line + 1]));
+        }
+    }
+
+    /**
+     * Сумма values[k] * dense[start + columnIndex[k]] по k из [from, to), для float[] - векторной выборкой
+     */
+    private static float gatherDot(MatrixF32 dense, long start, int[] columnIndex, float[] values, int from, int to) {
+        if (!dense.isNative()) {
+            return gatherDot(dense.getData(), (int) (dense.getOffset() + start), columnIndex, values, from, to);
+        }
+
+        var sum = 0.0f;
+
+        for (var k = from; k < to; k++) {
+            sum += values[k] * dense.get(start + columnIndex[k]);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Сумма values[k] * data[base + columnIndex[k]] по k из [from, to) векторной выборкой
+     */
+    private static float gatherDot(float[] data, int base, int[] columnIndex, float[] values, int from, int to) {
+        final var length = species.length();
+        var accumulator = FloatVector.zero(species);
+        var k = from;
+
+        for (; k + length <= to; k += length) {
+            accumulator = FloatVector.fromArray(species, data, base, columnIndex, k)
+                    .mul(FloatVector.fromArray(species, values, k))
+                    .add(accumulator);
+        }
+
+        var sum = accumulator.reduceLanes(VectorOperators.ADD);
+
+        for (; k < to; k++) {
+            sum += values[k] * data[base + columnIndex[k]];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Строка row результата при разреженной matrix2, хранимой построчно: сумма строк matrix2 с весами из строки
+     * row матрицы matrix1, разнесенных по своим столбцам. Столбцы в строке CSR различны, поэтому векторная
+     * запись (scatter) не теряет сумм
+     */
+    private static void scatterSparseRow(MatrixF32 matrix1, SparseMatrixF32 matrix2, MatrixF32 result, int row) {
+        final var rowStart = matrix2.getRowStart();
+        final var columnIndex = matrix2.getColumnIndex();
+        final var values = matrix2.getValues();
+        final var length = species.length();
+        final var start = (long) row * result.getStride();
+
+        fillRow(result, null, start);
+
+        for (var line = 0; line < matrix2.getLines(); line++) {
+            final var weight = matrix1.get(matrix1.isTransposed() ? (long) line * matrix1.getStride() + row : (long) row * matrix1.getStride() + line);
+
+            if (weight == 0.0f) {
+                continue;
+            }
+
+            var k = rowStart[line];
+            final var end = rowStart[line + 1];
+
+            if (!result.isNative()) {
+                final var data = result.getData();
+                final var base = (int) (result.getOffset() + start);
+
+                for (; k + length <= end; k += length) {
+                    FloatVector.fromArray(species, values, k).mul(weight)
+                            .add(FloatVector.fromArray(species, data, base, columnIndex, k))
+                            .intoArray(data, base, columnIndex, k);
+                }
+            }
+
+            for (; k < end; k++) {
+                result.set(start + columnIndex[k], result.get(start + columnIndex[k]) + weight * values[k]);
+            }
+        }
+    }
+
+    /**
+     * Строка результата с индексом start: копия bias, либо нули при bias == null
+     */
+    private static void fillRow(MatrixF32 result, VectorF32 bias, long start) {
+        final var columns = result.getColumns();
+        final var upperBound = species.loopBound(columns);
+        var j = 0;
+
+        // Отдельные циклы: слияние двух векторов в одной переменной заставило бы C2 их упаковывать
+        if (bias != null) {
+            for (; j < upperBound; j += species.length()) {
+                result.store(bias.load(species, j), start + j);
+            }
+        } else {
+            for (; j < upperBound; j += species.length()) {
+                result.store(FloatVector.zero(species), start + j);
+            }
+        }
+
+        for (; j < columns; j++) {
+            result.set(start + j, bias != null ? bias.get(j) : 0.0f);
+        }
+    }
+
+    /**
+     * Стоит ли выполнять в пуле работу из work умножений, см. invoke
+     */
+    public static boolean isParallel(long work) {
+        return pool.getParallelism() > 1 && work >= PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * Число потоков пула произведений
+     */
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Выполняет task в пуле произведений. Задача переинициализируется, поэтому ее можно создать один раз и
+     * запускать на каждом шаге без выделения памяти. Поток вне пула паркуется до сигнала корня: join вне пула
+     * выделял бы узел ожидания. Из потока самого пула задача выполняется сразу, этот поток помогает ее частям
+     */
+    public static void invoke(Task task) {
+        task.reinitialize();
+
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+
+            return;
+        }
+
+        task.waiter = Thread.currentThread();
+        pool.execute(task);
+
+        var interrupted = false;
+
+        while (!task.isDone()) {
+            LockSupport.park(task);
+            interrupted |= Thread.interrupted();
+        }
+
+        task.waiter = null;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Задача уже завершена: join не ждет, а только пробрасывает ее исключение
+        task.join();
+    }
+
+    /**
+     * Делить ли rows строк с work умножениями между потоками пула. Вызывающие проверяют это до invoke,
+     * чтобы в вызывающем потоке считать ядро напрямую
+     */
+    private static boolean isParallel(int rows, long work) {
+        return rows > 1 && isParallel(work);
+    }
+
+    /**
+     * Строки [0, rows) разреженного ядра kernel в пуле задачами из кэша
+     */
+    private static void invoke(SparseKernel kernel, SparseMatrixF32 sparse, MatrixF32 dense, VectorF32 bias, MatrixF32 result,
+                               Epilogue epilogue, int rows, long work) {
+        var task = sparseTasks.acquire().set(kernel, sparse, dense, bias, result, epilogue, work / rows, 0, rows);
+        invoke(task);
+        sparseTasks.release(task);
+    }
+
+    private static void productBlocks(MatrixF32 matrix1, MatrixF32 matrix2, VectorF32 bias, MatrixF32 result, Epilogue epilogue,
+                                      int blockRows, int rowStart, int rowEnd) {
+        for (var row = rowStart; row < rowEnd; row += blockRows) {
+            var count = Math.min(blockRows, rowEnd - row);
+
+            fillRows(result, bias, row, count);
+            productF32Blas(result, matrix1, matrix2, 1.0f, 1.0f, row, row + count, 0, result.getColumns());
+            epilogue.applyRows(result, row, count);
+        }
+    }
+
+    /**
+     * Копирует vector в строки [rowStart, rowStart + rows) matrix
+     */
+    private static void fillRows(MatrixF32 matrix, VectorF32 vector, int rowStart, int rows) {
+        for (var row = rowStart; row < rowStart + rows; row++) {
+            var start = matrix.getOffset() + (long) row * matrix.getStride();
+
+            if (matrix.isNative() || vector.isNative()) {
+                MemorySegment.copy(vector.getSegment(), 0, matrix.getSegment(), start * Float.BYTES, (long) vector.getSize() * Float.BYTES);
+            } else {
+                System.arraycopy(vector.getData(), 0, matrix.getData(), (int) start, vector.getSize());
+            }
+        }
+    }
+
+    public static VectorF32 product(VectorF32 vector, float alpha) {
+        if (vector.getLongSize() > VECTOR_CHUNK) {
+            for (var from = 0L; from < vector.getLongSize(); from += VECTOR_CHUNK) {
+                product(slice(vector, from, Math.min(VECTOR_CHUNK, vector.getLongSize() - from)), alpha);
+            }
+
+            return vector;
+        }
+
+        if (vector.isNative()) {
+            SegmentOps.scal(vector.getSize(), alpha, vector.toHorizontalMatrix(), 0);
+
+            return vector;
+        }
+
+        backend.sscal(vector.getSize(), alpha, vector.getData(), 0);
+
+        return vector;
+    }
+
     public static MatrixF32 product(MatrixF32 matrix1, float alpha) {
-        getBlas().sscal(matrix1.getSize(), alpha, matrix1.getData(), 1);
+        if (!matrix1.isContiguous()) {
+            for (var line = 0; line < matrix1.getLines(); line++) {
+                product(matrix1.line(line), alpha);
+            }
+
+            return matrix1;
+        }
+
+        if (matrix1.isNative()) {
+            SegmentOps.scal(matrix1.getLongSize(), alpha, matrix1, 0);
+
+            return matrix1;
+        }
+
+        backend.sscal(matrix1.getSize(), alpha, matrix1.getData(), (int) matrix1.getOffset());
 
         return matrix1;
     }
 
+    /**
+     * y += alpha * x, обход по хранилищу, x и y должны иметь одинаковую форму и транспонирование
+     */
     public static void add(MatrixF32 x, MatrixF32 y, float alpha) {
-        getBlas().saxpy(x.getSize(), alpha, x.getData(), 1, y.getData(), 1);
+        if (!x.isContiguous() || !y.isContiguous()) {
+            for (var line = 0; line < x.getLines(); line++) {
+                add(x.line(line), y.line(line), alpha);
+            }
+
+            return;
+        }
+
+        if (x.isNative() || y.isNative()) {
+            SegmentOps.axpy(x.getLongSize(), alpha, x, 0, y, 0);
+
+            return;
+        }
+
+        backend.saxpy(x.getSize(), alpha, x.getData(), (int) x.getOffset(), y.getData(), (int) y.getOffset());
     }
 
     public static void add(VectorF32 x, VectorF32 y, float alpha) {
-        getBlas().saxpy(x.getSize(), alpha, x.getData(), 1, y.getData(), 1);
+        if (x.getLongSize() > VECTOR_CHUNK) {
+            for (var from = 0L; from < x.getLongSize(); from += VECTOR_CHUNK) {
+                var length = Math.min(VECTOR_CHUNK, x.getLongSize() - from);
+                add(slice(x, from, length), slice(y, from, length), alpha);
+            }
+
+            return;
+        }
+
+        if (x.isNative() || y.isNative()) {
+            SegmentOps.axpy(x.getSize(), alpha, x.toHorizontalMatrix(), 0, y.toHorizontalMatrix(), 0);
+
+            return;
+        }
+
+        backend.saxpy(x.getSize(), alpha, x.getData(), 0, y.getData(), 0);
     }
 
     public static float[] add(float[] x, float[] y, float alpha) {
-        getBlas().saxpy(x.length, alpha, x, 1, y, 1);
+        backend.saxpy(x.length, alpha, x, 0, y, 0);
 
         return y;
     }
 
+    /**
+     * result = x - y за один проход, x, y и result должны иметь одинаковую форму и транспонирование
+     */
+    public static void sub(MatrixF32 x, MatrixF32 y, MatrixF32 result) {
+        if (!x.isContiguous() || !y.isContiguous() || !result.isContiguous()) {
+            for (var line = 0; line < x.getLines(); line++) {
+                sub(x.line(line), y.line(line), result.line(line));
+            }
+
+            return;
+        }
+
+        var size = x.getLongSize();
+
+        // На куче - прямо по массивам: выбор между массивом и сегментом в load сливает векторы двух ветвей,
+        // и C2 может оставить их упакованными
+        if (!x.isNative() && !y.isNative() && !result.isNative()) {
+            sub(x.getData(), (int) x.getOffset(), y.getData(), (int) y.getOffset(), result.getData(), (int) result.getOffset(), (int) size);
+
+            return;
+        }
+
+        var bound = species.loopBound(size);
+        var i = 0L;
+
+        for (; i < bound; i += species.length()) {
+            result.store(x.load(species, i).sub(y.load(species, i)), i);
+        }
+
+        for (; i < size; i++) {
+            result.set(i, x.get(i) - y.get(i));
+        }
+    }
+
+    private static void sub(float[] x, int xOffset, float[] y, int yOffset, float[] result, int resultOffset, int size) {
+        var bound = species.loopBound(size);
+        var i = 0;
+
+        for (; i < bound; i += species.length()) {
+            FloatVector.fromArray(species, x, xOffset + i)
+                    .sub(FloatVector.fromArray(species, y, yOffset + i))
+                    .intoArray(result, resultOffset + i);
+        }
+
+        for (; i < size; i++) {
+            result[resultOffset + i] = x[xOffset + i] - y[yOffset + i];
+        }
+    }
+
+    public static void copy(MatrixF32 from, MatrixF32 to) {
+        if (!from.isContiguous() || !to.isContiguous()) {
+            for (var line = 0; line < from.getLines(); line++) {
+                copy(from.line(line), to.line(line));
+            }
+
+            return;
+        }
+
+        if (from.isNative() || to.isNative()) {
+            MemorySegment.copy(
+                    from.getSegment(), from.getOffset() * Float.BYTES,
+                    to.getSegment(), to.getOffset() * Float.BYTES,
+                    from.getLongSize() * Float.BYTES
+            );
+
+            return;
+        }
+
+        System.arraycopy(from.getData(), (int) from.getOffset(), to.getData(), (int) to.getOffset(), from.getSize());
+    }
+
+    /**
+     * Копирует from в to того же размера с противоположным порядком хранения (построчный в транспонированный
+     * и наоборот). Копирование идет квадратными блоками, чтобы и чтение, и запись шли по строкам кэша
+     */
+    public static void copyTransposed(MatrixF32 from, MatrixF32 to) {
+        if (from.getRows() != to.getRows() || from.getColumns() != to.getColumns() || from.isTransposed() == to.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        final var block = 32;
+        final var lines = from.getLines();
+        final var length = from.getLineLength();
+
+        for (var line = 0; line < lines; line += block) {
+            for (var column = 0; column < length; column += block) {
+                for (var i = line; i < Math.min(line + block, lines); i++) {
+                    for (var j = column; j < Math.min(column + block, length); j++) {
+                        to.set((long) j * to.getStride() + i, from.get((long) i * from.getStride() + j));
+                    }
+                }
+            }
+        }
+    }
+
+    public static float norm(MatrixF32 x) {
+        return (float) Math.sqrt(dot(x));
+    }
+
+    private static float dot(MatrixF32 x) {
+        if (!x.isContiguous()) {
+            var sum = 0.0f;
+            for (var line = 0; line < x.getLines(); line++) {
+                sum += dot(x.line(line));
+            }
+
+            return sum;
+        }
+
+        if (x.isNative()) {
+            return SegmentOps.dot(x.getLongSize(), x, 0, x, 0);
+        }
+
+        return backend.sdot(x.getSize(), x.getData(), (int) x.getOffset(), x.getData(), (int) x.getOffset());
+    }
+
     public static float amax(float[] x) {
-        var i = getBlas().isamax(x.length, x, 1);
+        var i = backend.isamax(x.length, x, 0);
 
         return x[i];
     }
 
+    /**
+     * Индекс наибольшего элемента строки row, при равенстве первый. Без копирования строки
+     */
+    public static int argmax(MatrixF32 x, int row) {
+        var start = (long) row * x.getStride();
+        var result = 0;
+        var max = x.get(start);
+
+        for (var j = 1; j < x.getColumns(); j++) {
+            var value = x.get(start + j);
+
+            if (value > max) {
+                max = value;
+                result = j;
+            }
+        }
+
+        return result;
+    }
+
     public static float max(float[] x, int offset, int length) {
         var r = -Float.MAX_VALUE;
         for (var i = offset; i < offset + length; i++) {
@@ -173,23 +1096,419 @@ public class Ops {
         return r;
     }
 
-    private static void productF32Blas(float[] resultData, MatrixF32 matrix1, MatrixF32 matrix2, float[] data1, float[] data2, float alpha, float beta) {
-        getBlas().sgemm(
+    private static final float EXP_MIN = -87.33654f;
+    private static final float EXP_MAX = 88.37626f;
+    private static final float LOG2E = 1.44269504f;
+    private static final float LN2_HI = 0.693359375f;
+    private static final float LN2_LO = -2.12194440e-4f;
+    private static final float ROUND = 12582912f;
+
+    /**
+     * Поэлементная экспонента: x = n * ln2 + r, e^r - полином 6 степени на [-ln2 / 2, ln2 / 2], 2^n собирается в
+     * показателе. Относительная погрешность не больше 2e-7 на [-87.3, 88.3], выше - насыщение до 2.4e38,
+     * ниже - ноль
+     */
+    public static FloatVector exp(FloatVector x) {
+        var underflow = x.lt(EXP_MIN);
+        x = x.max(EXP_MIN).min(EXP_MAX);
+
+        // Округление до ближайшего целого прибавлением 1.5 * 2^23, младшие биты мантиссы t равны n
+        var t = x.fma(LOG2E, ROUND);
+        var n = t.sub(ROUND);
+        var r = n.lanewise(VectorOperators.FMA, -LN2_LO, n.lanewise(VectorOperators.FMA, -LN2_HI, x));
+
+        var p = r.fma(1.9875691500e-4f, 1.3981999507e-3f)
+                .lanewise(VectorOperators.FMA, r, 8.3334519073e-3f)
+                .lanewise(VectorOperators.FMA, r, 4.1665795894e-2f)
+                .lanewise(VectorOperators.FMA, r, 1.6666665459e-1f)
+                .lanewise(VectorOperators.FMA, r, 5.0000001201e-1f)
+                .lanewise(VectorOperators.FMA, r.mul(r), r)
+                .add(1.0f);
+
+        var scale = t.reinterpretAsInts()
+                .add(127 - Float.floatToRawIntBits(ROUND))
+                .lanewise(VectorOperators.LSHL, 23)
+                .reinterpretAsFloats();
+
+        return p.mul(scale).blend(0.0f, underflow);
+    }
+
+    private static void productF32Blas(MatrixF32 result, MatrixF32 matrix1, MatrixF32 matrix2, float alpha, float beta) {
+        var rows = matrix1.getRows();
+        var columns = matrix2.getColumns();
+
+        if (pool.getParallelism() > 1 && (long) rows * columns * matrix2.getRows() >= PARALLEL_THRESHOLD) {
+            var task = productTasks.acquire().set(result, matrix1, matrix2, alpha, beta, 0, rows, 0, columns);
+            invoke(task);
+            productTasks.release(task);
+
+            return;
+        }
+
+        productF32Blas(result, matrix1, matrix2, alpha, beta, 0, rows, 0, columns);
+    }
+
+    /**
+     * Блок result[rowStart:rowEnd, columnStart:columnEnd] произведения matrix1 * matrix2
+     */
+    private static void productF32Blas(MatrixF32 result, MatrixF32 matrix1, MatrixF32 matrix2, float alpha, float beta,
+                                       int rowStart, int rowEnd, int columnStart, int columnEnd) {
+        var ld1 = matrix1.getStride();
+        var ld2 = matrix2.getStride();
+        var ldResult = result.getStride();
+        var offset1 = matrix1.isTransposed() ? rowStart : (long) rowStart * ld1;
+        var offset2 = matrix2.isTransposed() ? (long) columnStart * ld2 : columnStart;
+        var offsetResult = (long) rowStart * ldResult + columnStart;
+        var rows = rowEnd - rowStart;
+        var columns = columnEnd - columnStart;
+
+        if (matrix1.isNative() || matrix2.isNative() || result.isNative()
+                || !fitsBackend(matrix1, matrix1.getOffset() + offset1, ld1, matrix1.isTransposed() ? matrix1.getColumns() : rows)
+                || !fitsBackend(matrix2, matrix2.getOffset() + offset2, ld2, matrix2.isTransposed() ? columns : matrix2.getRows())
+                || !fitsBackend(result, result.getOffset() + offsetResult, ldResult, rows)) {
+            SegmentOps.sgemm(
+                    matrix2.isTransposed(),
+                    matrix1.isTransposed(),
+                    columns,
+                    rows,
+                    matrix2.getRows(),
+                    alpha,
+                    matrix2,
+                    offset2,
+                    ld2,
+                    matrix1,
+                    offset1,
+                    ld1,
+                    beta,
+                    result,
+                    offsetResult,
+                    ldResult);
+
+            return;
+        }
+
+        backend.sgemm(
                 matrix2.isTransposed() ? "T" : "N",
                 matrix1.isTransposed() ? "T" : "N",
-                matrix2.getColumns(),
-                matrix1.getRows(),
+                columns,
+                rows,
                 matrix2.getRows(),
                 alpha,
-                data2,
-                0,
-                matrix2.isTransposed() ? matrix2.getRows() : matrix2.getColumns(),
-                data1,
-                0,
-                matrix1.isTransposed() ? matrix1.getRows() : matrix1.getColumns(),
+                matrix2.getData(),
+                (int) (matrix2.getOffset() + offset2),
+                ld2,
+                matrix1.getData(),
+                (int) (matrix1.getOffset() + offset1),
+                ld1,
                 beta,
-                resultData,
-                0,
-                matrix2.getColumns());
+                result.getData(),
+                (int) (result.getOffset() + offsetResult),
+                ldResult);
+    }
+
+    /**
+     * netlib требует, чтобы в массиве помещались lines полных строк хранилища длиной stride
+     */
+    private static boolean fitsBackend(MatrixF32 matrix, long offset, int stride, int lines) {
+        return backend.supportsSubmatrices() || offset + (long) stride * lines <= matrix.getData().length;
+    }
+
+
+    /**
+     * Кэш корневых задач одного типа. Задача берется на время вызова и возвращается после: поток пула, помогая
+     * своей задаче, может выполнить чужую, которой тоже нужна задача, поэтому одной задачи на поток мало. Дерево
+     * подзадач остается у корня, так что после прогрева крупные произведения не выделяют памяти. Задача, завершенная
+     * исключением, в кэш не возвращается: ее части могут еще выполняться
+     */
+    private static final class Tasks<T extends Task> {
+        private final Supplier<T> factory;
+        private Task[] free = new Task[4];
+        private int size;
+
+        private Tasks(Supplier<T> factory) {
+            this.factory = factory;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized T acquire() {
+            if (size == 0) {
+                return factory.get();
+            }
+
+            var task = (T) free[--size];
+            free[size] = null;
+
+            return task;
+        }
+
+        private synchronized void release(T task) {
+            if (size == free.length) {
+                free = Arrays.copyOf(free, 2 * size);
+            }
+
+            free[size++] = task;
+        }
+    }
+
+    private enum SparseKernel {
+        /**
+         * sparseTransposedAxpy, части - блоки столбцов по длине вектора
+         */
+        TRANSPOSED_AXPY,
+        /**
+         * sparseRows(SparseMatrixF32, MatrixF32, ...)
+         */
+        SPARSE_DENSE,
+        /**
+         * sparseRows(MatrixF32, SparseMatrixF32, ...)
+         */
+        DENSE_SPARSE
+    }
+
+    /**
+     * Делит строки разреженного ядра пополам, пока часть не станет меньше PARALLEL_THRESHOLD умножений.
+     * Аргументы хранятся в полях, а не в замыкании, подзадачи создаются при первом разбиении и переиспользуются
+     */
+    @SuppressWarnings("serial")
+    private static final class SparseTask extends Task {
+        private SparseKernel kernel;
+        private SparseMatrixF32 sparse;
+        private MatrixF32 dense;
+        private VectorF32 bias;
+        private MatrixF32 result;
+        private Epilogue epilogue;
+        private long rowWork;
+        private int rowStart;
+        private int rowEnd;
+        private SparseTask left;
+        private SparseTask right;
+
+        private SparseTask() {
+        }
+
+        private SparseTask(SparseTask parent) {
+            super(parent);
+        }
+
+        private SparseTask set(SparseKernel kernel, SparseMatrixF32 sparse, MatrixF32 dense, VectorF32 bias, MatrixF32 result,
+                               Epilogue epilogue, long rowWork, int rowStart, int rowEnd) {
+            reinitialize();
+            this.kernel = kernel;
+            this.sparse = sparse;
+            this.dense = dense;
+            this.bias = bias;
+            this.result = result;
+            this.epilogue = epilogue;
+            this.rowWork = rowWork;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+
+            return this;
+        }
+
+        @Override
+        public void compute() {
+            if (rowEnd - rowStart < 2 || (rowEnd - rowStart) * rowWork < PARALLEL_THRESHOLD) {
+                switch (kernel) {
+                    case TRANSPOSED_AXPY -> {
+                        var length = species.length();
+                        sparseTransposedAxpy(sparse, dense, result, rowStart * length, Math.min(rowEnd * length, result.getColumns()));
+                    }
+                    case SPARSE_DENSE -> sparseRows(sparse, dense, bias, result, epilogue, rowStart, rowEnd);
+                    case DENSE_SPARSE -> sparseRows(dense, sparse, result, epilogue, rowStart, rowEnd);
+                }
+
+                tryComplete();
+
+                return;
+            }
+
+            if (left == null) {
+                left = new SparseTask(this);
+                right = new SparseTask(this);
+            }
+
+            var middle = (rowStart + rowEnd) >>> 1;
+            left.set(kernel, sparse, dense, bias, result, epilogue, rowWork, rowStart, middle);
+            right.set(kernel, sparse, dense, bias, result, epilogue, rowWork, middle, rowEnd);
+            forkAll(left, right);
+        }
+
+        @Override
+        protected void completed() {
+            // Кэш задач статический, ссылки на матрицы не должны переживать вызов
+            sparse = null;
+            dense = null;
+            bias = null;
+            result = null;
+            epilogue = null;
+        }
+    }
+
+    /**
+     * Делит строки результата пополам по границам блоков, пока часть не станет меньше PARALLEL_THRESHOLD умножений.
+     * Подзадачи создаются при первом разбиении и переиспользуются
+     */
+    @SuppressWarnings("serial")
+    private static final class EpilogueTask extends Task {
+        private MatrixF32 matrix1;
+        private MatrixF32 matrix2;
+        private VectorF32 bias;
+        private MatrixF32 result;
+        private Epilogue epilogue;
+        private int blockRows;
+        private int rowStart;
+        private int rowEnd;
+        private EpilogueTask left;
+        private EpilogueTask right;
+
+        private EpilogueTask() {
+        }
+
+        private EpilogueTask(EpilogueTask parent) {
+            super(parent);
+        }
+
+        private EpilogueTask set(MatrixF32 matrix1, MatrixF32 matrix2, VectorF32 bias, MatrixF32 result, Epilogue epilogue,
+                                 int blockRows, int rowStart, int rowEnd) {
+            reinitialize();
+            this.matrix1 = matrix1;
+            this.matrix2 = matrix2;
+            this.bias = bias;
+            this.result = result;
+            this.epilogue = epilogue;
+            this.blockRows = blockRows;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+
+            return this;
+        }
+
+        @Override
+        public void compute() {
+            var blocks = (rowEnd - rowStart + blockRows - 1) / blockRows;
+
+            if (blocks < 2 || (long) (rowEnd - rowStart) * result.getColumns() * matrix2.getRows() < PARALLEL_THRESHOLD) {
+                productBlocks(matrix1, matrix2, bias, result, epilogue, blockRows, rowStart, rowEnd);
+                tryComplete();
+
+                return;
+            }
+
+            if (left == null) {
+                left = new EpilogueTask(this);
+                right = new EpilogueTask(this);
+            }
+
+            var middle = rowStart + blocks / 2 * blockRows;
+            left.set(matrix1, matrix2, bias, result, epilogue, blockRows, rowStart, middle);
+            right.set(matrix1, matrix2, bias, result, epilogue, blockRows, middle, rowEnd);
+            forkAll(left, right);
+        }
+
+        @Override
+        protected void completed() {
+            matrix1 = null;
+            matrix2 = null;
+            bias = null;
+            result = null;
+            epilogue = null;
+        }
+    }
+
+    /**
+     * Делит результат пополам по большей стороне, пока блок не станет меньше PARALLEL_THRESHOLD умножений.
+     * Подзадачи создаются при первом разбиении и переиспользуются
+     */
+    @SuppressWarnings("serial")
+    private static final class ProductTask extends Task {
+        private static final int MIN_SPLIT = 64;
+
+        private MatrixF32 result;
+        private MatrixF32 matrix1;
+        private MatrixF32 matrix2;
+        private float alpha;
+        private float beta;
+        private int rowStart;
+        private int rowEnd;
+        private int columnStart;
+        private int columnEnd;
+        private ProductTask left;
+        private ProductTask right;
+
+        private ProductTask() {
+        }
+
+        private ProductTask(ProductTask parent) {
+            super(parent);
+        }
+
+        private ProductTask set(MatrixF32 result, MatrixF32 matrix1, MatrixF32 matrix2, float alpha, float beta,
+                                int rowStart, int rowEnd, int columnStart, int columnEnd) {
+            reinitialize();
+            this.result = result;
+            this.matrix1 = matrix1;
+            this.matrix2 = matrix2;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.columnStart = columnStart;
+            this.columnEnd = columnEnd;
+
+            return this;
+        }
+
+        @Override
+        public void compute() {
+            var rows = rowEnd - rowStart;
+            var columns = columnEnd - columnStart;
+
+            if ((long) rows * columns * matrix2.getRows() < PARALLEL_THRESHOLD || Math.max(rows, columns) < 2 * MIN_SPLIT) {
+                productF32Blas(result, matrix1, matrix2, alpha, beta, rowStart, rowEnd, columnStart, columnEnd);
+                tryComplete();
+            } else if (!result.isNative() && !matrix1.isNative() && !matrix2.isNative() && !backend.supportsSubmatrices()) {
+                // Целыми остаются только полосы строк, если matrix1 хранится построчно
+                if (matrix1.isTransposed() || rows < 2 * MIN_SPLIT) {
+                    productF32Blas(result, matrix1, matrix2, alpha, beta, rowStart, rowEnd, columnStart, columnEnd);
+                    tryComplete();
+                } else {
+                    var middle = rowStart + align(rows / 2);
+                    split(middle, columnEnd, middle, columnStart);
+                }
+            } else if (rows >= columns) {
+                var middle = rowStart + align(rows / 2);
+                split(middle, columnEnd, middle, columnStart);
+            } else {
+                var middle = columnStart + align(columns / 2);
+                split(rowEnd, middle, rowStart, middle);
+            }
+        }
+
+        @Override
+        protected void completed() {
+            result = null;
+            matrix1 = null;
+            matrix2 = null;
+        }
+
+        /**
+         * Левая половина - [rowStart, leftRowEnd) x [columnStart, leftColumnEnd),
+         * правая - [rightRowStart, rowEnd) x [rightColumnStart, columnEnd)
+         */
+        private void split(int leftRowEnd, int leftColumnEnd, int rightRowStart, int rightColumnStart) {
+            if (left == null) {
+                left = new ProductTask(this);
+                right = new ProductTask(this);
+            }
+
+            left.set(result, matrix1, matrix2, alpha, beta, rowStart, leftRowEnd, columnStart, leftColumnEnd);
+            right.set(result, matrix1, matrix2, alpha, beta, rightRowStart, rowEnd, rightColumnStart, columnEnd);
+            forkAll(left, right);
+        }
+
+        private static int align(int size) {
+            return Math.max(MIN_SPLIT, size / 32 * 32);
+        }
     }
 }
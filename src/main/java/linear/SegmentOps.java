@@ -0,0 +1,148 @@
+package linear;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Подмножество BLAS (column-major, как в netlib) поверх хранилища MatrixF32.
+ * Используется Ops, когда хотя бы один операнд лежит вне кучи и не может быть передан в netlib как float[]
+ */
+final class SegmentOps {
+
+    private static final VectorSpecies<Float> species = Ops.species;
+
+    private SegmentOps() {}
+
+    static void sgemm(boolean transA, boolean transB, int m, int n, int k, float alpha,
+                      MatrixF32 a, long offA, int lda,
+                      MatrixF32 b, long offB, int ldb,
+                      float beta, MatrixF32 c, long offC, int ldc) {
+        for (var j = 0; j < n; j++) {
+            var col = offC + (long) j * ldc;
+
+            if (!transA) {
+                scal(m, beta, c, col);
+
+                for (var l = 0; l < k; l++) {
+                    var bv = alpha * b.get(transB ? offB + j + (long) l * ldb : offB + l + (long) j * ldb);
+
+                    if (bv != 0.0f) {
+                        axpy(m, bv, a, offA + (long) l * lda, c, col);
+                    }
+                }
+
+                continue;
+            }
+
+            for (var i = 0; i < m; i++) {
+                var rowA = offA + (long) i * lda;
+                float sum;
+
+                if (!transB) {
+                    sum = dot(k, a, rowA, b, offB + (long) j * ldb);
+                } else {
+                    sum = 0.0f;
+                    for (var l = 0; l < k; l++) {
+                        sum += a.get(rowA + l) * b.get(offB + j + (long) l * ldb);
+                    }
+                }
+
+                var ci = col + i;
+                c.set(ci, alpha * sum + (beta == 0.0f ? 0.0f : beta * c.get(ci)));
+            }
+        }
+    }
+
+    static void sgemv(boolean trans, int m, int n, float alpha, MatrixF32 a, long offA, int lda,
+                      MatrixF32 x, long offX, float beta, MatrixF32 y, long offY) {
+        if (!trans) {
+            scal(m, beta, y, offY);
+
+            for (var j = 0; j < n; j++) {
+                var xv = alpha * x.get(offX + j);
+
+                if (xv != 0.0f) {
+                    axpy(m, xv, a, offA + (long) j * lda, y, offY);
+                }
+            }
+
+            return;
+        }
+
+        for (var j = 0; j < n; j++) {
+            var sum = dot(m, a, offA + (long) j * lda, x, offX);
+            var yj = offY + j;
+            y.set(yj, alpha * sum + (beta == 0.0f ? 0.0f : beta * y.get(yj)));
+        }
+    }
+
+    /**
+     * y = alpha * a .* x + beta * y
+     */
+    static void multipleElements(long n, float alpha, MatrixF32 a, MatrixF32 x, float beta, MatrixF32 y) {
+        var upperBound = n - n % species.length();
+        var i = 0L;
+
+        for (; i < upperBound; i += species.length()) {
+            var r = a.load(species, i).mul(x.load(species, i)).mul(alpha);
+            if (beta != 0.0f) {
+                r = y.load(species, i).mul(beta).add(r);
+            }
+            y.store(r, i);
+        }
+
+        for (; i < n; i++) {
+            y.set(i, alpha * a.get(i) * x.get(i) + (beta == 0.0f ? 0.0f : beta * y.get(i)));
+        }
+    }
+
+    static void axpy(long n, float alpha, MatrixF32 x, long offX, MatrixF32 y, long offY) {
+        var upperBound = n - n % species.length();
+        var i = 0L;
+
+        for (; i < upperBound; i += species.length()) {
+            y.store(x.load(species, offX + i).mul(alpha).add(y.load(species, offY + i)), offY + i);
+        }
+
+        for (; i < n; i++) {
+            y.set(offY + i, alpha * x.get(offX + i) + y.get(offY + i));
+        }
+    }
+
+    static void scal(long n, float alpha, MatrixF32 x, long offX) {
+        if (alpha == 1.0f) {
+            return;
+        }
+
+        var upperBound = n - n % species.length();
+        var i = 0L;
+
+        for (; i < upperBound; i += species.length()) {
+            var v = alpha == 0.0f ? FloatVector.zero(species) : x.load(species, offX + i).mul(alpha);
+            x.store(v, offX + i);
+        }
+
+        for (; i < n; i++) {
+            x.set(offX + i, alpha == 0.0f ? 0.0f : alpha * x.get(offX + i));
+        }
+    }
+
+    static float dot(long n, MatrixF32 x, long offX, MatrixF32 y, long offY) {
+        var upperBound = n - n % species.length();
+        var acc = FloatVector.zero(species);
+        var i = 0L;
+
+        for (; i < upperBound; i += species.length()) {
+            acc = x.load(species, offX + i).fma(y.load(species, offY + i), acc);
+        }
+
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+
+        for (; i < n; i++) {
+            sum += x.get(offX + i) * y.get(offY + i);
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,170 @@
+package linear;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Разреженная матрица в формате CSR: ненулевые элементы строки row - values[rowStart[row]:rowStart[row + 1]]
+ * в столбцах columnIndex с теми же индексами, столбцы в строке по возрастанию.
+ * Как и у MatrixF32, транспонированная матрица - та же CSR с флагом transposed, строки хранилища - ее столбцы.
+ * Массивы columnIndex и values могут быть длиннее числа ненулевых элементов rowStart[rows] (запас для compress)
+ */
+public class SparseMatrixF32 {
+    private final int rows;
+    private final int columns;
+    private final int[] rowStart;
+    private final int[] columnIndex;
+    private final float[] values;
+    private final boolean transposed;
+
+    public SparseMatrixF32(int rows, int columns, int[] rowStart, int[] columnIndex, float[] values) {
+        this(rows, columns, rowStart, columnIndex, values, false);
+    }
+
+    private SparseMatrixF32(int rows, int columns, int[] rowStart, int[] columnIndex, float[] values, boolean transposed) {
+        if (rowStart.length != rows + 1 || columnIndex.length != values.length || rowStart[rows] > values.length) {
+            throw new ArrayIndexOutOfBoundsException("csr arrays are invalid");
+        }
+
+        this.rows = rows;
+        this.columns = columns;
+        this.rowStart = rowStart;
+        this.columnIndex = columnIndex;
+        this.values = values;
+        this.transposed = transposed;
+    }
+
+    /**
+     * rows x columns, в каждой строке fanIn случайных различных столбцов с весами из N(0, 1)
+     */
+    public static SparseMatrixF32 random(int rows, int columns, int fanIn, Random random) {
+        if (fanIn > columns) {
+            throw new IllegalArgumentException("fanIn is greater than columns");
+        }
+
+        var rowStart = new int[rows + 1];
+        var columnIndex = new int[rows * fanIn];
+        var values = new float[rows * fanIn];
+        var permutation = new int[columns];
+        Arrays.setAll(permutation, i -> i);
+
+        for (var row = 0; row < rows; row++) {
+            var start = row * fanIn;
+
+            // Частичное перемешивание: первые fanIn элементов перестановки - случайная выборка без повторов
+            for (var j = 0; j < fanIn; j++) {
+                var k = j + random.nextInt(columns - j);
+                var t = permutation[j];
+                permutation[j] = permutation[k];
+                permutation[k] = t;
+            }
+
+            System.arraycopy(permutation, 0, columnIndex, start, fanIn);
+            Arrays.sort(columnIndex, start, start + fanIn);
+
+            for (var j = 0; j < fanIn; j++) {
+                values[start + j] = (float) random.nextGaussian(0.0f, 1f);
+            }
+
+            rowStart[row + 1] = start + fanIn;
+        }
+
+        return new SparseMatrixF32(rows, columns, rowStart, columnIndex, values);
+    }
+
+    /**
+     * Ненулевые элементы matrix в CSR. Массивы reuse заполняются заново, если у нее тот же размер, иначе
+     * выделяются новые с запасом на всю матрицу, так что повторное сжатие пакетов одного размера не выделяет памяти
+     */
+    public static SparseMatrixF32 compress(MatrixF32 matrix, SparseMatrixF32 reuse) {
+        if (matrix.isTransposed()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        var rows = matrix.getRows();
+        var columns = matrix.getColumns();
+        var result = reuse != null && !reuse.transposed && reuse.rows == rows && reuse.columns == columns
+                ? reuse
+                : new SparseMatrixF32(rows, columns, new int[rows + 1], new int[rows * columns], new float[rows * columns]);
+        var k = 0;
+
+        for (var row = 0; row < rows; row++) {
+            var start = (long) row * matrix.getStride();
+
+            for (var j = 0; j < columns; j++) {
+                var value = matrix.get(start + j);
+
+                if (value != 0.0f) {
+                    result.columnIndex[k] = j;
+                    result.values[k++] = value;
+                }
+            }
+
+            result.rowStart[row + 1] = k;
+        }
+
+        return result;
+    }
+
+    public int getRows() {
+        return transposed ? columns : rows;
+    }
+
+    public int getColumns() {
+        return transposed ? rows : columns;
+    }
+
+    /**
+     * Число строк хранилища: строк матрицы, либо столбцов, если она транспонирована
+     */
+    public int getLines() {
+        return rows;
+    }
+
+    public int getNonZeros() {
+        return rowStart[rows];
+    }
+
+    public int[] getRowStart() {
+        return rowStart;
+    }
+
+    public int[] getColumnIndex() {
+        return columnIndex;
+    }
+
+    public float[] getValues() {
+        return values;
+    }
+
+    public boolean isTransposed() {
+        return transposed;
+    }
+
+    public SparseMatrixF32 transpose() {
+        return new SparseMatrixF32(rows, columns, rowStart, columnIndex, values, !transposed);
+    }
+
+    public float get(int row, int column) {
+        var line = transposed ? column : row;
+        var index = Arrays.binarySearch(columnIndex, rowStart[line], rowStart[line + 1], transposed ? row : column);
+
+        return index >= 0 ? values[index] : 0.0f;
+    }
+
+    /**
+     * Плотная копия
+     */
+    public MatrixF32 toDense() {
+        var result = new MatrixF32(rows, columns);
+        var data = result.getData();
+
+        for (var row = 0; row < rows; row++) {
+            for (var k = rowStart[row]; k < rowStart[row + 1]; k++) {
+                data[row * columns + columnIndex[k]] = values[k];
+            }
+        }
+
+        return transposed ? result.transpose() : result;
+    }
+}
@@ -1,9 +1,24 @@
 package linear;
 
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 public class VectorF32 {
-    final int size;
+    final long size;
     float[] data;
 
+    /**
+     * Off-heap хранилище, null для векторов поверх float[]
+     */
+    MemorySegment segment;
+
     public VectorF32(int size, float[] data) {
         this.size = size;
         this.data = data;
@@ -19,23 +34,122 @@ public class VectorF32 {
         this.data = new float[size];
     }
 
+    public VectorF32(MemorySegment segment) {
+        this.size = segment.byteSize() / Float.BYTES;
+        this.segment = segment;
+    }
+
+    public static VectorF32 allocate(Arena arena, long size) {
+        return new VectorF32(arena.allocate(size * Float.BYTES, 64));
+    }
+
+    /**
+     * Нулевой вектор того же размера и в том же виде хранилища, что и template.
+     * Off-heap память освобождается сборщиком мусора вместе с вектором
+     */
+    public static VectorF32 allocateLike(VectorF32 template) {
+        if (template.isNative()) {
+            return allocate(Arena.ofAuto(), template.getLongSize());
+        }
+
+        return new VectorF32(template.getSize());
+    }
+
+    /**
+     * Размер вектора, который помещается в int. Off-heap вектор может быть длиннее 2^31 элементов, см. getLongSize
+     */
     public int getSize() {
+        return Math.toIntExact(size);
+    }
+
+    public long getLongSize() {
         return size;
     }
 
+    public boolean isNative() {
+        return data == null;
+    }
+
     public float[] getData() {
+        if (data == null) {
+            throw new UnsupportedOperationException("off-heap vector has no backing array, use getSegment()");
+        }
+
         return data;
     }
 
+    public MemorySegment getSegment() {
+        return segment != null ? segment : MemorySegment.ofArray(data);
+    }
+
     public void setData(float[] data) {
         this.data = data;
+        this.segment = null;
+    }
+
+    public float get(long i) {
+        return data != null ? data[(int) i] : segment.getAtIndex(ValueLayout.JAVA_FLOAT, i);
+    }
+
+    public void set(long i, float value) {
+        if (data != null) {
+            data[(int) i] = value;
+        } else {
+            segment.setAtIndex(ValueLayout.JAVA_FLOAT, i, value);
+        }
+    }
+
+    public void fill(float value) {
+        if (data != null) {
+            Arrays.fill(data, value);
+        } else {
+            for (long i = 0; i < size; i++) {
+                segment.setAtIndex(ValueLayout.JAVA_FLOAT, i, value);
+            }
+        }
+    }
+
+    public FloatVector load(VectorSpecies<Float> species, long i) {
+        return data != null
+                ? FloatVector.fromArray(species, data, (int) i)
+                : FloatVector.fromMemorySegment(species, segment, i * Float.BYTES, ByteOrder.nativeOrder());
+    }
+
+    public FloatVector load(VectorSpecies<Float> species, long i, VectorMask<Float> mask) {
+        return data != null
+                ? FloatVector.fromArray(species, data, (int) i, mask)
+                : FloatVector.fromMemorySegment(species, segment, i * Float.BYTES, ByteOrder.nativeOrder(), mask);
+    }
+
+    public void store(FloatVector vector, long i) {
+        if (data != null) {
+            vector.intoArray(data, (int) i);
+        } else {
+            vector.intoMemorySegment(segment, i * Float.BYTES, ByteOrder.nativeOrder());
+        }
+    }
+
+    public void store(FloatVector vector, long i, VectorMask<Float> mask) {
+        if (data != null) {
+            vector.intoArray(data, (int) i, mask);
+        } else {
+            vector.intoMemorySegment(segment, i * Float.BYTES, ByteOrder.nativeOrder(), mask);
+        }
     }
 
     public MatrixF32 toVerticalMatrix() {
+        if (data == null) {
+            return new MatrixF32(this.getSize(), 1, segment);
+        }
+
         return new MatrixF32(this.getSize(), 1, this.getData());
     }
 
     public MatrixF32 toHorizontalMatrix() {
+        if (data == null) {
+            return new MatrixF32(1, this.getSize(), segment);
+        }
+
         return new MatrixF32(1, this.getSize(), this.getData());
     }
 }
@@ -0,0 +1,50 @@
+package linear.backend;
+
+import dev.ludovic.netlib.BLAS;
+import linear.Backend;
+
+public class Netlib implements Backend.Interface {
+    private final BLAS blas = BLAS.getInstance();
+
+    public void sgemm(String transa, String transb, int m, int n, int k, float alpha,
+                      float[] a, int offseta, int lda,
+                      float[] b, int offsetb, int ldb,
+                      float beta, float[] c, int offsetc, int ldc) {
+        blas.sgemm(transa, transb, m, n, k, alpha, a, offseta, lda, b, offsetb, ldb, beta, c, offsetc, ldc);
+    }
+
+    public void sgemv(String trans, int m, int n, float alpha,
+                      float[] a, int offseta, int lda,
+                      float[] x, int offsetx,
+                      float beta, float[] y, int offsety) {
+        blas.sgemv(trans, m, n, alpha, a, offseta, lda, x, offsetx, 1, beta, y, offsety, 1);
+    }
+
+    public void multipleElements(int n, float alpha, float[] a, int offseta, float[] x, int offsetx, float beta, float[] y, int offsety) {
+        blas.ssbmv("L", n, 0, alpha, a, offseta, 1, x, offsetx, 1, beta, y, offsety, 1);
+    }
+
+    public void saxpy(int n, float alpha, float[] x, int offsetx, float[] y, int offsety) {
+        blas.saxpy(n, alpha, x, offsetx, 1, y, offsety, 1);
+    }
+
+    public void sscal(int n, float alpha, float[] x, int offsetx) {
+        blas.sscal(n, alpha, x, offsetx, 1);
+    }
+
+    public float sdot(int n, float[] x, int offsetx, float[] y, int offsety) {
+        return blas.sdot(n, x, offsetx, 1, y, offsety, 1);
+    }
+
+    public int isamax(int n, float[] x, int offsetx) {
+        return blas.isamax(n, x, offsetx, 1);
+    }
+
+    /**
+     * netlib проверяет границы как offset + ld * cols, поэтому подматрицы отклоняются
+     */
+    @Override
+    public boolean supportsSubmatrices() {
+        return false;
+    }
+}
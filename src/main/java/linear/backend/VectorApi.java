@@ -0,0 +1,404 @@
+package linear.backend;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import linear.Backend;
+import linear.Ops;
+
+import java.util.Arrays;
+
+/**
+ * BLAS на jdk.incubator.vector без нативных зависимостей.
+ * sgemm построен по схеме Goto: блоки KC x NC матрицы B и MC x KC матрицы A упаковываются в микропанели,
+ * а микроядро MR x NR держит весь тайл результата в регистрах.
+ * Упаковочные буферы свои у каждого потока, поэтому реализация потокобезопасна
+ */
+public class VectorApi implements Backend.Interface {
+    private static final VectorSpecies<Float> species = Ops.species;
+    private static final int L = species.length();
+
+    private static final int MR = 2 * L;
+    /**
+     * 2 * NR аккумуляторов в регистрах. При 12 аккумуляторах C2 (JDK 21) не снимает упаковку вектора в цикле
+     * микроядра, и каждая итерация выделяет память
+     */
+    private static final int NR = 5;
+    private static final int KC = 256;
+    private static final int MC = MR * Math.max(1, 128 / MR);
+    private static final int NC = NR * 512;
+
+    private static final ThreadLocal<float[][]> packBuffers = ThreadLocal.withInitial(() -> new float[][]{
+            new float[MC * KC],
+            new float[NC * KC],
+            new float[MR * NR],
+    });
+
+    public void sgemm(String transa, String transb, int m, int n, int k, float alpha,
+                      float[] a, int offseta, int lda,
+                      float[] b, int offsetb, int ldb,
+                      float beta, float[] c, int offsetc, int ldc) {
+        if (m == 0 || n == 0) {
+            return;
+        }
+
+        if (beta != 1.0f) {
+            for (var j = 0; j < n; j++) {
+                sscal(m, beta, c, offsetc + j * ldc);
+            }
+        }
+
+        if (alpha == 0.0f || k == 0) {
+            return;
+        }
+
+        var ta = isTransposed(transa);
+        var tb = isTransposed(transb);
+        var buffers = packBuffers.get();
+        var packedA = buffers[0];
+        var packedB = buffers[1];
+
+        for (var jc = 0; jc < n; jc += NC) {
+            var nc = Math.min(NC, n - jc);
+
+            for (var pc = 0; pc < k; pc += KC) {
+                var kc = Math.min(KC, k - pc);
+
+                packB(tb, b, offsetb, ldb, pc, jc, kc, nc, packedB);
+
+                for (var ic = 0; ic < m; ic += MC) {
+                    var mc = Math.min(MC, m - ic);
+
+                    packA(ta, a, offseta, lda, ic, pc, mc, kc, packedA);
+                    macroKernel(mc, nc, kc, alpha, packedA, packedB, c, offsetc + ic + jc * ldc, ldc, buffers[2]);
+                }
+            }
+        }
+    }
+
+    private static boolean isTransposed(String trans) {
+        return trans.equals("T") || trans.equals("t") || trans.equals("C") || trans.equals("c");
+    }
+
+    /**
+     * op(A)[ic:ic+mc, pc:pc+kc] в панели по MR строк, строки за пределами m дополняются нулями
+     */
+    private static void packA(boolean ta, float[] a, int offset, int lda, int ic, int pc, int mc, int kc, float[] packed) {
+        for (var r = 0; r < mc; r += MR) {
+            var base = r * kc;
+            var mr = Math.min(MR, mc - r);
+
+            if (!ta) {
+                for (var p = 0; p < kc; p++) {
+                    var dst = base + p * MR;
+
+                    System.arraycopy(a, offset + ic + r + (pc + p) * lda, packed, dst, mr);
+
+                    for (var i = mr; i < MR; i++) {
+                        packed[dst + i] = 0.0f;
+                    }
+                }
+
+                continue;
+            }
+
+            for (var i = 0; i < MR; i++) {
+                if (i >= mr) {
+                    for (var p = 0; p < kc; p++) {
+                        packed[base + p * MR + i] = 0.0f;
+                    }
+
+                    continue;
+                }
+
+                var src = offset + pc + (ic + r + i) * lda;
+                for (var p = 0; p < kc; p++) {
+                    packed[base + p * MR + i] = a[src + p];
+                }
+            }
+        }
+    }
+
+    /**
+     * op(B)[pc:pc+kc, jc:jc+nc] в панели по NR столбцов, столбцы за пределами n дополняются нулями
+     */
+    private static void packB(boolean tb, float[] b, int offset, int ldb, int pc, int jc, int kc, int nc, float[] packed) {
+        for (var s = 0; s < nc; s += NR) {
+            var base = s * kc;
+            var nr = Math.min(NR, nc - s);
+
+            for (var j = 0; j < NR; j++) {
+                if (j >= nr) {
+                    for (var p = 0; p < kc; p++) {
+                        packed[base + p * NR + j] = 0.0f;
+                    }
+                } else if (!tb) {
+                    var src = offset + pc + (jc + s + j) * ldb;
+                    for (var p = 0; p < kc; p++) {
+                        packed[base + p * NR + j] = b[src + p];
+                    }
+                } else {
+                    var src = offset + jc + s + j + pc * ldb;
+                    for (var p = 0; p < kc; p++) {
+                        packed[base + p * NR + j] = b[src + p * ldb];
+                    }
+                }
+            }
+        }
+    }
+
+    private static void macroKernel(int mc, int nc, int kc, float alpha, float[] packedA, float[] packedB, float[] c, int offset, int ldc, float[] tile) {
+        for (var s = 0; s < nc; s += NR) {
+            var nr = Math.min(NR, nc - s);
+
+            for (var r = 0; r < mc; r += MR) {
+                var mr = Math.min(MR, mc - r);
+
+                microKernel(kc, alpha, packedA, r * kc, packedB, s * kc, c, offset + r + s * ldc, ldc, mr, nr, tile);
+            }
+        }
+    }
+
+    private static void microKernel(int kc, float alpha, float[] packedA, int ai, float[] packedB, int bi, float[] c, int ci, int ldc, int mr, int nr, float[] tile) {
+        var c00 = FloatVector.zero(species);
+        var c01 = FloatVector.zero(species);
+        var c10 = FloatVector.zero(species);
+        var c11 = FloatVector.zero(species);
+        var c20 = FloatVector.zero(species);
+        var c21 = FloatVector.zero(species);
+        var c30 = FloatVector.zero(species);
+        var c31 = FloatVector.zero(species);
+        var c40 = FloatVector.zero(species);
+        var c41 = FloatVector.zero(species);
+
+        for (var p = 0; p < kc; p++) {
+            var a0 = FloatVector.fromArray(species, packedA, ai);
+            var a1 = FloatVector.fromArray(species, packedA, ai + L);
+            ai += MR;
+
+            var b = FloatVector.broadcast(species, packedB[bi]);
+            c00 = a0.fma(b, c00);
+            c01 = a1.fma(b, c01);
+            b = FloatVector.broadcast(species, packedB[bi + 1]);
+            c10 = a0.fma(b, c10);
+            c11 = a1.fma(b, c11);
+            b = FloatVector.broadcast(species, packedB[bi + 2]);
+            c20 = a0.fma(b, c20);
+            c21 = a1.fma(b, c21);
+            b = FloatVector.broadcast(species, packedB[bi + 3]);
+            c30 = a0.fma(b, c30);
+            c31 = a1.fma(b, c31);
+            b = FloatVector.broadcast(species, packedB[bi + 4]);
+            c40 = a0.fma(b, c40);
+            c41 = a1.fma(b, c41);
+            bi += NR;
+        }
+
+        if (mr == MR && nr == NR) {
+            update(c, ci, alpha, c00, c01);
+            update(c, ci + ldc, alpha, c10, c11);
+            update(c, ci + 2 * ldc, alpha, c20, c21);
+            update(c, ci + 3 * ldc, alpha, c30, c31);
+            update(c, ci + 4 * ldc, alpha, c40, c41);
+
+            return;
+        }
+
+        // Краевой тайл: аккумуляторы выгружаются целиком, в C попадает только часть mr x nr
+        c00.intoArray(tile, 0);
+        c01.intoArray(tile, L);
+        c10.intoArray(tile, MR);
+        c11.intoArray(tile, MR + L);
+        c20.intoArray(tile, 2 * MR);
+        c21.intoArray(tile, 2 * MR + L);
+        c30.intoArray(tile, 3 * MR);
+        c31.intoArray(tile, 3 * MR + L);
+        c40.intoArray(tile, 4 * MR);
+        c41.intoArray(tile, 4 * MR + L);
+
+        for (var j = 0; j < nr; j++) {
+            for (var i = 0; i < mr; i++) {
+                c[ci + j * ldc + i] += alpha * tile[j * MR + i];
+            }
+        }
+    }
+
+    private static void update(float[] c, int ci, float alpha, FloatVector acc0, FloatVector acc1) {
+        var alphaV = FloatVector.broadcast(species, alpha);
+        acc0.fma(alphaV, FloatVector.fromArray(species, c, ci)).intoArray(c, ci);
+        acc1.fma(alphaV, FloatVector.fromArray(species, c, ci + L)).intoArray(c, ci + L);
+    }
+
+    public void sgemv(String trans, int m, int n, float alpha,
+                      float[] a, int offseta, int lda,
+                      float[] x, int offsetx,
+                      float beta, float[] y, int offsety) {
+        if (!isTransposed(trans)) {
+            sscal(m, beta, y, offsety);
+
+            var j = 0;
+            for (; j + 4 <= n; j += 4) {
+                var x0 = alpha * x[offsetx + j];
+                var x1 = alpha * x[offsetx + j + 1];
+                var x2 = alpha * x[offsetx + j + 2];
+                var x3 = alpha * x[offsetx + j + 3];
+                var col = offseta + j * lda;
+                var upperBound = species.loopBound(m);
+                var i = 0;
+
+                for (; i < upperBound; i += L) {
+                    FloatVector.fromArray(species, a, col + i).mul(x0)
+                            .add(FloatVector.fromArray(species, a, col + lda + i).mul(x1))
+                            .add(FloatVector.fromArray(species, a, col + 2 * lda + i).mul(x2))
+                            .add(FloatVector.fromArray(species, a, col + 3 * lda + i).mul(x3))
+                            .add(FloatVector.fromArray(species, y, offsety + i))
+                            .intoArray(y, offsety + i);
+                }
+
+                for (; i < m; i++) {
+                    y[offsety + i] += a[col + i] * x0 + a[col + lda + i] * x1 + a[col + 2 * lda + i] * x2 + a[col + 3 * lda + i] * x3;
+                }
+            }
+
+            for (; j < n; j++) {
+                saxpy(m, alpha * x[offsetx + j], a, offseta + j * lda, y, offsety);
+            }
+
+            return;
+        }
+
+        var j = 0;
+        for (; j + 4 <= n; j += 4) {
+            var col = offseta + j * lda;
+            var s0 = FloatVector.zero(species);
+            var s1 = FloatVector.zero(species);
+            var s2 = FloatVector.zero(species);
+            var s3 = FloatVector.zero(species);
+            var upperBound = species.loopBound(m);
+            var i = 0;
+
+            for (; i < upperBound; i += L) {
+                var xv = FloatVector.fromArray(species, x, offsetx + i);
+                s0 = FloatVector.fromArray(species, a, col + i).fma(xv, s0);
+                s1 = FloatVector.fromArray(species, a, col + lda + i).fma(xv, s1);
+                s2 = FloatVector.fromArray(species, a, col + 2 * lda + i).fma(xv, s2);
+                s3 = FloatVector.fromArray(species, a, col + 3 * lda + i).fma(xv, s3);
+            }
+
+            var r0 = s0.reduceLanes(VectorOperators.ADD);
+            var r1 = s1.reduceLanes(VectorOperators.ADD);
+            var r2 = s2.reduceLanes(VectorOperators.ADD);
+            var r3 = s3.reduceLanes(VectorOperators.ADD);
+
+            for (; i < m; i++) {
+                var xi = x[offsetx + i];
+                r0 += a[col + i] * xi;
+                r1 += a[col + lda + i] * xi;
+                r2 += a[col + 2 * lda + i] * xi;
+                r3 += a[col + 3 * lda + i] * xi;
+            }
+
+            y[offsety + j] = alpha * r0 + (beta == 0.0f ? 0.0f : beta * y[offsety + j]);
+            y[offsety + j + 1] = alpha * r1 + (beta == 0.0f ? 0.0f : beta * y[offsety + j + 1]);
+            y[offsety + j + 2] = alpha * r2 + (beta == 0.0f ? 0.0f : beta * y[offsety + j + 2]);
+            y[offsety + j + 3] = alpha * r3 + (beta == 0.0f ? 0.0f : beta * y[offsety + j + 3]);
+        }
+
+        for (; j < n; j++) {
+            var r = sdot(m, a, offseta + j * lda, x, offsetx);
+            y[offsety + j] = alpha * r + (beta == 0.0f ? 0.0f : beta * y[offsety + j]);
+        }
+    }
+
+    public void multipleElements(int n, float alpha, float[] a, int offseta, float[] x, int offsetx, float beta, float[] y, int offsety) {
+        var upperBound = species.loopBound(n);
+        var i = 0;
+
+        for (; i < upperBound; i += L) {
+            var r = FloatVector.fromArray(species, a, offseta + i).mul(FloatVector.fromArray(species, x, offsetx + i)).mul(alpha);
+            if (beta != 0.0f) {
+                r = FloatVector.fromArray(species, y, offsety + i).mul(beta).add(r);
+            }
+            r.intoArray(y, offsety + i);
+        }
+
+        for (; i < n; i++) {
+            y[offsety + i] = alpha * a[offseta + i] * x[offsetx + i] + (beta == 0.0f ? 0.0f : beta * y[offsety + i]);
+        }
+    }
+
+    public void saxpy(int n, float alpha, float[] x, int offsetx, float[] y, int offsety) {
+        if (alpha == 0.0f) {
+            return;
+        }
+
+        var upperBound = species.loopBound(n);
+        var i = 0;
+
+        for (; i < upperBound; i += L) {
+            FloatVector.fromArray(species, x, offsetx + i)
+                    .fma(FloatVector.broadcast(species, alpha), FloatVector.fromArray(species, y, offsety + i))
+                    .intoArray(y, offsety + i);
+        }
+
+        for (; i < n; i++) {
+            y[offsety + i] += alpha * x[offsetx + i];
+        }
+    }
+
+    public void sscal(int n, float alpha, float[] x, int offsetx) {
+        if (alpha == 1.0f) {
+            return;
+        }
+
+        if (alpha == 0.0f) {
+            Arrays.fill(x, offsetx, offsetx + n, 0.0f);
+
+            return;
+        }
+
+        var upperBound = species.loopBound(n);
+        var i = 0;
+
+        for (; i < upperBound; i += L) {
+            FloatVector.fromArray(species, x, offsetx + i).mul(alpha).intoArray(x, offsetx + i);
+        }
+
+        for (; i < n; i++) {
+            x[offsetx + i] *= alpha;
+        }
+    }
+
+    public float sdot(int n, float[] x, int offsetx, float[] y, int offsety) {
+        var upperBound = species.loopBound(n);
+        var acc = FloatVector.zero(species);
+        var i = 0;
+
+        for (; i < upperBound; i += L) {
+            acc = FloatVector.fromArray(species, x, offsetx + i).fma(FloatVector.fromArray(species, y, offsety + i), acc);
+        }
+
+        var sum = acc.reduceLanes(VectorOperators.ADD);
+
+        for (; i < n; i++) {
+            sum += x[offsetx + i] * y[offsety + i];
+        }
+
+        return sum;
+    }
+
+    public int isamax(int n, float[] x, int offsetx) {
+        var index = 0;
+        var max = -1.0f;
+
+        for (var i = 0; i < n; i++) {
+            var v = Math.abs(x[offsetx + i]);
+            if (v > max) {
+                max = v;
+                index = i;
+            }
+        }
+
+        return index;
+    }
+}
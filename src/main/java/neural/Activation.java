@@ -1,57 +1,145 @@
 package neural;
 
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
 import linear.MatrixF32;
 import linear.Ops;
 import linear.VectorF32;
 
 import java.util.Arrays;
 
+/**
+ * Пакетные applyRows/diffBatch работают через Vector API построчно, хвост строки обрабатывается по маске
+ */
 public class Activation {
 
-    public interface Interface {
+    /**
+     * applyRows служит эпилогом Ops.product и применяется к блоку строк, пока он в кэше
+     */
+    public interface Interface extends Ops.Epilogue {
         VectorF32 apply(VectorF32 vector);
         VectorF32 diff(VectorF32 vector, VectorF32 output);
-        MatrixF32 applyBatch(MatrixF32 matrix);
+
+        /**
+         * Применяется на месте ко всем строкам matrix
+         */
+        default MatrixF32 applyBatch(MatrixF32 matrix) {
+            applyRows(matrix, 0, matrix.getRows());
+
+            return matrix;
+        }
+
+        /**
+         * applyRows с обнулением выключенных дропаутом нейронов, без дропаута dropout = Dropout.Mask.NONE.
+         * Реализации применяют маску в том же проходе, что и активацию
+         */
+        default void applyRows(MatrixF32 matrix, int row, int rows, Dropout.Mask dropout) {
+            applyRows(matrix, row, rows);
+
+            if (dropout != Dropout.Mask.NONE) {
+                dropout.apply(matrix, row, rows);
+            }
+        }
+
+        /**
+         * Производная по результату активации matrix, записывается в output
+         */
         MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output);
+
+        /**
+         * diffBatch, равная нулю на выключенных дропаутом нейронах
+         */
+        default MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            diffBatch(matrix, output);
+
+            if (dropout != Dropout.Mask.NONE) {
+                dropout.apply(output, 0, output.getRows());
+            }
+
+            return output;
+        }
+
         Loss.Interface suggestLoss();
 
+        /**
+         * true, если в паре с loss градиент выходного слоя по входу активации равен predicted - target.
+         * Тогда BackPropagation считает его одним проходом без diffBatch
+         */
+        default boolean fusesWith(Loss.Interface loss) {
+            return false;
+        }
     }
 
     public static class ReLU implements Interface {
 
         @Override
         public VectorF32 apply(VectorF32 vector) {
-            final var data = vector.getData();
-
-            for (var i = 0; i < data.length; i++) {
-                //noinspection ManualMinMaxCalculation
-                data[i] = data[i] > 0.0f ? data[i] : 0.0f;
-            }
+            applyRows(vector.toHorizontalMatrix(), 0, 1);
 
             return vector;
         }
 
         @Override
-        public MatrixF32 applyBatch(MatrixF32 matrix) {
-            final var data = matrix.getData();
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
+            applyRows(matrix, row, rows, Dropout.Mask.NONE);
+        }
 
-            for (var i = 0; i < data.length; i++) {
-                //noinspection ManualMinMaxCalculation
-                data[i] = data[i] > 0.0f ? data[i] : 0.0f;
+        @Override
+        public void applyRows(MatrixF32 matrix, int row, int rows, Dropout.Mask dropout) {
+            final var species = Ops.species;
+            final var columns = matrix.getColumns();
+            final var bound = species.loopBound(columns);
+
+            for (var r = row; r < row + rows; r++) {
+                final var start = (long) r * matrix.getStride();
+                var j = 0;
+
+                for (; j < bound; j += species.length()) {
+                    matrix.store(drop(relu(matrix.load(species, start + j)), dropout, r, j), start + j);
+                }
+
+                if (j < columns) {
+                    var mask = species.indexInRange(j, columns);
+                    matrix.store(drop(relu(matrix.load(species, start + j, mask)), dropout, r, j), start + j, mask);
+                }
             }
+        }
 
-            return matrix;
+        private static FloatVector relu(FloatVector x) {
+            return x.broadcast(0.0f).blend(x, x.compare(VectorOperators.GT, 0.0f));
         }
 
         @Override
         public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output) {
-            final var data = matrix.getData();
+            return diffBatch(matrix, output, Dropout.Mask.NONE);
+        }
 
-            for (var i = 0; i < data.length; i++) {
-                data[i] = data[i] > 0.0f ? 1.0f : 0.0f;
+        @Override
+        public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            final var species = Ops.species;
+            final var columns = matrix.getColumns();
+            final var bound = species.loopBound(columns);
+            final var zero = FloatVector.zero(species);
+
+            for (var r = 0; r < matrix.getRows(); r++) {
+                final var start = (long) r * matrix.getStride();
+                final var outputStart = (long) r * output.getStride();
+                var j = 0;
+
+                for (; j < bound; j += species.length()) {
+                    var x = matrix.load(species, start + j);
+                    output.store(drop(zero.blend(1.0f, x.compare(VectorOperators.GT, 0.0f)), dropout, r, j), outputStart + j);
+                }
+
+                if (j < columns) {
+                    var mask = species.indexInRange(j, columns);
+                    var x = matrix.load(species, start + j, mask);
+                    output.store(drop(zero.blend(1.0f, x.compare(VectorOperators.GT, 0.0f)), dropout, r, j), outputStart + j, mask);
+                }
             }
 
-            return matrix;
+            return output;
         }
 
         @Override
@@ -76,11 +164,7 @@ public class Activation {
 
         @Override
         public VectorF32 apply(VectorF32 vector) {
-            final var data = vector.getData();
-
-            for (var i = 0; i < data.length; i++) {
-                data[i] = data[i] > 0.0f ? data[i] : data[i] * 0.01f;
-            }
+            applyRows(vector.toHorizontalMatrix(), 0, 1);
 
             return vector;
         }
@@ -98,23 +182,62 @@ public class Activation {
         }
 
         @Override
-        public MatrixF32 applyBatch(MatrixF32 matrix) {
-            final var data = matrix.getData();
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
+            applyRows(matrix, row, rows, Dropout.Mask.NONE);
+        }
 
-            for (var i = 0; i < data.length; i++) {
-                data[i] = data[i] > 0.0f ? data[i] : 0.01f * data[i];
+        @Override
+        public void applyRows(MatrixF32 matrix, int row, int rows, Dropout.Mask dropout) {
+            final var species = Ops.species;
+            final var columns = matrix.getColumns();
+            final var bound = species.loopBound(columns);
+
+            for (var r = row; r < row + rows; r++) {
+                final var start = (long) r * matrix.getStride();
+                var j = 0;
+
+                for (; j < bound; j += species.length()) {
+                    matrix.store(drop(leakyRelu(matrix.load(species, start + j)), dropout, r, j), start + j);
+                }
+
+                if (j < columns) {
+                    var mask = species.indexInRange(j, columns);
+                    matrix.store(drop(leakyRelu(matrix.load(species, start + j, mask)), dropout, r, j), start + j, mask);
+                }
             }
+        }
 
-            return matrix;
+        private static FloatVector leakyRelu(FloatVector x) {
+            return x.mul(0.01f).blend(x, x.compare(VectorOperators.GT, 0.0f));
         }
 
         @Override
         public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output) {
-            final var data = matrix.getData();
-            final var o = output.getData();
+            return diffBatch(matrix, output, Dropout.Mask.NONE);
+        }
 
-            for (var i = 0; i < data.length; i++) {
-                o[i] = data[i] > 0.0f ? 1.0f : 0.01f;
+        @Override
+        public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            final var species = Ops.species;
+            final var columns = matrix.getColumns();
+            final var bound = species.loopBound(columns);
+            final var slope = FloatVector.broadcast(species, 0.01f);
+
+            for (var r = 0; r < matrix.getRows(); r++) {
+                final var start = (long) r * matrix.getStride();
+                final var outputStart = (long) r * output.getStride();
+                var j = 0;
+
+                for (; j < bound; j += species.length()) {
+                    var x = matrix.load(species, start + j);
+                    output.store(drop(slope.blend(1.0f, x.compare(VectorOperators.GT, 0.0f)), dropout, r, j), outputStart + j);
+                }
+
+                if (j < columns) {
+                    var mask = species.indexInRange(j, columns);
+                    var x = matrix.load(species, start + j, mask);
+                    output.store(drop(slope.blend(1.0f, x.compare(VectorOperators.GT, 0.0f)), dropout, r, j), outputStart + j, mask);
+                }
             }
 
             return output;
@@ -156,37 +279,63 @@ public class Activation {
         }
 
         @Override
-        public MatrixF32 applyBatch(MatrixF32 matrix) {
-            final var data = matrix.getData();
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
+            applyRows(matrix, row, rows, Dropout.Mask.NONE);
+        }
 
-            for (var i = 0; i < data.length; i++) {
-                float x = data[i];
-
-                if (x < x1) {
-                    data[i] = (x - x1) * alpha1 + x1 * alpha2;
-                } else if (x < x2) {
-                    data[i] = x * alpha2;
-                } else {
-                    data[i] = (x - x2) * alpha3 + x2 * alpha2;
+        @Override
+        public void applyRows(MatrixF32 matrix, int row, int rows, Dropout.Mask dropout) {
+            final var species = Ops.species;
+            final var columns = matrix.getColumns();
+            final var bound = species.loopBound(columns);
+
+            for (var r = row; r < row + rows; r++) {
+                final var start = (long) r * matrix.getStride();
+                var j = 0;
+
+                for (; j < bound; j += species.length()) {
+                    matrix.store(drop(srelu(matrix.load(species, start + j)), dropout, r, j), start + j);
+                }
+
+                if (j < columns) {
+                    var mask = species.indexInRange(j, columns);
+                    matrix.store(drop(srelu(matrix.load(species, start + j, mask)), dropout, r, j), start + j, mask);
                 }
             }
+        }
 
-            return matrix;
+        private FloatVector srelu(FloatVector x) {
+            return x.mul(alpha2)
+                    .blend(x.sub(x1).mul(alpha1).add(x1 * alpha2), x.lt(x1))
+                    .blend(x.sub(x2).mul(alpha3).add(x2 * alpha2), x.compare(VectorOperators.GE, x2));
         }
 
         @Override
         public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output) {
-            final var data = output.getData();
-            final var input = matrix.getData();
+            return diffBatch(matrix, output, Dropout.Mask.NONE);
+        }
 
-            for (var i = 0; i < data.length; i++) {
-                float x = input[i];
-                if (x < x1) {
-                    data[i] = alpha1;
-                } else if (x < x2) {
-                    data[i] = alpha2;
-                } else {
-                    data[i] = alpha3;
+        @Override
+        public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            final var species = Ops.species;
+            final var columns = matrix.getColumns();
+            final var bound = species.loopBound(columns);
+            final var middle = FloatVector.broadcast(species, alpha2);
+
+            for (var r = 0; r < matrix.getRows(); r++) {
+                final var start = (long) r * matrix.getStride();
+                final var outputStart = (long) r * output.getStride();
+                var j = 0;
+
+                for (; j < bound; j += species.length()) {
+                    var x = matrix.load(species, start + j);
+                    output.store(drop(middle.blend(alpha1, x.lt(x1)).blend(alpha3, x.compare(VectorOperators.GE, x2)), dropout, r, j), outputStart + j);
+                }
+
+                if (j < columns) {
+                    var mask = species.indexInRange(j, columns);
+                    var x = matrix.load(species, start + j, mask);
+                    output.store(drop(middle.blend(alpha1, x.lt(x1)).blend(alpha3, x.compare(VectorOperators.GE, x2)), dropout, r, j), outputStart + j, mask);
                 }
             }
 
@@ -266,57 +415,30 @@ public class Activation {
         }
 
         @Override
-        public MatrixF32 applyBatch(MatrixF32 matrix) {
-            final var data = matrix.getData();
-
-            for (var i = 0; i < matrix.getRows(); i++) {
-                var sum = 0.0f;
-                var k = i * matrix.getColumns();
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
+            applyRows(matrix, row, rows, Dropout.Mask.NONE);
+        }
 
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    var exp = normalize((float) Math.exp(data[k + j] * alpha), Float.MAX_VALUE / matrix.getColumns());
-                    sum += exp;
-                    data[k + j] = exp;
-                }
+        @Override
+        public void applyRows(MatrixF32 matrix, int row, int rows, Dropout.Mask dropout) {
+            final var limit = Float.MAX_VALUE / matrix.getColumns();
 
-                sum = Math.max(Math.min(sum, Float.MAX_VALUE), -Float.MAX_VALUE);
+            for (var i = row; i < row + rows; i++) {
+                final var start = (long) i * matrix.getStride();
+                var sum = expRow(matrix, start, alpha, 0.0f, limit);
 
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    data[k + j] /= sum + e;
-                    Ops.assertNoNan(new float[]{data[k + j]});
-                }
+                scaleRow(matrix, start, 1.0f / (Math.min(sum, Float.MAX_VALUE) + e), dropout, i);
             }
-
-            return matrix;
         }
 
         @Override
         public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output) {
-            final var data = output.getData();
-            final var input = matrix.getData();
-
-            for (var i = 0; i < matrix.getRows(); i++) {
-                var sum = 0.0f;
-                var k = i * matrix.getColumns();
-
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    var exp = (float) Math.max(Math.min(Math.exp(input[k + j] * alpha), Float.MAX_VALUE / input.length / 2), -Float.MAX_VALUE / input.length / 2);
-                    sum += exp;
-                    data[k + j] = exp;
-                }
-
-                sum = Math.max(Math.min(sum, Float.MAX_VALUE), -Float.MAX_VALUE);
-
-                if (sum == 0.0f) {
-                    Arrays.fill(data, 0.0f);
-                }
-
-                for (var j = 0; j < data.length; j++) {
-                    data[j] = (input[j] / sum) * (1 - input[j] / sum);
-                }
-            }
+            return diffBatch(matrix, output, Dropout.Mask.NONE);
+        }
 
-            return output;
+        @Override
+        public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            return softmaxDiff(matrix, output, alpha, 0.0f, dropout);
         }
 
         @Override
@@ -324,6 +446,14 @@ public class Activation {
             return new Loss.CrossEntropyLoss();
         }
 
+        /**
+         * При alpha != 1 градиент масштабируется на alpha, такой случай идет через diffBatch
+         */
+        @Override
+        public boolean fusesWith(Loss.Interface loss) {
+            return alpha == 1.0f && loss instanceof Loss.CrossEntropyLoss;
+        }
+
         private static float normalize(float x, float max) {
             return Math.max(Math.min(x, max), -max);
         }
@@ -354,55 +484,28 @@ public class Activation {
         }
 
         @Override
-        public MatrixF32 applyBatch(MatrixF32 matrix) {
-            final var data = matrix.getData();
-
-            for (var i = 0; i < matrix.getRows(); i++) {
-                var sum = (float)Math.exp(C);
-                var k = i * matrix.getColumns();
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
+            applyRows(matrix, row, rows, Dropout.Mask.NONE);
+        }
 
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    var exp = (float)Math.exp(data[k + j] * alpha);
-                    sum += exp;
-                    data[k + j] = exp;
-                }
+        @Override
+        public void applyRows(MatrixF32 matrix, int row, int rows, Dropout.Mask dropout) {
+            for (var i = row; i < row + rows; i++) {
+                final var start = (long) i * matrix.getStride();
+                var sum = expRow(matrix, start, alpha, 0.0f, Float.MAX_VALUE);
 
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    data[k + j] *= 2f / sum;
-                    Ops.assertNoNan(new float[]{data[k + j]});
-                }
+                scaleRow(matrix, start, 2f / ((float) Math.exp(C) + sum), dropout, i);
             }
-
-            return matrix;
         }
 
         @Override
         public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output) {
-            final var data = output.getData();
-            final var input = matrix.getData();
-
-            for (var i = 0; i < matrix.getRows(); i++) {
-                var sum = (float)Math.exp(C);
-                var k = i * matrix.getColumns();
-
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    var exp = (float) Math.max(Math.min(Math.exp(input[k + j] * alpha), Float.MAX_VALUE / input.length / 2), -Float.MAX_VALUE / input.length / 2);
-                    sum += exp;
-                    data[k + j] = exp;
-                }
-
-                sum = Math.max(Math.min(sum, Float.MAX_VALUE), -Float.MAX_VALUE);
-
-                if (sum == 0.0f) {
-                    Arrays.fill(data, 0.0f);
-                }
-
-                for (var j = 0; j < data.length; j++) {
-                    data[j] = (input[j] / sum) * (1 - input[j] / sum);
-                }
-            }
+            return diffBatch(matrix, output, Dropout.Mask.NONE);
+        }
 
-            return output;
+        @Override
+        public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            return softmaxDiff(matrix, output, alpha, (float) Math.exp(C), dropout);
         }
 
         @Override
@@ -434,62 +537,39 @@ public class Activation {
         }
 
         @Override
-        public MatrixF32 applyBatch(MatrixF32 matrix) {
-            final var data = matrix.getData();
-
-            for (var i = 0; i < matrix.getRows(); i++) {
-                var sum = 0.0f;
-                var k = i * matrix.getColumns();
-
-                var max = Ops.max(data, k, matrix.getColumns());
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
+            applyRows(matrix, row, rows, Dropout.Mask.NONE);
+        }
 
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    var exp = (float)Math.exp(data[k + j] - max);
-                    sum += exp;
-                    data[k + j] = exp;
-                }
+        @Override
+        public void applyRows(MatrixF32 matrix, int row, int rows, Dropout.Mask dropout) {
+            for (var i = row; i < row + rows; i++) {
+                final var start = (long) i * matrix.getStride();
+                var sum = expRow(matrix, start, 1.0f, maxRow(matrix, start), Float.MAX_VALUE);
 
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    data[k + j] /= sum;
-                }
+                scaleRow(matrix, start, 1.0f / sum, dropout, i);
             }
-
-            return matrix;
         }
 
         @Override
         public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output) {
-            final var data = output.getData();
-            final var input = matrix.getData();
-
-            for (var i = 0; i < matrix.getRows(); i++) {
-                var sum = 0.0f;
-                var k = i * matrix.getColumns();
-
-                for (var j = 0; j < matrix.getColumns(); j++) {
-                    var exp = (float) Math.max(Math.min(Math.exp(input[k + j] * alpha), Float.MAX_VALUE / input.length / 2), -Float.MAX_VALUE / input.length / 2);
-                    sum += exp;
-                    data[k + j] = exp;
-                }
-
-                sum = Math.max(Math.min(sum, Float.MAX_VALUE), -Float.MAX_VALUE);
-
-                if (sum == 0.0f) {
-                    Arrays.fill(data, 0.0f);
-                }
-
-                for (var j = 0; j < data.length; j++) {
-                    data[j] = (input[j] / sum) * (1 - input[j] / sum);
-                }
-            }
+            return diffBatch(matrix, output, Dropout.Mask.NONE);
+        }
 
-            return output;
+        @Override
+        public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            return softmaxDiff(matrix, output, alpha, 0.0f, dropout);
         }
 
         @Override
         public Loss.Interface suggestLoss() {
             return new Loss.CrossEntropyLoss();
         }
+
+        @Override
+        public boolean fusesWith(Loss.Interface loss) {
+            return loss instanceof Loss.CrossEntropyLoss;
+        }
     }
 
 
@@ -508,13 +588,33 @@ public class Activation {
         }
 
         @Override
-        public MatrixF32 applyBatch(MatrixF32 matrix) {
-            return matrix;
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
         }
 
         @Override
         public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output) {
-            Arrays.fill(output.getData(), 1f);
+            return diffBatch(matrix, output, Dropout.Mask.NONE);
+        }
+
+        @Override
+        public MatrixF32 diffBatch(MatrixF32 matrix, MatrixF32 output, Dropout.Mask dropout) {
+            final var species = Ops.species;
+            final var columns = output.getColumns();
+            final var bound = species.loopBound(columns);
+            final var one = FloatVector.broadcast(species, 1f);
+
+            for (var r = 0; r < output.getRows(); r++) {
+                final var start = (long) r * output.getStride();
+                var j = 0;
+
+                for (; j < bound; j += species.length()) {
+                    output.store(drop(one, dropout, r, j), start + j);
+                }
+
+                if (j < columns) {
+                    output.store(drop(one, dropout, r, j), start + j, species.indexInRange(j, columns));
+                }
+            }
 
             return output;
         }
@@ -524,4 +624,107 @@ public class Activation {
             return new Loss.HuberLoss();
         }
     }
+
+    /*
+     * Построчные ядра softmax вынесены в отдельные методы и обмениваются только скалярами, суммы и максимумы
+     * накапливаются в float: вектор, живущий через итерации или неинлайненный вызов, C2 упаковывает в кучу.
+     * Цикл один и с маской: отдельная копия тела для хвоста не укладывается в бюджет инлайнинга вызывающего
+     */
+
+    /**
+     * Обнуляет элементы x, выключенные дропаутом в строке row начиная со столбца column.
+     * Без дропаута ядра передают Dropout.Mask.NONE: условный выбор вектора C2 упаковывает в кучу
+     */
+    private static FloatVector drop(FloatVector x, Dropout.Mask dropout, int row, int column) {
+        return x.blend(0.0f, VectorMask.fromLong(Ops.species, dropout.word(row, column)));
+    }
+
+    private static float maxRow(MatrixF32 matrix, long start) {
+        final var species = Ops.species;
+        final var columns = matrix.getColumns();
+        var max = -Float.MAX_VALUE;
+
+        for (var j = 0; j < columns; j += species.length()) {
+            var mask = species.indexInRange(j, columns);
+            max = Math.max(max, matrix.load(species, start + j, mask).reduceLanes(VectorOperators.MAX, mask));
+        }
+
+        return max;
+    }
+
+    /**
+     * Заменяет строку на min(exp(alpha * x - shift), limit) и возвращает сумму строки
+     */
+    private static float expRow(MatrixF32 matrix, long start, float alpha, float shift, float limit) {
+        final var species = Ops.species;
+        final var columns = matrix.getColumns();
+        var sum = 0.0f;
+
+        for (var j = 0; j < columns; j += species.length()) {
+            var mask = species.indexInRange(j, columns);
+            var exp = Ops.exp(matrix.load(species, start + j, mask).mul(alpha).sub(shift)).min(limit);
+            sum += exp.reduceLanes(VectorOperators.ADD, mask);
+            matrix.store(exp, start + j, mask);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Сумма min(exp(alpha * x), limit) по строке без записи
+     */
+    private static float expSum(MatrixF32 matrix, long start, float alpha, float limit) {
+        final var species = Ops.species;
+        final var columns = matrix.getColumns();
+        var sum = 0.0f;
+
+        for (var j = 0; j < columns; j += species.length()) {
+            var mask = species.indexInRange(j, columns);
+            sum += Ops.exp(matrix.load(species, start + j, mask).mul(alpha)).min(limit).reduceLanes(VectorOperators.ADD, mask);
+        }
+
+        return sum;
+    }
+
+    private static void scaleRow(MatrixF32 matrix, long start, float scale, Dropout.Mask dropout, int row) {
+        final var species = Ops.species;
+        final var columns = matrix.getColumns();
+
+        for (var j = 0; j < columns; j += species.length()) {
+            var mask = species.indexInRange(j, columns);
+            matrix.store(drop(matrix.load(species, start + j, mask).mul(scale), dropout, row, j), start + j, mask);
+        }
+    }
+
+    /**
+     * Производная softmax-вариантов: p / s * (1 - p / s), s = init + сумма exp(alpha * p) по последней строке пакета.
+     * Прежняя построчная реализация на каждой строке перезаписывала весь выход, поэтому в силе оставалась только
+     * сумма последней строки, здесь она считается один раз
+     */
+    private static MatrixF32 softmaxDiff(MatrixF32 matrix, MatrixF32 output, float alpha, float init, Dropout.Mask dropout) {
+        if (matrix.getRows() == 0) {
+            return output;
+        }
+
+        final var last = (long) (matrix.getRows() - 1) * matrix.getStride();
+        final var sum = expSum(matrix, last, alpha, Float.MAX_VALUE / matrix.getSize() / 2);
+        final var scale = 1.0f / Math.min(init + sum, Float.MAX_VALUE);
+
+        for (var r = 0; r < matrix.getRows(); r++) {
+            softmaxDiffRow(matrix, (long) r * matrix.getStride(), output, (long) r * output.getStride(), scale, dropout, r);
+        }
+
+        return output;
+    }
+
+    private static void softmaxDiffRow(MatrixF32 matrix, long start, MatrixF32 output, long outputStart, float scale, Dropout.Mask dropout, int row) {
+        final var species = Ops.species;
+        final var columns = matrix.getColumns();
+
+        for (var j = 0; j < columns; j += species.length()) {
+            var mask = species.indexInRange(j, columns);
+            var p = matrix.load(species, start + j, mask).mul(scale);
+            output.store(drop(p.neg().add(1.0f).mul(p), dropout, row, j), outputStart + j, mask);
+        }
+    }
 }
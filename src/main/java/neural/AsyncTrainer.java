@@ -0,0 +1,146 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+import linear.VectorF32;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Асинхронное обучение без блокировок (Hogwild): потоки берут пакеты из общего счетчика, считают градиенты на своих
+ * буферах и сразу обновляют общие веса и смещения слоев. Одновременные записи в одни и те же веса не синхронизируются,
+ * часть обновлений теряется, зато потоки не ждут друг друга.
+ * Состояние оптимизатора либо свое у каждого потока, либо общее и разбито по слоям: экземпляр и блокировка на слой
+ */
+public class AsyncTrainer {
+
+    /**
+     * samples - число обработанных образцов, loss - средняя ошибка пакетов, errors - образцы с неверным ответом
+     */
+    public record Result(long samples, long nanos, float loss, long errors) {
+        public double samplesPerSecond() {
+            return samples * 1e9 / nanos;
+        }
+
+        public float errorRate() {
+            return (float) errors / samples;
+        }
+    }
+
+    private final FeedForwardNeuralNetwork network;
+    private final Worker[] workers;
+    private final AtomicLong step = new AtomicLong();
+
+    /**
+     * optimizer создает состояние оптимизатора: по экземпляру на поток или, при stripedState, на слой
+     */
+    public AsyncTrainer(FeedForwardNeuralNetwork network, Supplier<Optimizer.Interface> optimizer, int workers, boolean stripedState) {
+        this.network = network;
+        this.workers = new Worker[workers];
+
+        var shared = stripedState ? new Striped(optimizer, network.layers().length) : null;
+
+        for (var i = 0; i < workers; i++) {
+            this.workers[i] = new Worker(shared != null ? shared : optimizer.get());
+        }
+    }
+
+    /**
+     * Одна эпоха по строкам sensorData в заданном порядке, неполный последний пакет пропускается.
+     * Пакеты распределяются между потоками динамически, порядок их обработки не определен
+     */
+    public Result train(MatrixF32 sensorData, MatrixF32 target, int batchSize, float eta) {
+        if (sensorData.getColumns() != network.inputSize() || sensorData.getRows() != target.getRows()) {
+            throw new RuntimeException();
+        }
+
+        var batches = sensorData.getRows() / batchSize;
+        var next = new AtomicInteger();
+        var loss = new DoubleAdder();
+        var errors = new LongAdder();
+        var threads = new Thread[workers.length];
+        var start = System.nanoTime();
+
+        for (var i = 0; i < workers.length; i++) {
+            var worker = workers[i];
+            threads[i] = Thread.ofPlatform().start(() -> {
+                int batch;
+                while ((batch = next.getAndIncrement()) < batches) {
+                    var row = batch * batchSize;
+                    worker.train(sensorData.rows(row, batchSize), target.rows(row, batchSize), eta, loss, errors);
+                }
+            });
+        }
+
+        for (var thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        return new Result((long) batches * batchSize, System.nanoTime() - start, (float) (loss.sum() / Math.max(1, batches)), errors.sum());
+    }
+
+    private final class Worker {
+        private final Optimizer.Interface optimizer;
+        private FeedForwardNeuralNetwork.Shard shard;
+
+        private Worker(Optimizer.Interface optimizer) {
+            this.optimizer = optimizer;
+        }
+
+        private void train(MatrixF32 sensorData, MatrixF32 target, float eta, DoubleAdder loss, LongAdder errors) {
+            if (shard == null || shard.output().getRows() != sensorData.getRows()) {
+                shard = network.shard(sensorData.getRows());
+            }
+
+            shard.forward(sensorData, step.getAndIncrement());
+            loss.add(shard.backPropagation.gradients(shard.layers, shard.results, shard.masks, target));
+            errors.add(errors(shard.output(), target));
+            shard.backPropagation.update(optimizer, shard.layers, eta);
+        }
+    }
+
+    /**
+     * Общее состояние оптимизатора, разбитое по слоям. Потоки ждут друг друга, только обновляя один и тот же слой
+     */
+    private static final class Striped implements Optimizer.Interface {
+        private final Optimizer.Interface[] layers;
+
+        private Striped(Supplier<Optimizer.Interface> optimizer, int layers) {
+            this.layers = new Optimizer.Interface[layers];
+
+            for (var i = 0; i < layers; i++) {
+                this.layers[i] = optimizer.get();
+            }
+        }
+
+        @Override
+        public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale) {
+            var optimizer = layers[layer];
+
+            synchronized (optimizer) {
+                optimizer.apply(layer, weights, gradient, eta, l2, decay, scale);
+            }
+        }
+    }
+
+    private static int errors(MatrixF32 result, MatrixF32 target) {
+        var errors = 0;
+
+        for (var i = 0; i < result.getRows(); i++) {
+            if (Ops.argmax(result, i) != Ops.argmax(target, i)) {
+                errors++;
+            }
+        }
+
+        return errors;
+    }
+}
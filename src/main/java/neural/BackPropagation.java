@@ -2,6 +2,7 @@ package neural;
 
 import linear.MatrixF32;
 import linear.Ops;
+import linear.SparseMatrixF32;
 import linear.VectorF32;
 
 import java.util.Arrays;
@@ -9,95 +10,297 @@ import java.util.Arrays;
 final public class BackPropagation {
     private static class BpDataItem {
         protected final MatrixF32 diff;
+        protected final VectorF32 diffVector;
         protected final VectorF32 error;
         protected final MatrixF32 errorMatrix;
         protected final VectorF32 inputGradient;
+        protected final MatrixF32 gradientMatrix;
+        protected final MatrixF32 gradientMatrixTransposed;
         protected final MatrixF32 weightsGradient;
+        protected final MatrixF32 weightsGradientTransposed;
+        protected final VectorF32 weightsGradientVector;
+        protected final VectorF32 weightsVector;
+        protected final MatrixF32 weightsTransposed;
+        protected final VectorF32 biasGradient;
         protected int i;
 
-        protected BpDataItem(MatrixF32 diff, VectorF32 error, MatrixF32 errorMatrix, VectorF32 inputGradient, MatrixF32 weightsGradient, int i) {
+        protected BpDataItem(MatrixF32 diff, VectorF32 error, MatrixF32 errorMatrix, VectorF32 inputGradient, MatrixF32 weights, MatrixF32 weightsGradient, int i) {
             this.diff = diff;
+            this.diffVector = new VectorF32(diff.getData());
             this.error = error;
             this.errorMatrix = errorMatrix;
             this.inputGradient = inputGradient;
+            this.gradientMatrix = new MatrixF32(diff.getRows(), diff.getColumns(), inputGradient.getData());
+            this.gradientMatrixTransposed = gradientMatrix.transpose();
             this.weightsGradient = weightsGradient;
+            this.weightsGradientTransposed = weightsGradient != null ? weightsGradient.transpose() : null;
+            this.weightsGradientVector = weightsGradient != null ? weightsGradient.asVector() : null;
+            this.weightsVector = weights != null ? weights.asVector() : null;
+            this.weightsTransposed = weights != null ? weights.transpose() : null;
+            this.biasGradient = new VectorF32(diff.getColumns());
             this.i = i;
         }
     }
 
     private BpDataItem[] data;
+    private Layer[] dataLayers;
+
+    /**
+     * Вектор из единиц длины пакета для сумм по строкам
+     */
+    private VectorF32 ones;
+
+    private VectorF32 predicted;
+
+    /**
+     * Градиент выходного слоя посчитан как predicted - target, см. Activation.Interface.fusesWith
+     */
+    private boolean fused;
+
+    /**
+     * Маски слоев для обучения без дропаута
+     */
+    private Dropout.Mask[] noDropout;
+
+    /**
+     * Параллельные поэлементные произведения calculateGradients и их число умножений на шаг
+     */
+    private GradientsTask gradientsTask;
+    private long gradientsWork;
+
+    /**
+     * Разреженная копия входа пакета, null для плотного. Тогда градиент весов первого слоя считается как сумма
+     * строк градиента по ненулевым входам, в буфер sparseGradient, построчный по входам
+     */
+    private SparseMatrixF32 sparseInput;
+    private SparseMatrixF32 sparseInputTransposed;
+    private MatrixF32 sparseGradient;
+
+    /**
+     * Вход следующего apply или gradients в разреженном виде, см. FeedForwardNeuralNetwork.setSparseInput
+     */
+    void sparseInput(SparseMatrixF32 input) {
+        if (input != sparseInput) {
+            sparseInput = input;
+            sparseInputTransposed = input != null ? input.transpose() : null;
+        }
+    }
 
     public float apply(Optimizer.Interface optimizer, Layer[] layers, MatrixF32[] layerResults, MatrixF32 target, float eta) {
-        if (data == null || (data[0].diff.getRows() != layerResults[0].getRows())) {
-            initStaticMemory(layers, layerResults[0].getRows());
+        if (noDropout == null || noDropout.length != layers.length) {
+            noDropout = new Dropout.Mask[layers.length];
+            Arrays.fill(noDropout, Dropout.Mask.NONE);
         }
 
-        applyBackpropagation(layers, layerResults, target);
+        return apply(optimizer, layers, layerResults, noDropout, target, eta);
+    }
+
+    /**
+     * masks - маски дропаута слоев, с которыми считались layerResults
+     */
+    public float apply(Optimizer.Interface optimizer, Layer[] layers, MatrixF32[] layerResults, Dropout.Mask[] masks, MatrixF32 target, float eta) {
+        prepare(layers, layerResults);
+        applyBackpropagation(layers, layerResults, masks, target);
         calculateGradients();
         updateWeights(optimizer, layers, layerResults, eta);
-        updateBias(layers, layerResults, eta);
+        updateBias(layers, eta);
 
         return calculateTotalLoss(layers, layerResults);
     }
-    private void updateBias(Layer[] layers, MatrixF32[] layerResults, float eta) {
-        Arrays.stream(data).skip(1).forEach(bpItem -> updateLayerBias(layers, layerResults, bpItem, eta));
+
+    /**
+     * Первая половина apply для обучения по частям пакета: градиенты весов и смещений без L2 и без обновления слоев.
+     * Градиенты частей складываются через add, затем update обновляет слои один раз
+     */
+    public float gradients(Layer[] layers, MatrixF32[] layerResults, Dropout.Mask[] masks, MatrixF32 target) {
+        prepare(layers, layerResults);
+        applyBackpropagation(layers, layerResults, masks, target);
+        calculateGradients();
+
+        for (var i = 1; i < data.length; i++) {
+            var bpItem = data[i];
+            calculateWeightsGradient(bpItem, layerResults[i - 1]);
+            Ops.product(ones, bpItem.gradientMatrix, bpItem.biasGradient, 1.0f, 0.0f);
+        }
+
+        return calculateTotalLoss(layers, layerResults);
     }
 
-    private void updateLayerBias(Layer[] layers, MatrixF32[] layerResults, BpDataItem bpItem, float eta) {
-        var i = bpItem.i;
-        var layer = layers[i];
-        MatrixF32 inputResult = layerResults[i - 1];
-        var batchSize = inputResult.getRows();
-        MatrixF32 gradientMatrix = new MatrixF32(batchSize, layer.size, bpItem.inputGradient.getData());
-        float[] avgMatrix = new float[batchSize];
-        Arrays.fill(avgMatrix, 1f);
-        Ops.product(new VectorF32(avgMatrix), gradientMatrix, layer.bias, -eta * layer.lr, 1.0f);
+    /**
+     * Прибавляет градиенты other, посчитанные gradients для той же сети
+     */
+    public void add(BackPropagation other) {
+        for (var i = 1; i < data.length; i++) {
+            Ops.add(other.data[i].weightsGradient, data[i].weightsGradient, 1.0f);
+            Ops.add(other.data[i].biasGradient, data[i].biasGradient, 1.0f);
+        }
+    }
+
+    /**
+     * Обновляет слои по градиентам gradients (и add): L2, ограничение нормы и шаг оптимизатора, как в apply
+     */
+    public void update(Optimizer.Interface optimizer, Layer[] layers, float eta) {
+        for (var i = 1; i < data.length; i++) {
+            var bpItem = data[i];
+            var layer = layers[bpItem.i];
+
+            applyWeightsGradient(optimizer, layer, bpItem, eta);
+            Ops.add(bpItem.biasGradient, layer.bias, -eta * layer.lr);
+        }
+    }
+
+    private void prepare(Layer[] layers, MatrixF32[] layerResults) {
+        if (data == null || dataLayers != layers || (data[0].diff.getRows() != layerResults[0].getRows())) {
+            initStaticMemory(layers, layerResults[0].getRows());
+        }
+    }
+
+    private void updateBias(Layer[] layers, float eta) {
+        for (var i = 1; i < data.length; i++) {
+            updateLayerBias(layers, data[i], eta);
+        }
+    }
+
+    private void updateLayerBias(Layer[] layers, BpDataItem bpItem, float eta) {
+        var layer = layers[bpItem.i];
+        Ops.product(ones, bpItem.gradientMatrix, layer.bias, -eta * layer.lr, 1.0f);
     }
 
     private float calculateTotalLoss(Layer[] layers, MatrixF32[] layerResults) {
         var m = data[layerResults.length - 1];
-        return layers[m.i].loss.apply(m.inputGradient, new VectorF32(layerResults[m.i].getData()));
+        var result = layerResults[m.i];
+
+        if (predicted == null || predicted.getData() != result.getData()) {
+            predicted = new VectorF32(result.getData());
+        }
+
+        return layers[m.i].loss.apply(m.inputGradient, predicted);
     }
 
     private void updateWeights(Optimizer.Interface optimizer, Layer[] layers, MatrixF32[] layerResults, float eta) {
-        Arrays.stream(data).skip(1).forEach(bpItem -> updateLayerWeights(optimizer, layers, layerResults, eta, bpItem));
+        for (var i = 1; i < data.length; i++) {
+            updateLayerWeights(optimizer, layers, layerResults, eta, data[i]);
+        }
     }
 
     private void updateLayerWeights(Optimizer.Interface optimizer, Layer[] layers, MatrixF32[] layerResults, float eta, BpDataItem bpItem) {
         var i = bpItem.i;
         var layer = layers[i];
         MatrixF32 inputResult = layerResults[i - 1];
-        var batchSize = inputResult.getRows();
-        MatrixF32 gradientMatrix = new MatrixF32(batchSize, layer.size, bpItem.inputGradient.getData()).transpose();
 
-        if (layer.l2penalty > 0) {
-            System.arraycopy(layer.weights.getData(), 0, bpItem.weightsGradient.getData(), 0, layer.weights.getSize());
-        }
+        calculateWeightsGradient(bpItem, inputResult);
+
+        applyWeightsGradient(optimizer, layer, bpItem, eta);
+    }
 
-        Ops.product(gradientMatrix, inputResult, bpItem.weightsGradient, 1.0f, layer.l2penalty);
+    private void calculateWeightsGradient(BpDataItem bpItem, MatrixF32 inputResult) {
+        if (bpItem.i != 1 || sparseInput == null) {
+            Ops.product(bpItem.gradientMatrixTransposed, inputResult, bpItem.weightsGradientTransposed, 1.0f, 0.0f);
 
-        var norm = 0.0f;
-        for (float v : bpItem.weightsGradient.getData()) {
-            norm += v * v;
+            return;
         }
 
-        norm = (float)Math.sqrt(norm);
+        var weightsGradient = bpItem.weightsGradient;
 
-        float normMax = 100f;
-        if (norm > normMax) {
-            Ops.product(bpItem.weightsGradient, normMax / norm);
+        if (!weightsGradient.isTransposed()) {
+            Ops.product(sparseInputTransposed, bpItem.gradientMatrix, weightsGradient);
+
+            return;
+        }
+
+        if (sparseGradient == null || sparseGradient.getRows() != weightsGradient.getRows() || sparseGradient.getColumns() != weightsGradient.getColumns()) {
+            sparseGradient = new MatrixF32(weightsGradient.getRows(), weightsGradient.getColumns());
         }
 
-        optimizer.apply(i, layer.weights.asVector(), bpItem.weightsGradient.asVector(), eta * layer.dropout.getRate() * layer.lr);
+        Ops.product(sparseInputTransposed, bpItem.gradientMatrix, sparseGradient);
+        Ops.copyTransposed(sparseGradient, weightsGradient);
+    }
+
+    /**
+     * L2 и ограничение нормы применяет сам оптимизатор в своем проходе, градиент не копируется и не масштабируется.
+     * Шаг по градиенту умножается на коэффициент дропаута, затухание - только на eta * lr
+     */
+    private void applyWeightsGradient(Optimizer.Interface optimizer, Layer layer, BpDataItem bpItem, float eta) {
+        var scale = Optimizer.clipScale(bpItem.weightsVector, bpItem.weightsGradientVector, layer.l2penalty);
+        var rate = layer.dropout.getRate();
+
+        optimizer.apply(bpItem.i, bpItem.weightsVector, bpItem.weightsGradientVector, eta * rate * layer.lr,
+                layer.l2penalty, layer.weightDecay / rate, scale);
     }
 
+    /**
+     * Поэлементные произведения ошибки на производную слоев. Крупные слои считаются параллельно
+     * в пуле Ops задачами, созданными вместе с буферами
+     */
     private void calculateGradients() {
-        Arrays.stream(data).skip(1).parallel().forEach(mem -> {
-            Ops.multipleElements(mem.error, new VectorF32(mem.diff.getData()), mem.inputGradient, 1.0f, 0.0f);
-        });
+        var last = fused ? data.length - 1 : data.length;
+
+        if (last > 2 && Ops.isParallel(gradientsWork)) {
+            gradientsTask.last = last;
+            Ops.invoke(gradientsTask);
+
+            return;
+        }
+
+        for (var i = 1; i < last; i++) {
+            calculateGradient(data[i]);
+        }
+    }
+
+    private static void calculateGradient(BpDataItem mem) {
+        Ops.multipleElements(mem.error, mem.diffVector, mem.inputGradient, 1.0f, 0.0f);
     }
 
-    private void applyBackpropagation(Layer[] layers, MatrixF32[] layerResults, MatrixF32 target) {
+    /**
+     * Слои [from, to) делятся пополам до одного слоя. Дерево задач строится один раз, на шаге только
+     * переинициализируется, так что параллельный шаг тоже не выделяет памяти
+     */
+    @SuppressWarnings("serial")
+    private final class GradientsTask extends Ops.Task {
+        private final int from;
+        private final int to;
+        private final GradientsTask left;
+        private final GradientsTask right;
+        /**
+         * Граница слоев шага, у корня задается перед запуском: при совмещенном градиенте выходной слой пропускается
+         */
+        private int last;
+
+        private GradientsTask(int from, int to) {
+            this(null, from, to);
+        }
+
+        private GradientsTask(GradientsTask parent, int from, int to) {
+            super(parent);
+            this.from = from;
+            this.to = to;
+
+            var middle = (from + to) >>> 1;
+            this.left = to - from > 1 ? new GradientsTask(this, from, middle) : null;
+            this.right = to - from > 1 ? new GradientsTask(this, middle, to) : null;
+        }
+
+        @Override
+        public void compute() {
+            if (from >= last || left == null) {
+                if (from < last) {
+                    calculateGradient(data[from]);
+                }
+
+                tryComplete();
+
+                return;
+            }
+
+            left.reinitialize();
+            right.reinitialize();
+            left.last = last;
+            right.last = last;
+            forkAll(left, right);
+        }
+    }
+
+    private void applyBackpropagation(Layer[] layers, MatrixF32[] layerResults, Dropout.Mask[] masks, MatrixF32 target) {
         int outLayerId = layerResults.length - 1;
         var result = layerResults[outLayerId];
         var outputLayer = layers[outLayerId];
@@ -105,28 +308,50 @@ final public class BackPropagation {
         var outMemory = data[outLayerId];
 
         outMemory.i = data.length - 1;
-        outputLayer.activation.diffBatch(result, outMemory.diff);
-        outputLayer.dropout.apply(outMemory.diff, outputLayer.dropoutIndexes);
+        fused = outputLayer.activation.fusesWith(outputLayer.loss);
 
-        System.arraycopy(result.getData(), 0, outMemory.error.getData(), 0, target.getData().length);
-        Ops.add(target.getData(), outMemory.error.getData(), -1.0f);
+        // Для softmax с перекрестной энтропией ошибка сразу является градиентом, diff и поэлементное
+        // произведение не нужны
+        if (fused) {
+            Ops.sub(result, target, outMemory.gradientMatrix);
+
+            if (masks[outLayerId] != Dropout.Mask.NONE) {
+                masks[outLayerId].apply(outMemory.gradientMatrix, 0, outMemory.gradientMatrix.getRows());
+            }
+        } else {
+            outputLayer.activation.diffBatch(result, outMemory.diff, masks[outLayerId]);
+
+            Ops.copy(result, outMemory.errorMatrix);
+            Ops.add(target, outMemory.errorMatrix, -1.0f);
+        }
 
         for (var i = layers.length - 2; i > 0; i--) {
             var layer = layers[i];
             var mem = data[i];
+            var next = data[i + 1];
 
             mem.i = i;
-            layer.activation.diffBatch(layerResults[i], mem.diff);
-            layer.dropout.apply(mem.diff, layer.dropoutIndexes);
-            Ops.product(data[i + 1].errorMatrix, layers[i + 1].weights.transpose(), mem.errorMatrix, 1.0f, 0.0f).getData();
+            layer.activation.diffBatch(layerResults[i], mem.diff, masks[i]);
+            Ops.product(fused && i + 1 == outLayerId ? next.gradientMatrix : next.errorMatrix, next.weightsTransposed, mem.errorMatrix, 1.0f, 0.0f);
         }
     }
 
     private void initStaticMemory(Layer[] layers, int batchSize) {
         data = new BpDataItem[layers.length];
+        dataLayers = layers;
         for (var i = 0; i < layers.length; i++) {
             initLayerStaticMemory(i, layers[i], batchSize);
         }
+
+        var ones = new float[batchSize];
+        Arrays.fill(ones, 1f);
+        this.ones = new VectorF32(ones);
+
+        gradientsTask = new GradientsTask(1, layers.length);
+        gradientsWork = 0;
+        for (var i = 1; i < layers.length; i++) {
+            gradientsWork += (long) layers[i].size * batchSize;
+        }
     }
 
     private void initLayerStaticMemory(int i, Layer layer, int batchSize) {
@@ -137,8 +362,9 @@ final public class BackPropagation {
             new VectorF32(err),
             new MatrixF32(batchSize, layer.size, err),
             new VectorF32(new float[size]),
-            layer.weights != null ? new MatrixF32(layer.weights.getRows(), layer.weights.getColumns()) : null,
-            0
+            layer.weights,
+            layer.weights != null ? MatrixF32.allocateLike(layer.weights) : null,
+            i
         );
     }
 }
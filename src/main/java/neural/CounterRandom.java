@@ -0,0 +1,43 @@
+package neural;
+
+/**
+ * Счетчиковый генератор на основе SplitMix64: значение - чистая функция ключа и номера элемента.
+ * Общего состояния нет, поэтому маски dropout можно строить из любого потока, и они не зависят от порядка вызовов
+ */
+public final class CounterRandom {
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+    private CounterRandom() {}
+
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Ключ потока случайных чисел для шага обучения step и слоя layer
+     */
+    public static long key(long seed, long step, int layer) {
+        return mix(mix(seed + step * GOLDEN) + layer * GOLDEN);
+    }
+
+    public static long next(long key, long element) {
+        return mix(key + (element + 1) * GOLDEN);
+    }
+
+    /**
+     * Равномерно в [0, bound)
+     */
+    public static int nextInt(long key, long element, int bound) {
+        return (int) (((next(key, element) >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Равномерно в [0, 1)
+     */
+    public static float nextFloat(long key, long element) {
+        return (next(key, element) >>> 40) * 0x1.0p-24f;
+    }
+}
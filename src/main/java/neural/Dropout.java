@@ -1,141 +1,136 @@
 package neural;
 
 import linear.MatrixF32;
-import linear.VectorF32;
 
-import java.util.Arrays;
 import java.util.Random;
-import java.util.function.BiConsumer;
-import java.util.stream.IntStream;
 
+/**
+ * Выключаемые нейроны задаются битовой маской, биты строятся счетчиковым генератором по ключу
+ * (seed, step, layer, element), без общего пула и курсора
+ */
 public class Dropout {
     public interface Interface {
-        int[] init(int size);
-        void apply(VectorF32 result, int[] indexes);
-        void apply(MatrixF32 result, int[] indexes);
+        /**
+         * step - номер шага обучения, layer - номер слоя, rows x columns - размер результата слоя,
+         * row - номер его первой строки в пакете: маска части пакета совпадает с соответствующими строками маски всего пакета.
+         * mask - маска предыдущего шага, переиспользуется, если подходит по размеру
+         */
+        Mask init(long step, int layer, int row, int rows, int columns, Mask mask);
         float getRate();
     }
 
+    /**
+     * Каждый нейрон выключается независимо с вероятностью k
+     */
     public static class Zero implements Interface {
-        final protected Random random;
+        final protected long seed;
         public float k;
 
         public Zero(Random random, float k) {
-            this.random = random;
+            this.seed = random.nextLong();
             this.k = k;
         }
 
+        /**
+         * Одно значение генератора дает 4 розыгрыша по 16 бит
+         */
         @Override
-        public int[] init(int size) {
-            return getInts(size);
-        }
-
-        public void apply(VectorF32 result, int[] indexes) {
-            float[] resultData = result.getData();
-
-            for (var i :indexes) {
-                resultData[i] = 0.0f;
+        public Mask init(long step, int layer, int row, int rows, int columns, Mask mask) {
+            var result = mask != null && mask.fits(rows, columns) ? mask : new Mask(rows, columns);
+            var key = CounterRandom.key(seed, step, layer);
+            var threshold = (long) (k * 65536.0f + 0.5f);
+            var words = result.rowWords;
+            var tail = (columns & 63) == 0 ? -1L : (1L << (columns & 63)) - 1;
+
+            for (var r = 0; r < rows; r++) {
+                for (var w = 0; w < words; w++) {
+                    var index = ((long) (row + r) * words + w) << 4;
+                    var word = 0L;
+
+                    for (var b = 0; b < 64; b += 4) {
+                        var h = CounterRandom.next(key, index + (b >>> 2));
+
+                        for (var q = 0; q < 4; q++) {
+                            if (((h >>> (q << 4)) & 0xffff) < threshold) {
+                                word |= 1L << (b + q);
+                            }
+                        }
+                    }
+
+                    result.bits[r * words + w] = w == words - 1 ? word & tail : word;
+                }
             }
-        }
 
-        public void apply(MatrixF32 result, int[] indexes) {
-            float[] resultData = result.getData();
-
-            for (var i :indexes) {
-                resultData[i] = 0.0f;
-            }
+            return result;
         }
 
         public float getRate() {
             return (1.0f / (1 - k));
         }
-
-        protected int[] getInts(int size) {
-            if (size == 0) {
-                return new int[0];
-            }
-
-            return readIntsFromRandomPool(random, -(int) (size * Math.log(1 - k)), 0, size);
-        }
     }
 
-    public static class Rng extends Zero {
-        public Rng(Random random, float k) {
-            super(random, k);
+    /**
+     * Бит 1 - нейрон выключен. Каждая строка выровнена на 64 бита, поэтому маска вектора из
+     * species.length() соседних элементов строки всегда лежит в одном слове
+     */
+    public static final class Mask {
+        /**
+         * Пустая маска любого размера: ядра применяют ее вместо null без ветвления, все индексы попадают в одно нулевое слово
+         */
+        public static final Mask NONE = new Mask(0, 0, 31, new long[1]);
+
+        private final int rows;
+        private final int columns;
+        private final int rowWords;
+        private final int wordShift;
+        private final long[] bits;
+
+        public Mask(int rows, int columns) {
+            this(rows, columns, 6, new long[rows * ((columns + 63) >>> 6)]);
         }
 
-        public void apply(VectorF32 result, int[] indexes) {
-            var values = readIntsFromRandomPool(random, indexes.length);
-            float[] resultData = result.getData();
-
-            var scale = 1.0f / ((long)Integer.MAX_VALUE - (long)Integer.MIN_VALUE);
-
-            for (var i = 0; i < indexes.length; i++) {
-                var index = indexes[i];
-                if (index > resultData.length) {
-                    continue;
-                }
-                if (index > values.length) {
-                    continue;
-                }
-                resultData[index] = values[i] * scale + 0.5f;
-            }
+        private Mask(int rows, int columns, int wordShift, long[] bits) {
+            this.rows = rows;
+            this.columns = columns;
+            this.rowWords = (columns + 63) >>> 6;
+            this.wordShift = wordShift;
+            this.bits = bits;
         }
-    }
 
-    final private static int[] randomPool = new int[1048576 * 1024];
-    private static int randomPoolCursor = -1;
-
-    private static void parallel(BiConsumer<Integer, Integer> task) {
-        int cores = Runtime.getRuntime().availableProcessors();
-        IntStream.rangeClosed(0, cores).parallel().forEach(t -> task.accept(t, cores));
-    }
-
-    private static int[] readIntsFromRandomPool(Random random, int n, int min, int max) {
-        enshurePoolFullfilled(random, n);
-
-        var scale = (double)((long)Integer.MAX_VALUE - (long)Integer.MIN_VALUE);
-        var result = new int[n];
-        int range = max - min;
-
-        for (var i = 0; i < n; i++) {
-            var d = randomPool[i + randomPoolCursor - n];
-            result[i] = (int)((d / scale + 0.5) * range + min);
+        public boolean fits(int rows, int columns) {
+            return this.rows == rows && this.columns == columns;
         }
 
-        return result;
-    }
-
-    private static int[] readIntsFromRandomPool(Random random, int n) {
-        enshurePoolFullfilled(random, n);
-
-        return Arrays.copyOfRange(randomPool, randomPoolCursor - n, randomPoolCursor);
-    }
-
-    private static void enshurePoolFullfilled(Random random, int n) {
-        if (randomPoolCursor == -1) {
-            fulfillPool(random);
-
-            randomPoolCursor = 0;
+        public boolean isDropped(int row, int column) {
+            return (bits[row * rowWords + (column >>> wordShift)] >>> (column & 63) & 1) != 0;
         }
-        if (randomPoolCursor + n >= randomPool.length) {
 
-            randomPoolCursor = 0;
+        /**
+         * Биты выключенных элементов строки row начиная со столбца column, младший бит - column.
+         * Для вектора из species.length() элементов column кратен species.length(), маску дает VectorMask.fromLong.
+         * Метод возвращает скаляр: VectorMask из отдельно скомпилированного метода C2 упаковывает в кучу
+         */
+        public long word(int row, int column) {
+            return bits[row * rowWords + (column >>> wordShift)] >>> (column & 63);
         }
 
-        randomPoolCursor += n;
-    }
-
-    private static void fulfillPool(Random random) {
-        parallel((t, cores) -> {
-            var r = new Random(random.nextInt());
-            var batch = Math.ceil((double) randomPool.length / cores);
-            var start = (int)(t * batch);
-            var end = (int)Math.min(randomPool.length, start + batch);
-
-            for (var i = start; i < end; i++) {
-                randomPool[i] = r.nextInt();
+        /**
+         * Обнуляет выключенные элементы строк [row, row + count) по установленным битам, без прохода по остальным.
+         * Активации и BackPropagation применяют маску внутри своих ядер, этот метод нужен остальным
+         */
+        public void apply(MatrixF32 matrix, int row, int count) {
+            for (var r = row; r < row + count; r++) {
+                final var start = (long) r * matrix.getStride();
+
+                for (var w = 0; w < rowWords; w++) {
+                    var word = bits[r * rowWords + w];
+
+                    while (word != 0) {
+                        matrix.set(start + ((long) w << 6) + Long.numberOfTrailingZeros(word), 0.0f);
+                        word &= word - 1;
+                    }
+                }
             }
-        });
+        }
     }
 }
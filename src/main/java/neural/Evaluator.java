@@ -0,0 +1,155 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Оценка сети на выборке частями по chunk строк: потоки берут части из общего счетчика, считают прямой проход
+ * в свои буферы размером с часть (а не со всю выборку) и сравнивают argmax строк выхода с метками.
+ * Ошибки и матрица ошибок копятся по потокам и складываются в конце, на образец ничего не выделяется
+ */
+public class Evaluator {
+    /**
+     * Строк в части по умолчанию: результаты слоев части остаются в кэше
+     */
+    public static final int CHUNK = 256;
+
+    /**
+     * confusion[actual * classes + predicted] - число образцов с меткой actual и ответом predicted
+     */
+    public record Result(int classes, long[] confusion) {
+        public long samples() {
+            var result = 0L;
+
+            for (var count : confusion) {
+                result += count;
+            }
+
+            return result;
+        }
+
+        public long errors() {
+            var result = samples();
+
+            for (var i = 0; i < classes; i++) {
+                result -= confusion[i * classes + i];
+            }
+
+            return result;
+        }
+
+        public float errorRate() {
+            return (float) errors() / samples();
+        }
+
+        public long count(int actual, int predicted) {
+            return confusion[actual * classes + predicted];
+        }
+    }
+
+    private final FeedForwardNeuralNetwork network;
+    private final int chunk;
+    private final int workers;
+    private Layer[] layers;
+    private MatrixF32[][] results;
+
+    public Evaluator(FeedForwardNeuralNetwork network) {
+        this(network, CHUNK, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Evaluator(FeedForwardNeuralNetwork network, int chunk, int workers) {
+        this.network = network;
+        this.chunk = chunk;
+        this.workers = workers;
+    }
+
+    /**
+     * labels[i] - номер класса строки i из samples
+     */
+    public Result evaluate(MatrixF32 samples, byte[] labels) {
+        if (samples.getRows() != labels.length || samples.getColumns() != network.inputSize()) {
+            throw new IllegalArgumentException();
+        }
+
+        prepare();
+
+        var classes = layers[layers.length - 1].size;
+        var chunks = (labels.length + chunk - 1) / chunk;
+        var next = new AtomicInteger();
+        var confusion = new long[workers][classes * classes];
+
+        NeuralAlgo.parallel((t, n) -> {
+            var buffers = results[t];
+            var local = confusion[t];
+            int c;
+
+            while ((c = next.getAndIncrement()) < chunks) {
+                var row = c * chunk;
+                var rows = Math.min(chunk, labels.length - row);
+
+                if (rows != chunk) {
+                    buffers = tail(buffers, rows);
+                }
+
+                var output = FeedForwardNeuralNetwork.eval(samples.rows(row, rows), layers, buffers);
+
+                for (var i = 0; i < rows; i++) {
+                    local[labels[row + i] * classes + Ops.argmax(output, i)]++;
+                }
+            }
+        }, workers);
+
+        var result = new long[classes * classes];
+
+        for (var local : confusion) {
+            for (var i = 0; i < result.length; i++) {
+                result[i] += local[i];
+            }
+        }
+
+        return new Result(classes, result);
+    }
+
+    /**
+     * Буферы частей на поток, пересоздаются при изменении слоев сети
+     */
+    private void prepare() {
+        var current = network.layers();
+
+        if (layers != null && layers.length == current.length) {
+            var same = true;
+
+            for (var i = 0; i < current.length; i++) {
+                same &= layers[i] == current[i];
+            }
+
+            if (same) {
+                return;
+            }
+        }
+
+        layers = current;
+        results = new MatrixF32[workers][layers.length];
+
+        for (var t = 0; t < workers; t++) {
+            for (var i = 1; i < layers.length; i++) {
+                results[t][i] = new MatrixF32(chunk, layers[i].size);
+            }
+        }
+    }
+
+    /**
+     * Представления первых rows строк буферов для последней неполной части
+     */
+    private static MatrixF32[] tail(MatrixF32[] buffers, int rows) {
+        var result = new MatrixF32[buffers.length];
+
+        for (var i = 1; i < buffers.length; i++) {
+            result[i] = buffers[i].rows(0, rows);
+        }
+
+        return result;
+    }
+}
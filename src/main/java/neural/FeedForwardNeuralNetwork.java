@@ -2,11 +2,11 @@ package neural;
 
 import linear.MatrixF32;
 import linear.Ops;
-import linear.VectorF32;
+import linear.SparseMatrixF32;
 
 import java.io.PrintStream;
+import java.lang.foreign.Arena;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -19,21 +19,43 @@ public class FeedForwardNeuralNetwork {
     private Layer outputLayer;
     private final Random random;
     private final Optimizer.Interface optimizer;
-    private final BackPropagation backPropagation = new BackPropagation();
+    private final Arena arena;
+    private Workspace workspace;
+    /**
+     * Номер шага обучения, ключ масок дропаута
+     */
+    private long step;
+    /**
+     * Число частей пакета для параллельного обучения, по умолчанию -Dneural.shards, см. setShards
+     */
+    private int shards = Integer.getInteger("neural.shards", 1);
+    /**
+     * Порог доли ненулевых входов для разреженного первого слоя, по умолчанию -Dneural.sparseInput, см. setSparseInput
+     */
+    private float sparseInput = Float.parseFloat(System.getProperty("neural.sparseInput", "0.3"));
 
     public FeedForwardNeuralNetwork(Random random, Optimizer.Interface optimizer) {
+        this(random, optimizer, null);
+    }
+
+    /**
+     * Веса слоев, их градиенты и состояние оптимизатора размещаются вне кучи в arena.
+     * Время жизни arena должно покрывать время жизни сети
+     */
+    public FeedForwardNeuralNetwork(Random random, Optimizer.Interface optimizer, Arena arena) {
         this.random = random;
         this.optimizer = optimizer;
+        this.arena = arena;
     }
 
-    public int volume() {
-        var v = 0;
+    public long volume() {
+        var v = 0L;
 
         for (var layer : hiddenLayers) {
-            v += layer.weights.getData().length;
+            v += layer.weights.getLongSize();
         }
 
-        return v + outputLayer.weights.getData().length;
+        return v + outputLayer.weights.getLongSize();
     }
 
     public void dumpLayersStat(PrintStream out) {
@@ -54,22 +76,24 @@ public class FeedForwardNeuralNetwork {
             var histogram = new int[10];
             var histogramLegend = new double[10];
 
-            for (var w : layer.weights.getData()) {
+            for (var i = 0L; i < layer.weights.getLongSize(); i++) {
+                var w = layer.weights.get(i);
                 min = Math.min(min, w);
                 max = Math.max(max, w);
-                mean += w / (double)layer.weights.getSize();
+                mean += w / (double)layer.weights.getLongSize();
                 disp += w * w;
             }
 
             var histStep = (max - min) / histogram.length;
 
-            for (var w : layer.weights.getData()) {
+            for (var i = 0L; i < layer.weights.getLongSize(); i++) {
+                var w = layer.weights.get(i);
                 var v = Math.min(histogram.length - 1, (int)Math.floor((w - min) / histStep));
                 histogram[v]++;
                 histogramLegend[v] = histStep * v + min;
             }
 
-            out.println("\t w: k=" + layer.weights.getSize() + "\tmin: " + min + "\t max: " + max + "\tmean: " + mean + "\tstddev: " + Math.sqrt(disp));
+            out.println("\t w: k=" + layer.weights.getLongSize() + "\tmin: " + min + "\t max: " + max + "\tmean: " + mean + "\tstddev: " + Math.sqrt(disp));
 
             out.print("\t");
 
@@ -103,9 +127,12 @@ public class FeedForwardNeuralNetwork {
 
         var previousLayer = outputLayer != null ? outputLayer : inputLayer;
 
-        var layer = new Layer(this, size, new MatrixF32(previousLayer.size, size, new float[previousLayer.size * size], true));
+        var weights = arena != null
+                ? MatrixF32.allocate(arena, previousLayer.size, size, true)
+                : new MatrixF32(previousLayer.size, size, new float[previousLayer.size * size], true);
+        var layer = new Layer(this, size, weights);
 
-        generateWeights(layer.weights.getData(), random, size);
+        generateWeights(layer.weights, random, size);
 
         if (outputLayer != null) {
             hiddenLayers.add(outputLayer);
@@ -122,10 +149,10 @@ public class FeedForwardNeuralNetwork {
         return addLayer(size).set(activation);
     }
 
-    private void generateWeights(float[] layer, Random random, int size) {
-        for (var i = 0; i < layer.length; i++) {
+    private void generateWeights(MatrixF32 layer, Random random, int size) {
+        for (var i = 0L; i < layer.getLongSize(); i++) {
             var v = (float)Math.sqrt(size);
-            layer[i] = random.nextFloat(-0.5f / v, 0.5f / v);
+            layer.set(i, random.nextFloat(-0.5f / v, 0.5f / v));
 //            layer[i] = (float)random.nextGaussian(0.0f, 1f / v);
         }
     }
@@ -135,71 +162,441 @@ public class FeedForwardNeuralNetwork {
             throw new RuntimeException();
         }
 
-        var result = new MatrixF32(sensorData.length / inputLayer.size, inputLayer.size, sensorData);
+        return eval(new MatrixF32(sensorData.length / inputLayer.size, inputLayer.size, sensorData)).getData();
+    }
+
+    /**
+     * Вход может быть представлением (например, окном строк общего массива образцов), он не изменяется
+     */
+    public MatrixF32 eval(MatrixF32 sensorData) {
+        if (sensorData.getColumns() != inputLayer.size) {
+            throw new RuntimeException();
+        }
+
+        var result = sensorData;
 
         for (var layer : hiddenLayers) {
             result = evalLayer(result, layer);
         }
 
-        result = evalLayer(result, outputLayer);
-
-        return result.getData();
+        return evalLayer(result, outputLayer);
     }
 
+    /**
+     * Возвращаемый массив принадлежит сети и перезаписывается следующим вызовом train
+     */
     public float[] train(float[] sensorData, float[] target, float eta) {
         if ((sensorData.length % inputLayer.size) != 0) {
             throw new RuntimeException();
         }
 
-        var layerInput = new MatrixF32(sensorData.length / inputLayer.size, inputLayer.size, sensorData.clone());
+        var workspace = workspace(sensorData.length / inputLayer.size);
+
+        return train(workspace.wrapSensorData(sensorData), workspace.wrapTarget(target), eta).getData();
+    }
+
+    /**
+     * sensorData и target могут быть представлениями, они не изменяются.
+     * Буферы шага выделяются один раз на размер пакета, результат перезаписывается следующим вызовом train
+     */
+    public MatrixF32 train(MatrixF32 sensorData, MatrixF32 target, float eta) {
+        if (sensorData.getColumns() != inputLayer.size) {
+            throw new RuntimeException();
+        }
+
+        var workspace = workspace(sensorData.getRows());
+        var layers = workspace.layers;
+        var shards = workspace.shards;
+        var step = this.step++;
+
+        if (shards.length == 1) {
+            var shard = shards[0];
+            shard.forward(sensorData, step);
+            shard.backPropagation.apply(optimizer, layers, shard.results, shard.masks, target, eta);
+
+            return shard.output();
+        }
+
+        workspace.sensorData = sensorData;
+        workspace.target = target;
+        workspace.step = step;
+        Ops.invoke(workspace.task);
+
+        shards[0].backPropagation.update(optimizer, layers, eta);
+
+        for (var shard : shards) {
+            Ops.copy(shard.output(), shard.outputRows);
+        }
+
+        return workspace.output;
+    }
+
+    /**
+     * Обучение по частям пакета: прямой проход и градиенты shards частей считаются параллельно в пуле Ops
+     * со своими буферами, градиенты складываются деревом, слои обновляются оптимизатором один раз за шаг.
+     * Маски дропаута зависят от номера строки в пакете, а не от части, поэтому шаг совпадает с обучением
+     * в одном потоке с точностью до порядка суммирования. 1 - весь пакет в вызывающем потоке
+     */
+    public FeedForwardNeuralNetwork setShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.shards = shards;
+
+        return this;
+    }
 
-        inputLayer.dropoutIndexes = inputLayer.dropout.init(layerInput.getSize());
-        inputLayer.dropout.apply(layerInput, inputLayer.dropoutIndexes);
+    /**
+     * Пакеты входов с долей ненулевых элементов меньше density (у MNIST около 0,19) обучаются через разреженный
+     * первый слой: вход сжимается в CSR, и в прямом проходе, и в градиенте весов нулевые входы не умножаются.
+     * 0 - всегда плотно
+     */
+    public FeedForwardNeuralNetwork setSparseInput(float density) {
+        this.sparseInput = density;
 
-        var layerResult = new MatrixF32[hiddenLayers.size() + 2];
+        return this;
+    }
+
+    /**
+     * Неизменяемая копия текущих весов для вывода, безопасная для одновременных вызовов из многих потоков.
+     * В отличие от eval не выделяет буферы на вызов и не зависит от дальнейшего обучения сети
+     */
+    public InferenceModel compile() {
+        return new InferenceModel(layers());
+    }
+
+    /**
+     * Прямой проход без дропаута в буферы results[i] (строки слоя layers[i]) без выделения памяти
+     */
+    static MatrixF32 eval(MatrixF32 sensorData, Layer[] layers, MatrixF32[] results) {
+        var result = sensorData;
+
+        for (var i = 1; i < layers.length; i++) {
+            result = evalLayer(result, layers[i], results[i]);
+        }
+
+        return result;
+    }
+
+    private static MatrixF32 evalLayer(MatrixF32 input, Layer layer) {
+        return evalLayer(input, layer, new MatrixF32(input.getRows(), layer.size));
+    }
+
+    private static MatrixF32 evalLayer(MatrixF32 input, Layer layer, MatrixF32 result) {
+        return Ops.product(input, layer.weights, layer.bias, result, layer.activation);
+    }
+
+    private static Dropout.Mask initDropout(Layer layer, long step, int id, int row, MatrixF32 result, Dropout.Mask mask) {
+        if (layer.dropout.getRate() == 1.0f) {
+            return Dropout.Mask.NONE;
+        }
+
+        return layer.dropout.init(step, id, row, result.getRows(), result.getColumns(), mask);
+    }
+
+    /**
+     * Эпилог прямого прохода с маской дропаута. Один объект на часть пакета, поля меняются перед каждым слоем
+     */
+    private static final class MaskedActivation implements Ops.Epilogue {
+        private Activation.Interface activation;
+        private Dropout.Mask dropout;
+
+        @Override
+        public void applyRows(MatrixF32 matrix, int row, int rows) {
+            activation.applyRows(matrix, row, rows, dropout);
+        }
+    }
+
+    /**
+     * Слои от входного до выходного
+     */
+    Layer[] layers() {
         var layers = new Layer[hiddenLayers.size() + 2];
 
-        layerResult[0] = layerInput;
         layers[0] = inputLayer;
+        for (var i = 0; i < hiddenLayers.size(); i++) {
+            layers[i + 1] = hiddenLayers.get(i);
+        }
+        layers[layers.length - 1] = outputLayer;
+
+        return layers;
+    }
+
+    /**
+     * Буферы прямого и обратного прохода пакета из rows строк, не связанные с train. Для обучения в своих потоках
+     */
+    Shard shard(int rows) {
+        return new Shard(layers(), 0, rows, new InputWeights());
+    }
+
+    private Workspace workspace(int batchSize) {
+        if (workspace == null || workspace.batchSize != batchSize || workspace.layers.length != hiddenLayers.size() + 2
+                || workspace.shards.length != Math.min(shards, batchSize)) {
+            workspace = new Workspace(batchSize);
+        }
+
+        return workspace;
+    }
+
+    /**
+     * Буферы шага обучения для одного размера пакета и топологии сети
+     */
+    private final class Workspace {
+        private final int batchSize;
+        private final Layer[] layers = layers();
+        private final Shard[] shards;
+        /**
+         * Переложенные веса первого слоя, общие для всех частей пакета
+         */
+        private final InputWeights inputWeights = new InputWeights();
+        /**
+         * Результат пакета, собранный из частей, только для shards.length > 1
+         */
+        private final MatrixF32 output;
+        /**
+         * Части пакета параллельно, только для shards.length > 1. Вход задачи - поля sensorData, target и step
+         */
+        private final ShardTask task;
+        private MatrixF32 sensorData;
+        private MatrixF32 target;
+        private long step;
+        private float[] sensorArray;
+        private MatrixF32 sensorMatrix;
+        private float[] targetArray;
+        private MatrixF32 targetMatrix;
+
+        private Workspace(int batchSize) {
+            this.batchSize = batchSize;
+
+            shards = new Shard[Math.min(FeedForwardNeuralNetwork.this.shards, batchSize)];
+            output = shards.length > 1 ? new MatrixF32(batchSize, outputLayer.size) : null;
+
+            for (var t = 0; t < shards.length; t++) {
+                var row = (int) ((long) batchSize * t / shards.length);
+                shards[t] = new Shard(layers, row, (int) ((long) batchSize * (t + 1) / shards.length) - row, inputWeights);
+
+                if (output != null) {
+                    shards[t].outputRows = output.rows(shards[t].row, shards[t].rows);
+                }
+            }
+
+            task = shards.length > 1 ? new ShardTask(null, this, 0, shards.length) : null;
+        }
 
-        for (int i = 0; i < hiddenLayers.size(); i++) {
-            Layer layer = hiddenLayers.get(i);
+        private MatrixF32 wrapSensorData(float[] data) {
+            if (sensorArray != data) {
+                sensorArray = data;
+                sensorMatrix = new MatrixF32(batchSize, inputLayer.size, data);
+            }
+
+            return sensorMatrix;
+        }
 
-            layerInput = evalLayer(layerInput, layer);
-            layer.dropoutIndexes = layer.dropout.init(layer.size);
-            layer.dropout.apply(layerInput, layer.dropoutIndexes);
+        private MatrixF32 wrapTarget(float[] data) {
+            if (targetArray != data) {
+                targetArray = data;
+                targetMatrix = new MatrixF32(batchSize, outputLayer.size, data);
+            }
+
+            return targetMatrix;
+        }
+    }
 
-            layerResult[i + 1] = layerInput;
-            layers[i + 1] = layer;
+    /**
+     * Части [from, to) делятся на левую с числом частей - наибольшей степенью двойки, меньшей to - from, и правую.
+     * Лист - прямой проход и градиенты части, узел после обеих половин прибавляет градиенты правой к левой, так что
+     * градиенты складываются деревом в том же порядке, что по уровням. Дерево задач строится вместе с буферами,
+     * шаг не выделяет памяти
+     */
+    @SuppressWarnings("serial")
+    private static final class ShardTask extends Ops.Task {
+        private final Workspace workspace;
+        private final int from;
+        private final int middle;
+        private final ShardTask left;
+        private final ShardTask right;
+
+        private ShardTask(ShardTask parent, Workspace workspace, int from, int to) {
+            super(parent);
+            this.workspace = workspace;
+            this.from = from;
+            this.middle = to - from > 1 ? from + Integer.highestOneBit(to - from - 1) : to;
+            this.left = to - from > 1 ? new ShardTask(this, workspace, from, middle) : null;
+            this.right = to - from > 1 ? new ShardTask(this, workspace, middle, to) : null;
         }
-        var result = evalLayer(layerInput, outputLayer);
-        outputLayer.dropoutIndexes = outputLayer.dropout.init(result.getSize());
-        outputLayer.dropout.apply(result, outputLayer.dropoutIndexes);
 
-        layerResult[hiddenLayers.size() + 1] = result;
-        layers[hiddenLayers.size() + 1] = outputLayer;
+        @Override
+        public void compute() {
+            if (left == null) {
+                var shard = workspace.shards[from];
+                shard.forward(shard.sensorRows(workspace.sensorData), workspace.step);
+                shard.backPropagation.gradients(workspace.layers, shard.results, shard.masks, shard.targetRows(workspace.target));
+                tryComplete();
 
-        backPropagation.apply(optimizer, layers, layerResult, new MatrixF32(layerInput.getRows(), outputLayer.size, target), eta);
-//
-//        if (new Random().nextFloat(0.0f, 1.0f) > 0.9f) {
-//            for (var i = hiddenLayers.size() - 1; i > 0; i--) {
-//                hiddenLayers.get(i).regularization.apply(hiddenLayers.get(i).weights, 1);
-//            }
-//            outputLayer.regularization.apply(outputLayer.weights, 1);
-//        }
+                return;
+            }
+
+            left.reinitialize();
+            right.reinitialize();
+            forkAll(left, right);
+        }
 
-        return result.getData();
+        @Override
+        protected void completed() {
+            if (left != null) {
+                var shards = workspace.shards;
+                shards[from].backPropagation.add(shards[middle].backPropagation);
+            }
+        }
     }
 
-    private static MatrixF32 evalLayer(MatrixF32 result, Layer layer) {
-        float[] I = new float[result.getRows()];
-        Arrays.fill(I, 1f);
+    /**
+     * Веса первого слоя, переложенные построчно по входам для разреженного прямого прохода: строка результата -
+     * сумма строк весов по ненулевым входам. Одна копия на шаг для всех частей пакета: первая разреженная часть
+     * шага перекладывает веса, остальные берут готовые
+     */
+    private static final class InputWeights {
+        private MatrixF32 weights;
+        private MatrixF32 relayout;
+        private long step;
+
+        private synchronized MatrixF32 get(MatrixF32 weights, long step) {
+            if (!weights.isTransposed()) {
+                return weights;
+            }
+
+            if (this.weights != weights || this.step != step) {
+                if (relayout == null || relayout.getRows() != weights.getRows() || relayout.getColumns() != weights.getColumns()) {
+                    relayout = new MatrixF32(weights.getRows(), weights.getColumns());
+                }
 
-        var r = Ops.product(result, layer.weights, 1.0f, 0.0f);
-        Ops.product(new VectorF32(I), layer.bias, r, 1f, 1f);
+                Ops.copyTransposed(weights, relayout);
+                this.weights = weights;
+                this.step = step;
+            }
 
-        r = layer.activation.applyBatch(r);
+            return relayout;
+        }
+    }
 
-        return r;
+    /**
+     * Строки [row, row + rows) пакета: результаты слоев, маски дропаута и BackPropagation части
+     */
+    final class Shard {
+        final Layer[] layers;
+        private final int row;
+        private final int rows;
+        final MatrixF32[] results;
+        final Dropout.Mask[] masks;
+        final BackPropagation backPropagation = new BackPropagation();
+        private final MaskedActivation maskedActivation = new MaskedActivation();
+        private MatrixF32 input;
+        /**
+         * Разреженный вход пакета для прямого прохода без умножений на нулевые пиксели, null, пока пакет плотный.
+         * Переложенные веса первого слоя общие с другими частями пакета
+         */
+        private SparseMatrixF32 sparseInput;
+        private final InputWeights inputWeights;
+        private long step;
+        /**
+         * Строки этой части во входе, ответах и собранном результате пакета. Представления входа и ответов
+         * пересоздаются, только когда train получает другую матрицу
+         */
+        private MatrixF32 sensorData;
+        private MatrixF32 sensorRows;
+        private MatrixF32 target;
+        private MatrixF32 targetRows;
+        private MatrixF32 outputRows;
+
+        private Shard(Layer[] layers, int row, int rows, InputWeights inputWeights) {
+            this.layers = layers;
+            this.row = row;
+            this.rows = rows;
+            this.inputWeights = inputWeights;
+            this.results = new MatrixF32[layers.length];
+            this.masks = new Dropout.Mask[layers.length];
+
+            for (var i = 1; i < layers.length; i++) {
+                results[i] = new MatrixF32(rows, layers[i].size);
+            }
+        }
+
+        /**
+         * sensorData - строки этой части пакета
+         */
+        void forward(MatrixF32 sensorData, long step) {
+            var layerInput = sensorData;
+            this.step = step;
+
+            // Вход копируется, только если дропаут его изменит
+            masks[0] = initDropout(layers[0], step, 0, row, sensorData, masks[0]);
+            if (masks[0] != Dropout.Mask.NONE) {
+                layerInput = input();
+                Ops.copy(sensorData, layerInput);
+                masks[0].apply(layerInput, 0, rows);
+            }
+
+            results[0] = layerInput;
+
+            var density = FeedForwardNeuralNetwork.this.sparseInput;
+            var sparse = density > 0 && Ops.nonZeros(layerInput) < (double) density * layerInput.getSize();
+            if (sparse) {
+                sparseInput = SparseMatrixF32.compress(layerInput, sparseInput);
+            }
+            backPropagation.sparseInput(sparse ? sparseInput : null);
+
+            // Маска слоя строится до его прямого прохода и применяется в эпилоге вместе с активацией
+            for (var i = 1; i < layers.length; i++) {
+                masks[i] = initDropout(layers[i], step, i, row, results[i], masks[i]);
+                layerInput = evalLayer(layerInput, layers[i], results[i], masks[i], sparse && i == 1);
+            }
+        }
+
+        private MatrixF32 evalLayer(MatrixF32 input, Layer layer, MatrixF32 result, Dropout.Mask dropout, boolean sparse) {
+            Ops.Epilogue epilogue = layer.activation;
+
+            if (dropout != Dropout.Mask.NONE) {
+                maskedActivation.activation = layer.activation;
+                maskedActivation.dropout = dropout;
+                epilogue = maskedActivation;
+            }
+
+            if (sparse) {
+                return Ops.product(sparseInput, inputWeights.get(layer.weights, step), layer.bias, result, epilogue);
+            }
+
+            return Ops.product(input, layer.weights, layer.bias, result, epilogue);
+        }
+
+        private MatrixF32 sensorRows(MatrixF32 sensorData) {
+            if (this.sensorData != sensorData) {
+                this.sensorData = sensorData;
+                sensorRows = sensorData.rows(row, rows);
+            }
+
+            return sensorRows;
+        }
+
+        private MatrixF32 targetRows(MatrixF32 target) {
+            if (this.target != target) {
+                this.target = target;
+                targetRows = target.rows(row, rows);
+            }
+
+            return targetRows;
+        }
+
+        private MatrixF32 input() {
+            if (input == null) {
+                input = new MatrixF32(rows, inputLayer.size);
+            }
+
+            return input;
+        }
+
+        MatrixF32 output() {
+            return results[results.length - 1];
+        }
     }
 }
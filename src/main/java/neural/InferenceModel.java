@@ -0,0 +1,254 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+import linear.VectorF32;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Неизменяемая копия сети для вывода (FeedForwardNeuralNetwork.compile): веса и смещения скопированы в непрерывные
+ * буферы, дропаута нет, размеры и активации слоев зафиксированы. Дальнейшее обучение сети модель не меняет.
+ * Один экземпляр можно вызывать из любого числа потоков без блокировок: буферы прямого прохода берутся на время
+ * вызова из пула и возвращаются в него, поэтому после прогрева вызов не выделяет памяти. Пул, а не ThreadLocal,
+ * чтобы число буферов зависело от числа одновременных вызовов, а не от числа потоков (в том числе виртуальных).
+ * Пул не ограничен: буферов столько, сколько было одновременных вызовов
+ */
+public final class InferenceModel {
+    /**
+     * Строк в буферах прямого прохода, больший пакет считается частями
+     */
+    public static final int CHUNK = Evaluator.CHUNK;
+
+    /**
+     * sizes[0] - размер входа, sizes[i] - слоя i
+     */
+    private final int[] sizes;
+    private final MatrixF32[] weights;
+    private final VectorF32[] biases;
+    private final Activation.Interface[] activations;
+    /**
+     * Все созданные буферы, индекс - Workspace.id. Массив заменяется целиком при добавлении буфера
+     */
+    private volatile Workspace[] workspaces = new Workspace[0];
+    /**
+     * Вершина стека свободных буферов (Treiber): младшие 32 бита - id + 1 верхнего буфера, 0 - стек пуст,
+     * старшие - счетчик изменений, чтобы compareAndSet не принял вершину, снятую и возвращенную другим потоком
+     */
+    private final AtomicLong free = new AtomicLong();
+
+    InferenceModel(Layer[] layers) {
+        sizes = new int[layers.length];
+        weights = new MatrixF32[layers.length];
+        biases = new VectorF32[layers.length];
+        activations = new Activation.Interface[layers.length];
+
+        sizes[0] = layers[0].size;
+
+        for (var i = 1; i < layers.length; i++) {
+            var layer = layers[i];
+
+            sizes[i] = layer.size;
+            weights[i] = MatrixF32.allocateLike(layer.weights);
+            Ops.copy(layer.weights, weights[i]);
+            biases[i] = new VectorF32(layer.size);
+            for (var j = 0; j < layer.size; j++) {
+                biases[i].set(j, layer.bias.get(j));
+            }
+            activations[i] = layer.activation;
+        }
+    }
+
+    public int inputSize() {
+        return sizes[0];
+    }
+
+    public int outputSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Выход для строк samples в строки result. Без выделения памяти, если samples не длиннее CHUNK строк
+     */
+    public MatrixF32 predict(MatrixF32 samples, MatrixF32 result) {
+        if (samples.getColumns() != inputSize() || result.getColumns() != outputSize() || samples.getRows() != result.getRows()) {
+            throw new IllegalArgumentException();
+        }
+
+        var workspace = acquire();
+
+        try {
+            if (samples.getRows() <= CHUNK) {
+                forward(workspace, samples, result);
+
+                return result;
+            }
+
+            for (var row = 0; row < samples.getRows(); row += CHUNK) {
+                var rows = Math.min(CHUNK, samples.getRows() - row);
+                forward(workspace, samples.rows(row, rows), result.rows(row, rows));
+            }
+
+            return result;
+        } finally {
+            release(workspace);
+        }
+    }
+
+    public MatrixF32 predict(MatrixF32 samples) {
+        return predict(samples, new MatrixF32(samples.getRows(), outputSize()));
+    }
+
+    /**
+     * Выход для одного образца в result длины outputSize
+     */
+    public float[] predict(float[] sample, float[] result) {
+        if (sample.length != inputSize() || result.length != outputSize()) {
+            throw new IllegalArgumentException();
+        }
+
+        var workspace = acquire();
+
+        try {
+            var input = workspace.sample;
+            var output = workspace.prediction;
+
+            System.arraycopy(sample, 0, input.getData(), 0, sample.length);
+            forward(workspace, input, output);
+            System.arraycopy(output.getData(), 0, result, 0, result.length);
+
+            return result;
+        } finally {
+            release(workspace);
+        }
+    }
+
+    /**
+     * Номер класса с наибольшим выходом для одного образца
+     */
+    public int classify(float[] sample) {
+        if (sample.length != inputSize()) {
+            throw new IllegalArgumentException();
+        }
+
+        var workspace = acquire();
+
+        try {
+            System.arraycopy(sample, 0, workspace.sample.getData(), 0, sample.length);
+
+            return Ops.argmax(forward(workspace, workspace.sample, workspace.prediction), 0);
+        } finally {
+            release(workspace);
+        }
+    }
+
+    /**
+     * Прямой проход input (не длиннее CHUNK строк) в буферы workspace, последний слой - сразу в result
+     */
+    private MatrixF32 forward(Workspace workspace, MatrixF32 input, MatrixF32 result) {
+        var buffers = workspace.buffers(input.getRows());
+        var last = sizes.length - 1;
+
+        for (var i = 1; i < last; i++) {
+            input = Ops.product(input, weights[i], biases[i], buffers[i], activations[i]);
+        }
+
+        return Ops.product(input, weights[last], biases[last], result, activations[last]);
+    }
+
+    /**
+     * Свободный буфер с вершины стека или новый, если все заняты
+     */
+    private Workspace acquire() {
+        while (true) {
+            var head = free.get();
+            var top = (int) head;
+
+            if (top == 0) {
+                return create();
+            }
+
+            var workspace = workspaces[top - 1];
+
+            if (free.compareAndSet(head, (head >>> 32) + 1 << 32 | workspace.next)) {
+                return workspace;
+            }
+        }
+    }
+
+    /**
+     * Кладет буфер на вершину стека
+     */
+    private void release(Workspace workspace) {
+        while (true) {
+            var head = free.get();
+            workspace.next = (int) head;
+
+            if (free.compareAndSet(head, (head >>> 32) + 1 << 32 | workspace.id + 1)) {
+                return;
+            }
+        }
+    }
+
+    private synchronized Workspace create() {
+        var workspace = new Workspace(workspaces.length);
+        var grown = Arrays.copyOf(workspaces, workspace.id + 1);
+
+        grown[workspace.id] = workspace;
+        workspaces = grown;
+
+        return workspace;
+    }
+
+    /**
+     * Результаты скрытых слоев для одного образца и, при первом пакетном вызове, на CHUNK строк с представлениями
+     * их первых rows строк, по одному набору на размер пакета. Буфер, через который идут только одиночные вызовы,
+     * занимает по строке на слой
+     */
+    private final class Workspace {
+        private final int id;
+        /**
+         * id + 1 следующего буфера в стеке свободных, 0 - последний
+         */
+        private int next;
+        private final MatrixF32 sample = new MatrixF32(1, inputSize());
+        private final MatrixF32 prediction = new MatrixF32(1, outputSize());
+        private final MatrixF32[] single = new MatrixF32[sizes.length];
+        private MatrixF32[][] views;
+
+        private Workspace(int id) {
+            this.id = id;
+
+            for (var i = 1; i < sizes.length - 1; i++) {
+                single[i] = new MatrixF32(1, sizes[i]);
+            }
+        }
+
+        private MatrixF32[] buffers(int rows) {
+            if (rows == 1) {
+                return single;
+            }
+
+            if (views == null) {
+                views = new MatrixF32[CHUNK + 1][];
+                var results = views[CHUNK] = new MatrixF32[sizes.length];
+
+                for (var i = 1; i < sizes.length - 1; i++) {
+                    results[i] = new MatrixF32(CHUNK, sizes[i]);
+                }
+            }
+
+            if (views[rows] == null) {
+                var results = views[CHUNK];
+                views[rows] = new MatrixF32[results.length];
+
+                for (var i = 1; i < results.length - 1; i++) {
+                    views[rows][i] = results[i].rows(0, rows);
+                }
+            }
+
+            return views[rows];
+        }
+    }
+}
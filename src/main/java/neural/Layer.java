@@ -15,7 +15,10 @@ public final class Layer {
     public Dropout.Interface dropout;
     public float lr = 1f;
     public float l2penalty = 0.01f;
-    public int[] dropoutIndexes;
+    /**
+     * Затухание весов отдельно от градиента (AdamW), в отличие от l2penalty не проходит через оптимизатор
+     */
+    public float weightDecay = 0.0f;
 
     public Layer(FeedForwardNeuralNetwork parent, int size, MatrixF32 weights) {
         this.parent = parent;
@@ -61,4 +64,10 @@ public final class Layer {
 
         return this;
     }
+
+    public Layer setWeightDecay(float weightDecay) {
+        this.weightDecay = weightDecay;
+
+        return this;
+    }
 }
@@ -4,16 +4,12 @@ import linear.MatrixF32;
 import linear.Ops;
 import linear.VectorF32;
 
-import java.util.Arrays;
 import java.util.Random;
 import java.util.function.BiConsumer;
 import java.util.stream.IntStream;
 
 public class NeuralAlgo {
 
-    final private static int[] randomPool = new int[1048576];
-    private static int randomPoolCursor = randomPool.length;
-
     public static void parallel(BiConsumer<Integer, Integer> task) {
         int cores = Runtime.getRuntime().availableProcessors();
         parallel(task, cores);
@@ -23,34 +19,22 @@ public class NeuralAlgo {
         IntStream.range(0, cores).parallel().forEach(t -> task.accept(t, cores));
     }
 
-    private static int[] readIntsFromRandomPool(Random random, int n, int min, int max) {
-        if (randomPoolCursor + n >= randomPool.length) {
-            parallel((t, cores) -> {
-                var r = new Random(random.nextInt());
-                var batch = Math.ceil((double) randomPool.length / cores);
-                var start = (int)(t * batch);
-                var end = (int)Math.min(randomPool.length, start + batch);
-
-                for (var i = start; i < end; i++) {
-                    randomPool[i] = r.nextInt();
-                }
-            });
-
-            randomPoolCursor = 0;
-        }
-
-        randomPoolCursor += n;
-        var scale = (double)((long)Integer.MAX_VALUE - (long)Integer.MIN_VALUE);
-
-        return Arrays.stream(Arrays
-                .copyOfRange(randomPool, randomPoolCursor - n, randomPoolCursor))
-                .map(d -> (int)((d / scale + 0.5) * (max - min) + min)).toArray();
+    /**
+     * Индексы выборки строятся счетчиковым генератором от одного значения random, без общего пула
+     */
+    public static void dropout(Random random, float[] result, float k) {
+        dropout(random, result, 0, result.length, k);
     }
 
-    public static void dropout(Random random, float[] result, float k) {
-        int[] ints = readIntsFromRandomPool(random, - (int)(result.length * Math.log(1 - k)), 0, result.length);
-        for (var i : ints) {
-            result[i] = 0.0f;
+    /**
+     * dropout для участка [offset, offset + length) result, например строки пакета
+     */
+    public static void dropout(Random random, float[] result, int offset, int length, float k) {
+        var n = -(int) (length * Math.log(1 - k));
+        var key = CounterRandom.mix(random.nextLong());
+
+        for (var i = 0; i < n; i++) {
+            result[offset + CounterRandom.nextInt(key, i, length)] = 0.0f;
         }
     }
 
@@ -80,6 +64,32 @@ public class NeuralAlgo {
             delta[i] = alpha * (target[i] - result.getData()[i]);
         }
 
-        Ops.product(prevLayerResult, new VectorF32(delta), weights, 1.0f, 1.0f - l2penalty).getData();
+        // Ops.product(matrix, vector) читает weights как column-major, то есть как prev x target построчно
+        var columnMajor = new MatrixF32(prevLayerResult.getSize(), target.length, weights.getData());
+        Ops.product(prevLayerResult, new VectorF32(delta), columnMajor, 1.0f, 1.0f - l2penalty);
+    }
+
+    /**
+     * Пакетный deltaCorrection: delta = alpha * (target - result) построчно, затем weights += prevLayerResult^T * delta
+     * одним умножением матриц. weights - матрица prev x target, delta - буфер размера result, переиспользуется между
+     * пакетами. Равносильно deltaCorrection для каждой строки пакета при неизменных на время пакета весах
+     */
+    public static void deltaCorrection(float alpha, MatrixF32 result, MatrixF32 target, MatrixF32 prevLayerResult, MatrixF32 weights, MatrixF32 delta) {
+        final var species = Ops.species;
+        final var columns = result.getColumns();
+
+        for (var i = 0; i < result.getRows(); i++) {
+            final var resultStart = (long) i * result.getStride();
+            final var targetStart = (long) i * target.getStride();
+            final var deltaStart = (long) i * delta.getStride();
+
+            for (var j = 0; j < columns; j += species.length()) {
+                var mask = species.indexInRange(j, columns);
+                var value = target.load(species, targetStart + j, mask).sub(result.load(species, resultStart + j, mask)).mul(alpha);
+                delta.store(value, deltaStart + j, mask);
+            }
+        }
+
+        Ops.product(prevLayerResult.transpose(), delta, weights, 1.0f, 1.0f);
     }
 }
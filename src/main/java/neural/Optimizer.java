@@ -1,9 +1,53 @@
 package neural;
 
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import linear.Ops;
 import linear.VectorF32;
 
 public class Optimizer {
+    /**
+     * Норма градиента слоя, выше которой он сжимается
+     */
+    public static final float NORM_MAX = 100f;
+
     public interface Interface {
-        void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta);
+        /**
+         * Шаг по градиенту g = (gradient + l2 * weights) * scale и затухание весов weights -= eta * decay * weights,
+         * не зависящее от градиента (decoupled weight decay). Все за один проход по весам, gradient не меняется
+         */
+        void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale);
+
+        default void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta) {
+            apply(layer, weights, gradient, eta, 0.0f, 0.0f, 1.0f);
+        }
+    }
+
+    /**
+     * Множитель scale для apply, ограничивающий норму gradient + l2 * weights значением NORM_MAX.
+     * Норма считается за один векторный проход без промежуточной суммы
+     */
+    public static float clipScale(VectorF32 weights, VectorF32 gradient, float l2) {
+        var species = Ops.species;
+        var size = gradient.getLongSize();
+        var upperBound = species.loopBound(size);
+        var sum = FloatVector.zero(species);
+        var j = 0L;
+
+        for (; j < upperBound; j += species.length()) {
+            var g = weights.load(species, j).mul(l2).add(gradient.load(species, j));
+            sum = g.fma(g, sum);
+        }
+
+        var result = sum.reduceLanes(VectorOperators.ADD);
+
+        for (; j < size; j++) {
+            var g = gradient.get(j) + l2 * weights.get(j);
+            result += g * g;
+        }
+
+        var norm = (float) Math.sqrt(result);
+
+        return norm > NORM_MAX ? NORM_MAX / norm : 1.0f;
     }
 }
@@ -0,0 +1,72 @@
+package neural;
+
+import linear.Cholesky;
+import linear.MatrixF32;
+import linear.Ops;
+
+/**
+ * Линейная регрессия с гребневой регуляризацией в замкнутой форме: W = (H^T * H + ridge * I)^-1 * H^T * T.
+ * H^T * H и H^T * T копятся по пакетам строк (add), так что вся матрица признаков H в памяти не нужна,
+ * хранятся только features x features и features x outputs. solve решает систему разложением Холецкого
+ */
+public class RidgeRegression {
+    private final MatrixF32 gram;
+    private final MatrixF32 moments;
+    private long samples;
+
+    public RidgeRegression(int features, int outputs) {
+        this.gram = new MatrixF32(features, features);
+        this.moments = new MatrixF32(features, outputs);
+    }
+
+    /**
+     * Добавляет пакет: строки features - признаки образцов, строки targets - ответы.
+     * От H^T * H считается только нижний треугольник с диагональными блоками, как в ssyrk
+     */
+    public void add(MatrixF32 features, MatrixF32 targets) {
+        var n = gram.getRows();
+
+        if (features.getColumns() != n || targets.getColumns() != moments.getColumns() || features.getRows() != targets.getRows()) {
+            throw new ArrayIndexOutOfBoundsException("incompatible matrix");
+        }
+
+        for (var row = 0; row < n; row += Cholesky.BLOCK) {
+            var rows = Math.min(Cholesky.BLOCK, n - row);
+
+            Ops.product(
+                    features.view(0, row, features.getRows(), rows).transpose(),
+                    features.view(0, 0, features.getRows(), row + rows),
+                    gram.view(row, 0, rows, row + rows),
+                    1.0f,
+                    1.0f
+            );
+        }
+
+        Ops.product(features.transpose(), targets, moments, 1.0f, 1.0f);
+        samples += features.getRows();
+    }
+
+    public long samples() {
+        return samples;
+    }
+
+    /**
+     * Веса features x outputs в result. ridge прибавляется к диагонали H^T * H, нормированной на число образцов,
+     * поэтому не зависит от размера выборки. Накопленные суммы разрушаются, после solve нужен новый экземпляр
+     */
+    public MatrixF32 solve(float ridge, MatrixF32 result) {
+        var n = gram.getRows();
+        var diagonal = ridge * Math.max(1, samples);
+
+        for (var i = 0; i < n; i++) {
+            var index = (long) i * gram.getStride() + i;
+            gram.set(index, gram.get(index) + diagonal);
+        }
+
+        Cholesky.factor(gram);
+        Ops.copy(moments, result);
+        Cholesky.solve(gram, result);
+
+        return result;
+    }
+}
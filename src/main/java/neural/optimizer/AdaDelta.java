@@ -1,16 +1,24 @@
 package neural.optimizer;
 
-import jdk.incubator.vector.FloatVector;
 import linear.Ops;
 import linear.VectorF32;
 import neural.Optimizer;
 
-import java.util.Arrays;
-import java.util.HashMap;
-
 public class AdaDelta implements Optimizer.Interface {
-    private final HashMap<Integer, VectorF32> gData = new HashMap<>();
-    private final HashMap<Integer, VectorF32> dData = new HashMap<>();
+    /**
+     * G и d слоя подряд в общем массиве, d начинается с 1
+     */
+    private final State state = new State(0.0f, 1.0f);
+    /**
+     * Обновление крупного слоя в пуле Ops
+     */
+    @SuppressWarnings("serial")
+    private final State.Update parallel = new State.Update() {
+        @Override
+        void apply(long from, long to) {
+            update(data, offset, size, weights, gradient, eta, l2, decay, scale, from, to);
+        }
+    };
     private float alpha = 0.9f;
 
     public AdaDelta() {}
@@ -18,29 +26,35 @@ public class AdaDelta implements Optimizer.Interface {
     public AdaDelta(float alpha) {
         this.alpha = alpha;
     }
-    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta) {
-        if (gData.get(layer) == null || gData.get(layer).getSize() != gradient.getSize()) {
-            gData.put(layer, new VectorF32(gradient.getSize()));
-            VectorF32 dVector = new VectorF32(gradient.getSize());
-            Arrays.fill(dVector.getData(), 1f);
-            dData.put(layer, dVector);
+    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale) {
+        var size = gradient.getLongSize();
+
+        if (!state.contains(layer, size)) {
+            state.allocate(layer, weights);
         }
 
-        var gDataItem = gData.get(layer).getData();
-        var deltaData = dData.get(layer).getData();
+        var data = state.data;
+        var offset = state.offset(layer);
 
-        var species = Ops.species;
-        var upperBound = species.loopBound(gDataItem.length);
+        if (!State.isParallel(size)) {
+            update(data, offset, size, weights, gradient, eta, l2, decay, scale, 0, size);
+        } else {
+            parallel.invoke(data, offset, size, weights, gradient, eta, l2, decay, scale);
+        }
+    }
 
+    private void update(VectorF32 data, long offset, long size, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale, long from, long to) {
+        var species = Ops.species;
         int length = species.length();
-        var gradientData = gradient.getData();
-        var outputData = weights.getData();
 
-        for (var j = 0; j < upperBound; j += length) {
-            var G = FloatVector.fromArray(species, gDataItem, j);
-            var g = FloatVector.fromArray(species, gradientData, j);
-            var d = FloatVector.fromArray(species, deltaData, j);
-            var w = FloatVector.fromArray(species, outputData, j);
+        var upperBound = from + species.loopBound(to - from);
+        var j = from;
+
+        for (; j < upperBound; j += length) {
+            var G = data.load(species, offset + j);
+            var d = data.load(species, offset + size + j);
+            var w = weights.load(species, j);
+            var g = w.mul(l2).add(gradient.load(species, j)).mul(scale);
 
             G = g.mul(g).mul(1 - alpha).add(G.mul(alpha));
 
@@ -48,9 +62,21 @@ public class AdaDelta implements Optimizer.Interface {
                     .mul(d.sqrt().add(1e-10f))
                     .div(G.sqrt().add(1e-10f));
 
-            o2.mul(-eta).add(w).intoArray(outputData, j);
-            o2.mul(o2).mul(1 - alpha).add(d.mul(alpha)).intoArray(deltaData, j);
-            G.intoArray(gDataItem, j);
+            weights.store(w.mul(-eta * decay).add(o2.mul(-eta).add(w)), j);
+            data.store(o2.mul(o2).mul(1 - alpha).add(d.mul(alpha)), offset + size + j);
+            data.store(G, offset + j);
+        }
+
+        for (; j < to; j++) {
+            var w = weights.get(j);
+            var g = (gradient.get(j) + l2 * w) * scale;
+            var G = g * g * (1 - alpha) + data.get(offset + j) * alpha;
+            data.set(offset + j, G);
+            var d = data.get(offset + size + j);
+            var o2 = g * ((float) Math.sqrt(d) + 1e-10f) / ((float) Math.sqrt(G) + 1e-10f);
+
+            weights.set(j, w - eta * decay * w + o2 * -eta);
+            data.set(offset + size + j, o2 * o2 * (1 - alpha) + d * alpha);
         }
     }
 }
@@ -1,40 +1,65 @@
 package neural.optimizer;
 
-import jdk.incubator.vector.FloatVector;
 import linear.Ops;
 import linear.VectorF32;
 import neural.Optimizer;
 
-import java.util.HashMap;
-
 public class AdaGrad implements Optimizer.Interface {
-    private final HashMap<Integer, VectorF32> gData = new HashMap<>();
+    private final State state = new State(0.0f);
+    /**
+     * Обновление крупного слоя в пуле Ops
+     */
+    @SuppressWarnings("serial")
+    private final State.Update parallel = new State.Update() {
+        @Override
+        void apply(long from, long to) {
+            update(data, offset, weights, gradient, eta, l2, decay, scale, from, to);
+        }
+    };
+
+    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale) {
+        var size = gradient.getLongSize();
 
-    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta) {
-        if (gData.get(layer) == null || gData.get(layer).getSize() != gradient.getSize()) {
-            gData.put(layer, new VectorF32(gradient.getSize()));
+        if (!state.contains(layer, size)) {
+            state.allocate(layer, weights);
         }
 
-        var gDataItem = gData.get(layer).getData();
+        var data = state.data;
+        var offset = state.offset(layer);
 
-        var species = Ops.species;
-        var upperBound = species.loopBound(gDataItem.length);
+        if (!State.isParallel(size)) {
+            update(data, offset, weights, gradient, eta, l2, decay, scale, 0, size);
+        } else {
+            parallel.invoke(data, offset, size, weights, gradient, eta, l2, decay, scale);
+        }
+    }
 
+    private static void update(VectorF32 data, long offset, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale, long from, long to) {
+        var species = Ops.species;
         int length = species.length();
-        var gradientData = gradient.getData();
-        var outputData = weights.getData();
 
+        var upperBound = from + species.loopBound(to - from);
+        var j = from;
 
-        for (var j = 0; j < upperBound; j += length) {
-            var G = FloatVector.fromArray(species, gDataItem, j);
-            var g = FloatVector.fromArray(species, gradientData, j);
-            var w = FloatVector.fromArray(species, outputData, j);
+        for (; j < upperBound; j += length) {
+            var G = data.load(species, offset + j);
+            var w = weights.load(species, j);
+            var g = w.mul(l2).add(gradient.load(species, j)).mul(scale);
 
             G = g.mul(g).add(G);
             var o = g.div(G.add(1e-12f).sqrt()).mul(-eta).add(w);
 
-            o.intoArray(outputData, j);
-            G.intoArray(gDataItem, j);
+            weights.store(w.mul(-eta * decay).add(o), j);
+            data.store(G, offset + j);
+        }
+
+        for (; j < to; j++) {
+            var w = weights.get(j);
+            var g = (gradient.get(j) + l2 * w) * scale;
+            var G = g * g + data.get(offset + j);
+            data.set(offset + j, G);
+
+            weights.set(j, w - eta * decay * w + g / (float) Math.sqrt(G + 1e-12f) * -eta);
         }
     }
 }
@@ -1,46 +1,70 @@
 package neural.optimizer;
 
-import jdk.incubator.vector.FloatVector;
 import linear.Ops;
 import linear.VectorF32;
 import neural.Optimizer;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class Adam implements Optimizer.Interface {
-    private final HashMap<Integer, VectorF32> mData = new HashMap<>();
-    private final HashMap<Integer, VectorF32> vData = new HashMap<>();
-    private final HashMap<Integer, Float> layerBeta1 = new HashMap<>();
-    private final HashMap<Integer, Float> layerBeta2 = new HashMap<>();
+    /**
+     * m и v слоя подряд в общем массиве
+     */
+    private final State state = new State(0.0f, 0.0f);
+    /**
+     * beta1^t и beta2^t по номеру слоя
+     */
+    private float[] layerBeta = new float[0];
     private final float beta1 = 0.9f;
     private final float beta2 = 0.999f;
+    /**
+     * Обновление крупного слоя в пуле Ops
+     */
+    private final ParallelUpdate parallel = new ParallelUpdate();
     public Adam() {}
-    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta) {
-        if (mData.get(layer) == null || mData.get(layer).getSize() != gradient.getSize()) {
-            mData.put(layer, new VectorF32(gradient.getSize()));
-            vData.put(layer, new VectorF32(gradient.getSize()));
-            layerBeta1.put(layer, beta1);
-            layerBeta2.put(layer, beta2);
+    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale) {
+        var size = gradient.getLongSize();
+
+        if (!state.contains(layer, size)) {
+            state.allocate(layer, weights);
+
+            if (2 * layer + 1 >= layerBeta.length) {
+                layerBeta = Arrays.copyOf(layerBeta, 2 * layer + 2);
+            }
+
+            layerBeta[2 * layer] = beta1;
+            layerBeta[2 * layer + 1] = beta2;
         }
 
-        var mDataItem = mData.get(layer).getData();
+        var data = state.data;
+        var offset = state.offset(layer);
+        var b1 = layerBeta[2 * layer];
+        var b2 = layerBeta[2 * layer + 1];
 
-        var species = Ops.species;
-        var upperBound = species.loopBound(mDataItem.length);
+        if (!State.isParallel(size)) {
+            update(data, offset, size, weights, gradient, eta, l2, decay, scale, b1, b2, 0, size);
+        } else {
+            parallel.b1 = b1;
+            parallel.b2 = b2;
+            parallel.invoke(data, offset, size, weights, gradient, eta, l2, decay, scale);
+        }
+
+        layerBeta[2 * layer] = b1 * beta1;
+        layerBeta[2 * layer + 1] = b2 * beta2;
+    }
 
+    private void update(VectorF32 data, long offset, long size, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale, float b1, float b2, long from, long to) {
+        var species = Ops.species;
         int length = species.length();
-        var gradientData = gradient.getData();
-        var outputData = weights.getData();
-        var velocityData = vData.get(layer).getData();
 
-        Float b1 = layerBeta1.get(layer);
-        Float b2 = layerBeta2.get(layer);
+        var upperBound = from + species.loopBound(to - from);
+        var j = from;
 
-        for (var j = 0; j < upperBound; j += length) {
-            var m = FloatVector.fromArray(species, mDataItem, j);
-            var v = FloatVector.fromArray(species, velocityData, j);
-            var g = FloatVector.fromArray(species, gradientData, j);
-            var w = FloatVector.fromArray(species, outputData, j);
+        for (; j < upperBound; j += length) {
+            var m = data.load(species, offset + j);
+            var v = data.load(species, offset + size + j);
+            var w = weights.load(species, j);
+            var g = w.mul(l2).add(gradient.load(species, j)).mul(scale);
 
             m = g.mul(1 - beta1).add(m.mul(beta1));
             v = g.mul(g).mul(1 - beta2).add(v.mul(beta2));
@@ -50,12 +74,31 @@ public class Adam implements Optimizer.Interface {
                         .div(v.div(1 - b2).sqrt().add(1e-10f))
                         .add(w);
 
-            o.intoArray(outputData, j);
-            m.intoArray(mDataItem, j);
-            v.intoArray(velocityData, j);
+            weights.store(w.mul(-eta * decay).add(o), j);
+            data.store(m, offset + j);
+            data.store(v, offset + size + j);
         }
 
-        layerBeta1.put(layer, b1 * beta1);
-        layerBeta2.put(layer, b2 * beta2);
+        for (; j < to; j++) {
+            var w = weights.get(j);
+            var g = (gradient.get(j) + l2 * w) * scale;
+            var m = g * (1 - beta1) + data.get(offset + j) * beta1;
+            data.set(offset + j, m);
+            var v = g * g * (1 - beta2) + data.get(offset + size + j) * beta2;
+            data.set(offset + size + j, v);
+
+            weights.set(j, w - eta * decay * w + m / (1 - b1) * -eta / ((float) Math.sqrt(v / (1 - b2)) + 1e-10f));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class ParallelUpdate extends State.Update {
+        private float b1;
+        private float b2;
+
+        @Override
+        void apply(long from, long to) {
+            update(data, offset, size, weights, gradient, eta, l2, decay, scale, b1, b2, from, to);
+        }
     }
 }
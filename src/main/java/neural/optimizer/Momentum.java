@@ -4,10 +4,18 @@ import linear.Ops;
 import linear.VectorF32;
 import neural.Optimizer;
 
-import java.util.HashMap;
-
 public class Momentum implements Optimizer.Interface {
-    private final HashMap<Integer, VectorF32> momentumData = new HashMap<>();
+    private final State state = new State(0.0f);
+    /**
+     * Обновление крупного слоя в пуле Ops
+     */
+    @SuppressWarnings("serial")
+    private final State.Update parallel = new State.Update() {
+        @Override
+        void apply(long from, long to) {
+            update(data, offset, weights, gradient, eta, l2, decay, scale, from, to);
+        }
+    };
     private float alpha = 0.9f;
 
     public Momentum() {}
@@ -16,15 +24,51 @@ public class Momentum implements Optimizer.Interface {
         this.alpha = alpha;
     }
 
-    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta) {
-        if (momentumData.get(layer) == null || momentumData.get(layer).getSize() != gradient.getSize()) {
-            momentumData.put(layer, new VectorF32(gradient.getSize()));
+    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale) {
+        var size = gradient.getLongSize();
+
+        if (!state.contains(layer, size)) {
+            state.allocate(layer, weights);
         }
 
-        var m = momentumData.get(layer);
+        var data = state.data;
+        var offset = state.offset(layer);
+
+        if (!State.isParallel(size)) {
+            update(data, offset, weights, gradient, eta, l2, decay, scale, 0, size);
+        } else {
+            parallel.invoke(data, offset, size, weights, gradient, eta, l2, decay, scale);
+        }
+    }
+
+    /**
+     * m = alpha * m + (1 - alpha) * g, w -= eta * m за один проход
+     */
+    private void update(VectorF32 data, long offset, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale, long from, long to) {
+        var species = Ops.species;
+        int length = species.length();
 
-        Ops.product(gradient.toVerticalMatrix(), new VectorF32(new float[]{1}).toHorizontalMatrix(), m.toVerticalMatrix(), 1 - alpha, alpha);
+        var upperBound = from + species.loopBound(to - from);
+        var j = from;
 
-        Ops.add(m, weights, -eta);
+        for (; j < upperBound; j += length) {
+            var m = data.load(species, offset + j);
+            var w = weights.load(species, j);
+            var g = w.mul(l2).add(gradient.load(species, j)).mul(scale);
+
+            m = g.mul(1 - alpha).add(m.mul(alpha));
+
+            weights.store(w.mul(-eta * decay).add(m.mul(-eta).add(w)), j);
+            data.store(m, offset + j);
+        }
+
+        for (; j < to; j++) {
+            var w = weights.get(j);
+            var g = (gradient.get(j) + l2 * w) * scale;
+            var m = g * (1 - alpha) + data.get(offset + j) * alpha;
+            data.set(offset + j, m);
+
+            weights.set(j, w - eta * decay * w + m * -eta);
+        }
     }
 }
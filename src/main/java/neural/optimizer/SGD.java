@@ -5,7 +5,45 @@ import linear.VectorF32;
 import neural.Optimizer;
 
 public class SGD implements Optimizer.Interface {
-    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta) {
-        Ops.add(gradient, weights, -eta);
+    /**
+     * Обновление крупного слоя в пуле Ops
+     */
+    @SuppressWarnings("serial")
+    private final State.Update parallel = new State.Update() {
+        @Override
+        void apply(long from, long to) {
+            update(weights, gradient, eta, l2, decay, scale, from, to);
+        }
+    };
+
+    public void apply(int layer, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale) {
+        var size = gradient.getLongSize();
+
+        if (!State.isParallel(size)) {
+            update(weights, gradient, eta, l2, decay, scale, 0, size);
+        } else {
+            parallel.invoke(null, 0, size, weights, gradient, eta, l2, decay, scale);
+        }
+    }
+
+    /**
+     * w = w * (1 - eta * (l2 * scale + decay)) - eta * scale * g
+     */
+    private static void update(VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale, long from, long to) {
+        var species = Ops.species;
+        int length = species.length();
+        var keep = 1 - eta * (l2 * scale + decay);
+        var step = -eta * scale;
+
+        var upperBound = from + species.loopBound(to - from);
+        var j = from;
+
+        for (; j < upperBound; j += length) {
+            weights.store(weights.load(species, j).mul(keep).add(gradient.load(species, j).mul(step)), j);
+        }
+
+        for (; j < to; j++) {
+            weights.set(j, weights.get(j) * keep + gradient.get(j) * step);
+        }
     }
 }
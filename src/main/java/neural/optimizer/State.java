@@ -0,0 +1,215 @@
+package neural.optimizer;
+
+import linear.Ops;
+import linear.VectorF32;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * Состояние оптимизатора всех слоев сети в одном непрерывном векторе. Слой занимает init.length векторов по size
+ * элементов подряд, начало слоя берется из массива смещений по номеру слоя, без HashMap и упаковки.
+ * Смещения long, вектор уходит off-heap вслед за весами или когда перестает помещаться в float[]
+ */
+final class State {
+    /**
+     * Слои с меньшим числом параметров обновляются в вызывающем потоке
+     */
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("neural.optimizer.parallelThreshold", 1 << 18);
+
+    private static final long MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    private final float[] init;
+    private long[] offsets = new long[0];
+    private long[] sizes = new long[0];
+    /**
+     * Размер, под который отведено место слоя, не меньше sizes
+     */
+    private long[] capacities = new long[0];
+    VectorF32 data = new VectorF32(0);
+
+    /**
+     * init - начальные значения векторов состояния слоя
+     */
+    State(float... init) {
+        this.init = init;
+    }
+
+    boolean contains(int layer, long size) {
+        return layer < sizes.length && sizes[layer] == size;
+    }
+
+    /**
+     * Место под слой размера weights, заполненное начальными значениями. Слой, который уменьшился, остается
+     * на своем месте. Для выросшего или нового слоя вектор собирается заново: состояния остальных слоев
+     * переносятся подряд, прежнее место слоя и запас уменьшившихся слоев освобождаются
+     */
+    void allocate(int layer, VectorF32 weights) {
+        if (layer >= sizes.length) {
+            offsets = Arrays.copyOf(offsets, layer + 1);
+            sizes = Arrays.copyOf(sizes, layer + 1);
+            capacities = Arrays.copyOf(capacities, layer + 1);
+        }
+
+        var size = weights.getLongSize();
+
+        if (capacities[layer] < size) {
+            compact(layer, size, weights.isNative());
+        }
+
+        sizes[layer] = size;
+
+        for (var k = 0; k < init.length; k++) {
+            fill(offsets[layer] + k * size, size, init[k]);
+        }
+    }
+
+    /**
+     * length элементов data с from значением value
+     */
+    private void fill(long from, long length, float value) {
+        if (!data.isNative()) {
+            Arrays.fill(data.getData(), (int) from, (int) (from + length), value);
+
+            return;
+        }
+
+        var segment = data.getSegment().asSlice(from * Float.BYTES, length * Float.BYTES);
+
+        for (var i = 0L; i < length; i++) {
+            segment.setAtIndex(ValueLayout.JAVA_FLOAT, i, value);
+        }
+    }
+
+    /**
+     * Новый вектор с состояниями всех слоев, кроме layer, подряд и местом под layer размера size в конце
+     */
+    private void compact(int layer, long size, boolean nativeWeights) {
+        var length = init.length * size;
+
+        for (var l = 0; l < sizes.length; l++) {
+            if (l != layer) {
+                length += init.length * sizes[l];
+            }
+        }
+
+        var compacted = !data.isNative() && !nativeWeights && length <= MAX_ARRAY
+                ? new VectorF32((int) length)
+                : VectorF32.allocate(Arena.ofAuto(), length);
+        var offset = 0L;
+
+        for (var l = 0; l < sizes.length; l++) {
+            if (l == layer) {
+                continue;
+            }
+
+            var used = init.length * sizes[l];
+            MemorySegment.copy(data.getSegment(), offsets[l] * Float.BYTES, compacted.getSegment(), offset * Float.BYTES, used * Float.BYTES);
+            offsets[l] = offset;
+            capacities[l] = sizes[l];
+            offset += used;
+        }
+
+        offsets[layer] = offset;
+        capacities[layer] = size;
+        data = compacted;
+    }
+
+    long offset(int layer) {
+        return offsets[layer];
+    }
+
+    /**
+     * Обновлять ли слой из size параметров по частям в пуле Ops
+     */
+    static boolean isParallel(long size) {
+        return size >= PARALLEL_THRESHOLD && Ops.getParallelism() > 1;
+    }
+
+    /**
+     * Обновление слоя по отрезкам [from, to) в пуле Ops, по отрезку на поток пула. Границы кратны длине вектора,
+     * скалярный хвост только у последнего отрезка. Экземпляр создается один раз на оптимизатор, аргументы шага
+     * записываются в поля перед invoke, поэтому шаг не выделяет памяти
+     */
+    @SuppressWarnings("serial")
+    abstract static class Update extends Ops.Task {
+        private final Part[] parts;
+        VectorF32 data;
+        long offset;
+        long size;
+        VectorF32 weights;
+        VectorF32 gradient;
+        float eta;
+        float l2;
+        float decay;
+        float scale;
+
+        Update() {
+            parts = new Part[Ops.getParallelism()];
+
+            for (var t = 0; t < parts.length; t++) {
+                parts[t] = new Part(this, t);
+            }
+        }
+
+        abstract void apply(long from, long to);
+
+        void invoke(VectorF32 data, long offset, long size, VectorF32 weights, VectorF32 gradient, float eta, float l2, float decay, float scale) {
+            this.data = data;
+            this.offset = offset;
+            this.size = size;
+            this.weights = weights;
+            this.gradient = gradient;
+            this.eta = eta;
+            this.l2 = l2;
+            this.decay = decay;
+            this.scale = scale;
+
+            Ops.invoke(this);
+        }
+
+        /**
+         * Первая часть считается в текущем потоке, остальные отдаются в пул
+         */
+        @Override
+        public void compute() {
+            setPendingCount(parts.length - 1);
+
+            for (var t = 1; t < parts.length; t++) {
+                parts[t].reinitialize();
+                parts[t].fork();
+            }
+
+            parts[0].compute();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Part extends Ops.Task {
+        private final Update update;
+        private final int index;
+
+        private Part(Update update, int index) {
+            super(update);
+            this.update = update;
+            this.index = index;
+        }
+
+        @Override
+        public void compute() {
+            var species = Ops.species;
+            var count = update.parts.length;
+            var size = update.size;
+            var from = species.loopBound(size * index / count);
+            var to = index + 1 == count ? size : species.loopBound(size * (index + 1) / count);
+
+            if (from < to) {
+                update.apply(from, to);
+            }
+
+            tryComplete();
+        }
+    }
+}
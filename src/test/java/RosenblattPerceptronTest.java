@@ -0,0 +1,125 @@
+import com.sun.management.ThreadMXBean;
+import linear.MatrixF32;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static linear.TestMatrices.row;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RosenblattPerceptronTest {
+
+    private static MatrixF32 sensorData(Random random, int rows, int columns) {
+        var result = new MatrixF32(rows, columns);
+
+        for (var i = 0L; i < result.getLongSize(); i++) {
+            result.set(i, random.nextFloat());
+        }
+
+        return result;
+    }
+
+    /**
+     * Пакетный evalLayer1 дает по строке то же, что evalLayer1 одного образца
+     */
+    @Test
+    public void batchLayer1() {
+        var random = new Random(1);
+        var p = new RosenblattPerceptron(30, 4, 20, random);
+        var data = sensorData(random, 7, 30);
+        var hidden = p.evalLayer1(data, new MatrixF32(7, 20));
+
+        for (var r = 0; r < 7; r++) {
+            assertArrayEquals(p.evalLayer1(row(data, r)).getData(), row(hidden, r), 1e-5f);
+        }
+    }
+
+    /**
+     * То же для разреженных S-A связей: пакетное умножение на транспонированную CSR и выборка по одному образцу
+     */
+    @Test
+    public void sparseBatchLayer1() {
+        var random = new Random(6);
+        var p = new RosenblattPerceptron(30, 4, 20, 7, random);
+        var data = sensorData(random, 7, 30);
+        var hidden = p.evalLayer1(data, new MatrixF32(7, 20));
+
+        for (var r = 0; r < 7; r++) {
+            assertArrayEquals(p.evalLayer1(row(data, r)).getData(), row(hidden, r), 1e-5f);
+        }
+    }
+
+    /**
+     * evalLayer1 одного образца при разреженных связях не выделяет памяти. Берется меньшее из нескольких окон,
+     * чтобы не зависеть от момента JIT-компиляции
+     */
+    @Test
+    public void sparseSampleDoesNotAllocate() {
+        var random = new Random(7);
+        var p = new RosenblattPerceptron(30, 4, 20, 7, random);
+        var sample = row(sensorData(random, 1, 30), 0);
+        var threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().threadId();
+        var allocated = Long.MAX_VALUE;
+
+        for (var window = 0; window < 10; window++) {
+            var before = threads.getThreadAllocatedBytes(thread);
+
+            for (var i = 0; i < 2000; i++) {
+                p.evalLayer1(sample);
+            }
+
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+
+        assertEquals(0, allocated);
+    }
+
+    /**
+     * Обучение по строкам off-heap кэша совпадает с обучением по образцам
+     */
+    @Test
+    public void trainFromCache() {
+        var data = sensorData(new Random(2), 9, 30);
+        var cached = new RosenblattPerceptron(30, 4, 20, new Random(3));
+        var direct = new RosenblattPerceptron(30, 4, 20, new Random(3));
+        var cache = cached.cacheLayer1(data);
+        var target = new float[4];
+
+        for (var r = 0; r < 9; r++) {
+            Arrays.fill(target, 0.0f);
+            target[r % 4] = 1.0f;
+
+            assertArrayEquals(direct.train(row(data, r), target, 0.1f, 0), cached.trainLayer2(cache, r, target, 0.1f, 0), 1e-5f);
+        }
+    }
+
+    /**
+     * Пакеты из одной строки, по образцам и по кэшу, обучают так же, как train и trainLayer2 одного образца
+     */
+    @Test
+    public void singleRowBatch() {
+        var data = sensorData(new Random(4), 6, 30);
+        var single = new RosenblattPerceptron(30, 4, 20, new Random(5));
+        var batch = new RosenblattPerceptron(30, 4, 20, new Random(5));
+        var cached = new RosenblattPerceptron(30, 4, 20, new Random(5));
+        var cache = cached.cacheLayer1(data);
+        var order = new int[]{3, 0, 5, 1, 4, 2};
+        var target = new float[4];
+
+        for (var i = 0; i < order.length; i++) {
+            var r = order[i];
+            target[i % 4] = 1.0f;
+            target[(i + 3) % 4] = 0.0f;
+
+            var expected = single.train(row(data, r), target, 0.1f, 0);
+            var targetRow = new MatrixF32(1, 4, target);
+
+            assertArrayEquals(expected, batch.train(data.rows(r, 1), targetRow, 0.1f, 0).getData(), 1e-5f);
+            assertArrayEquals(expected, cached.trainLayer2(cache, order, i, targetRow, 0.1f, 0).getData(), 1e-5f);
+        }
+    }
+}
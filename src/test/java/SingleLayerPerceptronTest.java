@@ -0,0 +1,38 @@
+import linear.MatrixF32;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SingleLayerPerceptronTest {
+
+    /**
+     * Пакет из одной строки обучает и считает так же, как train и eval одного образца
+     */
+    @Test
+    public void singleRowBatch() {
+        var random = new Random(1);
+        var single = new SingleLayerPerceptron(30, 4, 2);
+        var batch = new SingleLayerPerceptron(30, 4, 2);
+        var sample = new float[30];
+        var target = new float[4];
+
+        for (var step = 0; step < 5; step++) {
+            for (var i = 0; i < sample.length; i++) {
+                sample[i] = random.nextFloat();
+            }
+
+            target[step % 4] = 1.0f;
+            target[(step + 3) % 4] = 0.0f;
+
+            var expected = single.eval(sample);
+            assertArrayEquals(expected, batch.eval(new MatrixF32(1, 30, sample), new MatrixF32(1, 4)).getData(), 1e-5f);
+
+            single.train(sample, target, 0.01f);
+            batch.trainBatch(new MatrixF32(1, 30, sample), new MatrixF32(1, 4, target), 0.01f);
+        }
+
+        assertArrayEquals(single.eval(sample), batch.eval(sample), 1e-5f);
+    }
+}
@@ -0,0 +1,80 @@
+package dataset;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchLoaderTest {
+
+    /**
+     * Образец i - строка из байтов i с меткой i % 4. Каждая эпоха выдает batches пакетов без повторов,
+     * цели - one-hot по метке той же строки
+     */
+    @Test
+    public void epochs() throws InterruptedException {
+        var count = 10;
+        var size = 37;
+        var bytes = new byte[count * size];
+        var labels = new byte[count];
+
+        for (var i = 0; i < count; i++) {
+            labels[i] = (byte) (i % 4);
+
+            for (var j = 0; j < size; j++) {
+                bytes[i * size + j] = (byte) i;
+            }
+        }
+
+        try (var loader = new BatchLoader(new ByteDataset(count, size, bytes), labels, 4, 3, new Random(1))) {
+            assertNull(loader.next());
+
+            for (var epoch = 0; epoch < 3; epoch++) {
+                loader.epoch();
+                var seen = new HashSet<Integer>();
+
+                for (var b = 0; b < loader.batches(); b++) {
+                    var batch = loader.next();
+
+                    for (var r = 0; r < 3; r++) {
+                        var sample = Math.round(batch.images.get((long) r * size + size - 1) * 255);
+
+                        assertTrue(seen.add(sample));
+                        assertEquals(sample % 4, batch.labels[r]);
+
+                        for (var c = 0; c < 4; c++) {
+                            assertEquals(c == sample % 4 ? 1.0f : 0.0f, batch.targets.get(r * 4L + c), 0.0f);
+                        }
+                    }
+                }
+
+                assertNull(loader.next());
+                assertEquals(9, seen.size());
+            }
+
+            // Эпоха, прерванная на середине
+            loader.epoch();
+            loader.next();
+            loader.epoch();
+            assertEquals(3, loader.batches());
+            loader.next();
+        }
+    }
+
+    /**
+     * close не бросает InterruptedException и сохраняет флаг прерывания вызывающего потока
+     */
+    @Test
+    public void closeKeepsInterrupt() {
+        var loader = new BatchLoader(new ByteDataset(4, 3, new byte[12]), new byte[4], 2, 2, new Random(2));
+
+        Thread.currentThread().interrupt();
+        loader.close();
+
+        assertTrue(Thread.interrupted());
+    }
+}
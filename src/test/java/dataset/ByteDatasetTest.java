@@ -0,0 +1,44 @@
+package dataset;
+
+import linear.MatrixF32;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ByteDatasetTest {
+
+    /**
+     * Векторное расширение совпадает с поэлементным, в том числе на хвосте строки и в строке пакета со stride
+     */
+    @Test
+    public void batch() {
+        var random = new Random(1);
+        var count = 7;
+        var size = 53;
+        var bytes = new byte[count * size];
+        random.nextBytes(bytes);
+
+        var dataset = new ByteDataset(count, size, bytes);
+        var order = new int[]{6, 0, 3, 3, 1};
+        var result = dataset.batch(order, 1, new MatrixF32(4, size));
+        var window = new MatrixF32(5, size, new float[5 * (size + 11)], 0, size + 11, false);
+
+        dataset.batch(2, window.rows(1, 3));
+
+        for (var r = 0; r < 4; r++) {
+            for (var j = 0; j < size; j++) {
+                assertEquals(Byte.toUnsignedInt(bytes[order[r + 1] * size + j]) / 255.0f, result.get((long) r * size + j), 1e-7f);
+            }
+        }
+
+        for (var r = 0; r < 3; r++) {
+            for (var j = 0; j < size; j++) {
+                assertEquals(dataset.get(r + 2, j), window.get((long) (r + 1) * window.getStride() + j), 0.0f);
+            }
+        }
+
+        assertEquals(0.0f, window.get(0), 0.0f);
+    }
+}
@@ -0,0 +1,72 @@
+package dataset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdxCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(Path path, int magic, int[] dimensions, byte[] data) throws IOException {
+        try (var output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(path)))) {
+            output.writeInt(magic);
+
+            for (var dimension : dimensions) {
+                output.writeInt(dimension);
+            }
+
+            output.write(data);
+        }
+    }
+
+    @Test
+    public void images() throws IOException {
+        var source = folder.getRoot().toPath().resolve("images-idx3-ubyte.gz");
+        var cache = folder.getRoot().toPath().resolve("cache");
+        write(source, IdxCache.IMAGES, new int[]{3, 2, 2}, new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, (byte) 255});
+
+        var images = IdxCache.images(source, cache);
+
+        assertEquals(3, images.getRows());
+        assertEquals(4, images.getColumns());
+        assertTrue(images.isNative());
+        assertEquals(5 / 255.0f, images.get(5), 0.0f);
+        assertEquals(1.0f, images.get(11), 0.0f);
+
+        // Повторное открытие использует готовый кэш
+        var built = Files.getLastModifiedTime(cache.resolve("images-idx3-ubyte.bin"));
+        assertEquals(9 / 255.0f, IdxCache.images(source, cache).get(9), 0.0f);
+        assertEquals(built, Files.getLastModifiedTime(cache.resolve("images-idx3-ubyte.bin")));
+
+        var bytes = IdxCache.bytes(source, cache);
+        assertEquals(3, bytes.getCount());
+        assertEquals(images.get(11), bytes.get(2, 3), 1e-7f);
+    }
+
+    @Test
+    public void labelsRebuildOnChange() throws IOException {
+        var source = folder.getRoot().toPath().resolve("labels-idx1-ubyte.gz");
+        var cache = folder.getRoot().toPath().resolve("cache");
+        write(source, IdxCache.LABELS, new int[]{4}, new byte[]{7, 2, 1, 0});
+
+        assertArrayEquals(new byte[]{7, 2, 1, 0}, IdxCache.labels(source, cache));
+
+        write(source, IdxCache.LABELS, new int[]{2}, new byte[]{3, 9});
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 1000));
+
+        assertArrayEquals(new byte[]{3, 9}, IdxCache.labels(source, cache));
+    }
+}
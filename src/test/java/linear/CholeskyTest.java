@@ -0,0 +1,70 @@
+package linear;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CholeskyTest {
+
+    /**
+     * m * m^T + n * I, размер не кратен блоку, чтобы проверить неполный последний блок
+     */
+    private static MatrixF32 positiveDefinite(Random random, int n) {
+        var m = new MatrixF32(n, n);
+        for (var i = 0; i < m.getData().length; i++) {
+            m.getData()[i] = random.nextFloat(-1, 1);
+        }
+
+        var result = Ops.product(m, m.transpose());
+        for (var i = 0; i < n; i++) {
+            result.set((long) i * n + i, result.get((long) i * n + i) + n);
+        }
+
+        return result;
+    }
+
+    @Test
+    public void factor() {
+        var n = Cholesky.BLOCK * 2 + 37;
+        var matrix = positiveDefinite(new Random(1), n);
+        var factor = new MatrixF32(n, n, matrix.getData().clone());
+        Cholesky.factor(factor);
+
+        for (var i = 0; i < n; i++) {
+            for (var j = 0; j <= i; j++) {
+                var sum = 0.0;
+                for (var t = 0; t <= j; t++) {
+                    sum += (double) factor.get((long) i * n + t) * factor.get((long) j * n + t);
+                }
+
+                assertEquals(i + ", " + j, matrix.get((long) i * n + j), sum, 1e-2);
+            }
+        }
+    }
+
+    @Test
+    public void solve() {
+        var random = new Random(2);
+        var n = Cholesky.BLOCK + 5;
+        var matrix = positiveDefinite(random, n);
+        var expected = new MatrixF32(n, 3);
+        for (var i = 0; i < expected.getData().length; i++) {
+            expected.getData()[i] = random.nextFloat(-1, 1);
+        }
+
+        var rhs = Ops.product(matrix, expected);
+        var factor = Cholesky.factor(new MatrixF32(n, n, matrix.getData().clone()));
+        Cholesky.solve(factor, rhs);
+
+        for (var i = 0; i < rhs.getData().length; i++) {
+            assertEquals(expected.getData()[i], rhs.getData()[i], 1e-4f);
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void notPositiveDefinite() {
+        Cholesky.factor(new MatrixF32(2, 2, new float[]{1, 2, 2, 1}));
+    }
+}
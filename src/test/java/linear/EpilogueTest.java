@@ -0,0 +1,70 @@
+package linear;
+
+import org.junit.Test;
+
+import java.lang.foreign.Arena;
+import java.util.Arrays;
+import java.util.Random;
+
+import static linear.TestMatrices.random;
+import static org.junit.Assert.assertArrayEquals;
+
+public class EpilogueTest {
+
+    private static void relu(MatrixF32 matrix, int row, int rows) {
+        for (var i = row; i < row + rows; i++) {
+            for (var j = 0; j < matrix.getColumns(); j++) {
+                var index = (long) i * matrix.getStride() + j;
+                matrix.set(index, Math.max(0.0f, matrix.get(index)));
+            }
+        }
+    }
+
+    private static float[] expected(MatrixF32 input, MatrixF32 weights, VectorF32 bias) {
+        var ones = new float[input.getRows()];
+        Arrays.fill(ones, 1.0f);
+
+        var result = Ops.product(input, weights);
+        Ops.product(new VectorF32(ones), bias, result, 1.0f, 1.0f);
+        relu(result, 0, result.getRows());
+
+        return result.getData();
+    }
+
+    @Test
+    public void product() {
+        var random = new Random(1);
+
+        for (var size : new int[][]{{1, 3, 2}, {200, 784, 160}, {37, 50, 1000}}) {
+            var input = random(random, size[0], size[1]);
+            var weights = random(random, size[2], size[1]).transpose();
+            var bias = random(random, 1, size[2]).asVector();
+
+            var result = new MatrixF32(size[0], size[2]);
+            Ops.product(input, weights, bias, result, EpilogueTest::relu);
+
+            assertArrayEquals(expected(input, weights, bias), result.getData(), 1e-4f);
+        }
+    }
+
+    @Test
+    public void nativeProduct() {
+        var random = new Random(2);
+        var input = random(random, 50, 40);
+        var weights = random(random, 40, 30);
+        var bias = random(random, 1, 30).asVector();
+
+        try (var arena = Arena.ofConfined()) {
+            var nativeWeights = MatrixF32.allocate(arena, 40, 30);
+            Ops.copy(weights, nativeWeights);
+
+            var result = MatrixF32.allocate(arena, 50, 30);
+            Ops.product(input, nativeWeights, bias, result, EpilogueTest::relu);
+
+            var actual = new MatrixF32(50, 30);
+            Ops.copy(result, actual);
+
+            assertArrayEquals(expected(input, weights, bias), actual.getData(), 1e-4f);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package linear;
+
+import jdk.incubator.vector.FloatVector;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExpTest {
+
+    private static float exp(float x) {
+        return Ops.exp(FloatVector.broadcast(Ops.species, x)).lane(0);
+    }
+
+    @Test
+    public void relativeError() {
+        var maxError = 0.0;
+
+        for (var x = -87.0f; x < 88.0f; x += 0.001f) {
+            var expected = Math.exp(x);
+            maxError = Math.max(maxError, Math.abs(exp(x) - expected) / expected);
+        }
+
+        assertTrue("max relative error " + maxError, maxError < 2e-7);
+    }
+
+    @Test
+    public void saturation() {
+        assertEquals(0.0f, exp(-100.0f), 0.0f);
+        assertEquals(0.0f, exp(Float.NEGATIVE_INFINITY), 0.0f);
+        assertEquals(1.0f, exp(0.0f), 0.0f);
+        assertTrue(Float.isFinite(exp(100.0f)));
+        assertTrue(exp(100.0f) > 1e38f);
+    }
+}
@@ -0,0 +1,127 @@
+package linear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static linear.TestMatrices.random;
+import static linear.TestMatrices.toArray;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OffHeapTest {
+
+    private static MatrixF32 toNative(Arena arena, MatrixF32 matrix) {
+        var result = MatrixF32.allocate(arena, matrix.getRows(), matrix.getColumns());
+        Ops.copy(matrix, result);
+
+        return result;
+    }
+
+    @Test
+    public void matrixProduct() {
+        var random = new Random(1);
+
+        try (var arena = Arena.ofConfined()) {
+            for (var t1 = 0; t1 < 2; t1++) {
+                for (var t2 = 0; t2 < 2; t2++) {
+                    var a = t1 == 1 ? random(random, 19, 37) : random(random, 37, 19);
+                    var b = t2 == 1 ? random(random, 23, 19) : random(random, 19, 23);
+                    var m1 = t1 == 1 ? a.transpose() : a;
+                    var m2 = t2 == 1 ? b.transpose() : b;
+                    var n1 = t1 == 1 ? toNative(arena, a).transpose() : toNative(arena, a);
+                    var n2 = t2 == 1 ? toNative(arena, b).transpose() : toNative(arena, b);
+
+                    var expected = Ops.product(m1, m2, 0.5f, 0.0f);
+                    var result = MatrixF32.allocate(arena, expected.getRows(), expected.getColumns());
+                    Ops.product(n1, n2, result, 0.5f, 0.0f);
+
+                    assertArrayEquals(expected.getData(), toArray(result), 1e-4f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void vectorProduct() {
+        var random = new Random(2);
+
+        try (var arena = Arena.ofConfined()) {
+            var m = random(random, 13, 29);
+            var n = toNative(arena, m);
+            var x = random(random, 1, 29).asVector();
+            var y = random(random, 1, 13).asVector();
+
+            var expected = Ops.product(m, x, 1.0f, 0.0f);
+            var result = VectorF32.allocate(arena, 13);
+            Ops.product(n, x, result, 1.0f, 0.0f);
+            assertArrayEquals(expected.getData(), toArray(result.toHorizontalMatrix()), 1e-4f);
+
+            expected = Ops.product(y, m, 1.0f, 0.0f);
+            result = VectorF32.allocate(arena, 29);
+            Ops.product(y, n, result, 1.0f, 0.0f);
+            assertArrayEquals(expected.getData(), toArray(result.toHorizontalMatrix()), 1e-4f);
+        }
+    }
+
+    @Test
+    public void elementwise() {
+        var random = new Random(3);
+
+        try (var arena = Arena.ofConfined()) {
+            var x = random(random, 1, 71);
+            var y = random(random, 1, 71);
+            var nx = toNative(arena, x);
+            var ny = toNative(arena, y);
+
+            Ops.add(x, y, 0.3f);
+            Ops.add(nx, ny, 0.3f);
+            assertArrayEquals(y.getData(), toArray(ny), 1e-6f);
+
+            var z = random(random, 1, 71);
+            var nz = toNative(arena, z);
+
+            Ops.multipleElements(x.asVector(), y.asVector(), z.asVector(), 2.0f, 0.5f);
+            Ops.multipleElements(nx.asVector(), ny.asVector(), nz.asVector(), 2.0f, 0.5f);
+            assertArrayEquals(z.getData(), toArray(nz), 1e-6f);
+        }
+    }
+
+    /**
+     * Матрица больше 2^31 элементов поверх отображенного разреженного файла: память занимают только
+     * затронутые страницы. Индексы, представления и вектор из asVector считаются в long
+     */
+    @Test
+    public void largerThanIntRange() throws IOException {
+        var rows = 3;
+        var columns = (1 << 30) + 7;
+        var file = Files.createTempFile("offheap", ".bin");
+
+        try (var arena = Arena.ofConfined(); var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) rows * columns * Float.BYTES, arena);
+            var matrix = new MatrixF32(rows, columns, segment);
+            var vector = matrix.asVector();
+            var last = (long) rows * columns - 1;
+
+            assertEquals((long) rows * columns, vector.getLongSize());
+            assertEquals(matrix.getLongSize(), vector.getLongSize());
+
+            vector.set(last, 1.5f);
+            assertEquals(1.5f, matrix.get(last), 0.0f);
+            assertEquals(1.5f, matrix.view(rows - 1, columns - 1, 1, 1).get(0), 0.0f);
+
+            var x = random(new Random(4), 1, 71);
+            var tail = matrix.view(rows - 1, columns - 72, 1, 71);
+            Ops.add(x, tail, 2.0f);
+            Ops.product(x, 2.0f);
+            assertArrayEquals(x.getData(), toArray(tail), 0.0f);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
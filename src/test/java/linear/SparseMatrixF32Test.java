@@ -0,0 +1,121 @@
+package linear;
+
+import org.junit.Test;
+
+import java.lang.foreign.Arena;
+import java.util.Random;
+
+import static linear.TestMatrices.random;
+import static linear.TestMatrices.toArray;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SparseMatrixF32Test {
+
+    @Test
+    public void randomFanIn() {
+        var matrix = SparseMatrixF32.random(50, 40, 7, new Random(1));
+
+        assertEquals(50 * 7, matrix.getNonZeros());
+
+        for (var row = 0; row < 50; row++) {
+            var start = matrix.getRowStart()[row];
+            assertEquals(start + 7, matrix.getRowStart()[row + 1]);
+
+            for (var k = start + 1; k < start + 7; k++) {
+                // Столбцы строки различны и упорядочены
+                assertEquals(true, matrix.getColumnIndex()[k - 1] < matrix.getColumnIndex()[k]);
+            }
+        }
+    }
+
+    /**
+     * Число столбцов не кратно длине вектора, чтобы проверить хвосты
+     */
+    @Test
+    public void sparseDenseProduct() {
+        var random = new Random(2);
+        var sparse = SparseMatrixF32.random(37, 45, 9, random);
+        var dense = random(random, 45, 43);
+        var expected = Ops.product(sparse.toDense(), dense);
+
+        var result = Ops.product(sparse, dense, new MatrixF32(37, 43));
+
+        assertArrayEquals(expected.getData(), result.getData(), 1e-5f);
+    }
+
+    @Test
+    public void denseSparseTransposedProduct() {
+        var random = new Random(3);
+        var sparse = SparseMatrixF32.random(53, 61, 37, random);
+        var dense = random(random, 11, 61);
+        var expected = Ops.product(dense, sparse.toDense().transpose());
+
+        var result = Ops.product(dense, sparse.transpose(), new MatrixF32(11, 53));
+        assertArrayEquals(expected.getData(), result.getData(), 1e-5f);
+
+        // Без gather для off-heap matrix1 и со строками-видами
+        var offHeap = MatrixF32.allocate(Arena.ofAuto(), 11, 61);
+        Ops.copy(dense, offHeap);
+        var view = random(random, 20, 70).view(5, 4, 11, 61);
+        Ops.copy(dense, view);
+
+        assertArrayEquals(expected.getData(), toArray(Ops.product(offHeap, sparse.transpose(), new MatrixF32(11, 53))), 1e-5f);
+        assertArrayEquals(expected.getData(), toArray(Ops.product(view, sparse.transpose(), new MatrixF32(11, 53))), 1e-5f);
+    }
+
+    @Test
+    public void compress() {
+        var random = new Random(4);
+        var dense = random(random, 9, 45);
+        for (var i = 0; i < dense.getData().length; i += 3) {
+            dense.getData()[i] = 0.0f;
+        }
+
+        var sparse = SparseMatrixF32.compress(dense, null);
+
+        assertEquals(Ops.nonZeros(dense), sparse.getNonZeros());
+        assertArrayEquals(dense.getData(), sparse.toDense().getData(), 0.0f);
+        assertEquals(true, sparse == SparseMatrixF32.compress(dense, sparse));
+    }
+
+    /**
+     * Ядра разреженного входа слоя: прямой проход с транспонированными весами и градиент весов
+     */
+    @Test
+    public void sparseInputProducts() {
+        var random = new Random(5);
+        var sparse = SparseMatrixF32.random(13, 70, 19, random);
+        var weights = random(random, 53, 70).transpose();
+        var gradient = random(random, 13, 53);
+        var bias = new VectorF32(53);
+        for (var i = 0; i < 53; i++) {
+            bias.set(i, random.nextFloat());
+        }
+
+        var expected = Ops.product(sparse.toDense(), weights);
+        for (var i = 0; i < 13; i++) {
+            for (var j = 0; j < 53; j++) {
+                expected.set(i * 53L + j, expected.get(i * 53L + j) + bias.get(j));
+            }
+        }
+
+        var weightsRows = new MatrixF32(70, 53);
+        Ops.copyTransposed(weights, weightsRows);
+
+        for (var k = 0; k < 70; k++) {
+            for (var j = 0; j < 53; j++) {
+                assertEquals(weights.getData()[j * 70 + k], weightsRows.getData()[k * 53 + j], 0.0f);
+            }
+        }
+
+        assertArrayEquals(expected.getData(), Ops.product(sparse, weights, bias, new MatrixF32(13, 53), (m, row, rows) -> {}).getData(), 1e-5f);
+        assertArrayEquals(expected.getData(), Ops.product(sparse, weightsRows, bias, new MatrixF32(13, 53), (m, row, rows) -> {}).getData(), 1e-5f);
+
+        var expectedGradient = Ops.product(sparse.toDense().transpose(), gradient);
+
+        assertArrayEquals(expectedGradient.getData(), Ops.product(sparse.transpose(), gradient, new MatrixF32(70, 53)).getData(), 1e-5f);
+        assertArrayEquals(toArray(Ops.product(gradient.transpose(), sparse.toDense())),
+                Ops.product(gradient.transpose(), sparse, new MatrixF32(53, 70)).getData(), 1e-5f);
+    }
+}
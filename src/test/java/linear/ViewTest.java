@@ -0,0 +1,134 @@
+package linear;
+
+import linear.backend.Netlib;
+import linear.backend.VectorApi;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.foreign.Arena;
+import java.util.Random;
+
+import static linear.TestMatrices.compact;
+import static linear.TestMatrices.random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ViewTest {
+
+    private final Backend.Interface defaultBackend = Ops.getBackend();
+
+    @After
+    public void restoreBackend() {
+        Ops.setBackend(defaultBackend);
+    }
+
+    private void assertProduct(Random random) {
+        for (var t1 = 0; t1 < 2; t1++) {
+            for (var t2 = 0; t2 < 2; t2++) {
+                var a = random(random, 40, 50);
+                var b = random(random, 45, 30);
+                // Окна в правом нижнем углу, чтобы последняя строка хранилища была короче stride
+                var m1 = t1 == 1 ? a.view(40 - 19, 50 - 17, 19, 17).transpose() : a.view(40 - 17, 50 - 19, 17, 19);
+                var m2 = t2 == 1 ? b.view(45 - 23, 30 - 19, 23, 19).transpose() : b.view(45 - 19, 30 - 23, 19, 23);
+                var c = random(random, 30, 31);
+                var result = c.view(30 - 17, 31 - 23, 17, 23);
+                var expected = compact(result);
+
+                Ops.product(compact(m1), compact(m2), expected, 0.5f, 0.3f);
+                Ops.product(m1, m2, result, 0.5f, 0.3f);
+
+                assertArrayEquals("" + t1 + t2, expected.getData(), compact(result).getData(), 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    public void product() {
+        Ops.setBackend(new Netlib());
+        assertProduct(new Random(1));
+
+        Ops.setBackend(new VectorApi());
+        assertProduct(new Random(1));
+    }
+
+    @Test
+    public void nativeProduct() {
+        var random = new Random(2);
+
+        try (var arena = Arena.ofConfined()) {
+            var a = random(random, 20, 30);
+            var b = random(random, 30, 20);
+            var nativeA = MatrixF32.allocate(arena, 20, 30);
+            var nativeB = MatrixF32.allocate(arena, 30, 20);
+            Ops.copy(a, nativeA);
+            Ops.copy(b, nativeB);
+
+            var expected = Ops.product(a.view(3, 5, 11, 13), b.view(5, 7, 13, 9), 1.0f, 0.0f);
+            var result = MatrixF32.allocate(arena, 11, 9);
+            Ops.product(nativeA.view(3, 5, 11, 13), nativeB.view(5, 7, 13, 9), result, 1.0f, 0.0f);
+
+            assertArrayEquals(expected.getData(), compact(result).getData(), 1e-4f);
+        }
+    }
+
+    /**
+     * Произведение представления на вектор совпадает с произведением его непрерывной копии
+     */
+    @Test
+    public void vectorProduct() {
+        var random = new Random(5);
+        var a = random(random, 30, 40);
+        var x = random(random, 1, 40).asVector();
+
+        for (var t = 0; t < 2; t++) {
+            var view = t == 1 ? a.view(5, 3, 17, 13).transpose() : a.view(5, 3, 17, 13);
+            var vector = new VectorF32(view.getColumns());
+            System.arraycopy(x.getData(), 0, vector.getData(), 0, vector.getSize());
+
+            var expected = Ops.product(compact(view), vector, 0.5f, 0.0f);
+            var result = Ops.product(view, vector, 0.5f, 0.0f);
+
+            assertArrayEquals("" + t, expected.getData(), result.getData(), 1e-5f);
+        }
+    }
+
+    @Test
+    public void rows() {
+        var random = new Random(3);
+        var dataset = random(random, 100, 7);
+        var batch = dataset.rows(40, 20);
+        var weights = random(random, 7, 5);
+
+        var expected = new MatrixF32(20, 7);
+        System.arraycopy(dataset.getData(), 40 * 7, expected.getData(), 0, 20 * 7);
+
+        assertEquals(40 * 7, batch.getOffset());
+        assertArrayEquals(Ops.product(expected, weights).getData(), Ops.product(batch, weights).getData(), 1e-5f);
+    }
+
+    @Test
+    public void elementwise() {
+        var random = new Random(4);
+        var x = random(random, 13, 21);
+        var y = random(random, 13, 21);
+        var xView = x.view(2, 3, 9, 11);
+        var yView = y.view(4, 1, 9, 11);
+        var xCompact = compact(xView);
+        var yCompact = compact(yView);
+        var before = y.getData().clone();
+
+        Ops.add(xView, yView, 0.7f);
+        Ops.add(xCompact, yCompact, 0.7f);
+        assertArrayEquals(yCompact.getData(), compact(yView).getData(), 1e-6f);
+
+        Ops.product(yView, 2.0f);
+        Ops.product(yCompact, 2.0f);
+        assertArrayEquals(yCompact.getData(), compact(yView).getData(), 1e-6f);
+        assertEquals(Ops.norm(yCompact), Ops.norm(yView), 1e-4f);
+
+        // Элементы вне представления не изменяются
+        assertEquals(before[0], y.getData()[0], 0.0f);
+        assertEquals(before[4 * 21], y.getData()[4 * 21], 0.0f);
+        assertEquals(before[4 * 21 + 12], y.getData()[4 * 21 + 12], 0.0f);
+    }
+}
@@ -0,0 +1,91 @@
+package linear.backend;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static linear.TestMatrices.random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class VectorApiTest {
+
+    private final Netlib netlib = new Netlib();
+    private final VectorApi vector = new VectorApi();
+
+    private void assertSgemm(Random random, String ta, String tb, int m, int n, int k, float alpha, float beta) {
+        var lda = (ta.equals("N") ? m : k) + 3;
+        var ldb = (tb.equals("N") ? k : n) + 1;
+        var ldc = m + 2;
+        var a = random(random, lda * (ta.equals("N") ? k : m) + 5);
+        var b = random(random, ldb * (tb.equals("N") ? n : k) + 7);
+        var expected = random(random, ldc * n + 4);
+        var result = expected.clone();
+
+        netlib.sgemm(ta, tb, m, n, k, alpha, a, 5, lda, b, 7, ldb, beta, expected, 4, ldc);
+        vector.sgemm(ta, tb, m, n, k, alpha, a, 5, lda, b, 7, ldb, beta, result, 4, ldc);
+
+        assertArrayEquals(ta + tb + " " + m + "x" + n + "x" + k, expected, result, 1e-3f);
+    }
+
+    @Test
+    public void sgemm() {
+        var random = new Random(1);
+
+        for (var ta : new String[]{"N", "T"}) {
+            for (var tb : new String[]{"N", "T"}) {
+                assertSgemm(random, ta, tb, 1, 1, 1, 1.0f, 0.0f);
+                assertSgemm(random, ta, tb, 37, 11, 5, 0.5f, 1.0f);
+                assertSgemm(random, ta, tb, 160, 200, 784, 1.0f, 0.0f);
+                assertSgemm(random, ta, tb, 10, 200, 300, 1.0f, 0.3f);
+                assertSgemm(random, ta, tb, 333, 7, 513, -2.0f, 1.0f);
+            }
+        }
+    }
+
+    @Test
+    public void sgemv() {
+        var random = new Random(2);
+
+        for (var trans : new String[]{"N", "T"}) {
+            for (var size : new int[][]{{1, 1}, {17, 5}, {784, 160}, {10, 1280}}) {
+                var m = size[0];
+                var n = size[1];
+                var a = random(random, (m + 1) * n + 3);
+                var x = random(random, (trans.equals("N") ? n : m) + 2);
+                var expected = random(random, (trans.equals("N") ? m : n) + 1);
+                var result = expected.clone();
+
+                netlib.sgemv(trans, m, n, 0.7f, a, 3, m + 1, x, 2, 0.5f, expected, 1);
+                vector.sgemv(trans, m, n, 0.7f, a, 3, m + 1, x, 2, 0.5f, result, 1);
+
+                assertArrayEquals(trans + " " + m + "x" + n, expected, result, 1e-3f);
+            }
+        }
+    }
+
+    @Test
+    public void level1() {
+        var random = new Random(3);
+        var x = random(random, 101);
+        var y = random(random, 101);
+        var z = random(random, 101);
+
+        assertEquals(netlib.sdot(99, x, 2, y, 1), vector.sdot(99, x, 2, y, 1), 1e-4f);
+        assertEquals(netlib.isamax(99, x, 2), vector.isamax(99, x, 2));
+
+        var expected = z.clone();
+        netlib.multipleElements(97, 1.5f, x, 1, y, 2, 0.5f, expected, 3);
+        vector.multipleElements(97, 1.5f, x, 1, y, 2, 0.5f, z, 3);
+        assertArrayEquals(expected, z, 1e-5f);
+
+        expected = y.clone();
+        netlib.saxpy(99, -0.3f, x, 1, expected, 2);
+        vector.saxpy(99, -0.3f, x, 1, y, 2);
+        assertArrayEquals(expected, y, 1e-5f);
+
+        netlib.sscal(99, 3f, expected, 1);
+        vector.sscal(99, 3f, y, 1);
+        assertArrayEquals(expected, y, 1e-5f);
+    }
+}
@@ -3,7 +3,11 @@ package neural;
 import linear.MatrixF32;
 import org.junit.Test;
 
+import java.util.Random;
+
+import static linear.TestMatrices.random;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 public class ActivationTest {
 
@@ -13,4 +17,81 @@ public class ActivationTest {
         var result = relu.applyBatch(new MatrixF32(1, 3, new float[]{-3, 1, 3}));
         assertArrayEquals(new float[]{-2.2f, 2f, 4.2f}, result.getData(), 0.1f);
     }
-}
\ No newline at end of file
+
+    /**
+     * Ширина 37 дает и полные векторы, и хвост по маске
+     */
+    @Test
+    public void elementwise() {
+        var random = new Random(1);
+        var input = random(random, 5, 37, 3.0f);
+        var srelu = new Activation.SReLU(0.1f, 2f, 0.2f, -1f, 2f);
+
+        var relu = new Activation.ReLU().applyBatch(copy(input)).getData();
+        var leaky = new Activation.LeakyReLU().applyBatch(copy(input)).getData();
+        var s = srelu.applyBatch(copy(input)).getData();
+        var reluDiff = new Activation.ReLU().diffBatch(input, new MatrixF32(5, 37)).getData();
+        var leakyDiff = new Activation.LeakyReLU().diffBatch(input, new MatrixF32(5, 37)).getData();
+        var sDiff = srelu.diffBatch(input, new MatrixF32(5, 37)).getData();
+
+        for (var i = 0; i < input.getSize(); i++) {
+            var x = input.get(i);
+            assertEquals(x > 0 ? x : 0, relu[i], 0.0f);
+            assertEquals(x > 0 ? x : 0.01f * x, leaky[i], 1e-7f);
+            assertEquals(x < -1 ? (x + 1) * 0.1f - 2f : x < 2 ? x * 2f : (x - 2) * 0.2f + 4f, s[i], 1e-6f);
+            assertEquals(x > 0 ? 1 : 0, reluDiff[i], 0.0f);
+            assertEquals(x > 0 ? 1 : 0.01f, leakyDiff[i], 0.0f);
+            assertEquals(x < -1 ? 0.1f : x < 2 ? 2f : 0.2f, sDiff[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void softmax() {
+        var random = new Random(2);
+        var input = random(random, 4, 37, 3.0f);
+
+        for (var activation : new Activation.Interface[]{new Activation.Softmax(), new Activation.SoftmaxStable()}) {
+            var result = activation.applyBatch(copy(input));
+
+            for (var i = 0; i < input.getRows(); i++) {
+                var sum = 0.0;
+                for (var j = 0; j < input.getColumns(); j++) {
+                    sum += Math.exp(input.get(i * 37L + j));
+                }
+
+                for (var j = 0; j < input.getColumns(); j++) {
+                    assertEquals(Math.exp(input.get(i * 37L + j)) / sum, result.get(i * 37L + j), 1e-6);
+                }
+            }
+        }
+    }
+
+    /**
+     * Активация блока строк представления не выходит за его столбцы
+     */
+    @Test
+    public void view() {
+        var random = new Random(3);
+        var matrix = random(random, 6, 40, 3.0f);
+        var original = copy(matrix);
+
+        new Activation.SoftmaxStable().applyRows(matrix.view(1, 2, 4, 35), 1, 2);
+
+        for (var i = 0; i < 6; i++) {
+            var sum = 0.0;
+            for (var j = 2; j < 37; j++) {
+                sum += Math.exp(original.get(i * 40L + j));
+            }
+
+            for (var j = 0; j < 40; j++) {
+                var x = original.get(i * 40L + j);
+                var inside = i >= 2 && i < 4 && j >= 2 && j < 37;
+                assertEquals(inside ? Math.exp(x) / sum : x, matrix.get(i * 40L + j), 1e-6);
+            }
+        }
+    }
+
+    private static MatrixF32 copy(MatrixF32 matrix) {
+        return new MatrixF32(matrix.getRows(), matrix.getColumns(), matrix.getData().clone());
+    }
+}
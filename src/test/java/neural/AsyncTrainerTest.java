@@ -0,0 +1,55 @@
+package neural;
+
+import linear.MatrixF32;
+import neural.optimizer.Adam;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncTrainerTest {
+
+    private static void train(boolean stripedState) {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam())
+                .addLayer(32).parent()
+                .addLayer(24).set(new Activation.LeakyReLU()).parent()
+                .addLayer(8).set(new Activation.SoftmaxStable()).parent();
+
+        var samples = 4000;
+        var input = new MatrixF32(samples, 32);
+        var target = new MatrixF32(samples, 8);
+
+        for (var i = 0; i < samples; i++) {
+            var label = random.nextInt(8);
+            target.set(i * 8L + label, 1.0f);
+
+            for (var j = 0; j < 32; j++) {
+                input.set(i * 32L + j, (j % 8 == label ? 1.0f : 0.0f) + random.nextFloat() * 0.3f);
+            }
+        }
+
+        var trainer = new AsyncTrainer(network, Adam::new, 4, stripedState);
+        AsyncTrainer.Result result = null;
+
+        for (var epoch = 0; epoch < 10; epoch++) {
+            result = trainer.train(input, target, 50, 0.002f);
+        }
+
+        assertEquals(samples, result.samples());
+        assertTrue(result.samplesPerSecond() > 0);
+        assertTrue("error rate " + result.errorRate(), result.errorRate() < 0.02f);
+    }
+
+    @Test
+    public void workerState() {
+        train(false);
+    }
+
+    @Test
+    public void stripedState() {
+        train(true);
+    }
+}
@@ -0,0 +1,68 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+import neural.optimizer.SGD;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BackPropagationTest {
+
+    /**
+     * Для softmax с перекрестной энтропией градиент выходного слоя равен predicted - target
+     */
+    @Test
+    public void softmaxCrossEntropyGradient() {
+        var random = new Random(1);
+        var batch = 3;
+        var inputs = 5;
+        var classes = 4;
+        var eta = 0.1f;
+
+        var input = new MatrixF32(batch, inputs);
+        var target = new MatrixF32(batch, classes);
+        for (var i = 0; i < batch; i++) {
+            target.set((long) i * classes + random.nextInt(classes), 1.0f);
+            for (var j = 0; j < inputs; j++) {
+                input.set((long) i * inputs + j, random.nextFloat(-1, 1));
+            }
+        }
+
+        var weightsData = new float[inputs * classes];
+        for (var i = 0; i < weightsData.length; i++) {
+            weightsData[i] = random.nextFloat(-0.5f, 0.5f);
+        }
+
+        var inputLayer = new Layer(null, inputs, null);
+        var outputLayer = new Layer(null, classes, new MatrixF32(inputs, classes, weightsData.clone(), true))
+                .set(new Activation.SoftmaxStable())
+                .setL2(0);
+
+        var result = Ops.product(input, outputLayer.weights, outputLayer.bias, new MatrixF32(batch, classes), outputLayer.activation);
+        var predicted = result.getData().clone();
+
+        new BackPropagation().apply(new SGD(), new Layer[]{inputLayer, outputLayer}, new MatrixF32[]{input, result}, target, eta);
+
+        for (var k = 0; k < classes; k++) {
+            var biasGradient = 0.0f;
+
+            for (var j = 0; j < inputs; j++) {
+                var gradient = 0.0f;
+                for (var b = 0; b < batch; b++) {
+                    gradient += (predicted[b * classes + k] - target.get((long) b * classes + k)) * input.get((long) b * inputs + j);
+                }
+
+                assertEquals(weightsData[k * inputs + j] - eta * gradient, outputLayer.weights.get((long) k * inputs + j), 1e-6f);
+            }
+
+            for (var b = 0; b < batch; b++) {
+                biasGradient += predicted[b * classes + k] - target.get((long) b * classes + k);
+            }
+
+            assertEquals(-eta * biasGradient, outputLayer.bias.get(k), 1e-6f);
+        }
+    }
+}
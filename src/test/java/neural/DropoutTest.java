@@ -0,0 +1,145 @@
+package neural;
+
+import linear.MatrixF32;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DropoutTest {
+
+    private static int dropped(Dropout.Mask mask, int rows, int columns) {
+        var count = 0;
+        for (var r = 0; r < rows; r++) {
+            for (var c = 0; c < columns; c++) {
+                count += mask.isDropped(r, c) ? 1 : 0;
+            }
+        }
+
+        return count;
+    }
+
+    private static boolean same(Dropout.Mask a, Dropout.Mask b, int rows, int columns) {
+        for (var r = 0; r < rows; r++) {
+            for (var c = 0; c < columns; c++) {
+                if (a.isDropped(r, c) != b.isDropped(r, c)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Test
+    public void sameKeySameMask() {
+        var a = new Dropout.Zero(new Random(1), 0.5f);
+        var b = new Dropout.Zero(new Random(1), 0.5f);
+
+        var first = a.init(7, 2, 0, 10, 100, null);
+        var other = a.init(8, 2, 0, 10, 100, null);
+
+        assertTrue(same(first, b.init(7, 2, 0, 10, 100, null), 10, 100));
+        assertFalse(same(first, other, 10, 100));
+        assertFalse(same(first, a.init(7, 3, 0, 10, 100, null), 10, 100));
+    }
+
+    /**
+     * Маски шагов и слоев, построенные в других потоках и в обратном порядке, совпадают с построенными подряд
+     * в вызывающем потоке
+     */
+    @Test
+    public void sameMaskInOtherThreads() throws InterruptedException {
+        var steps = 32;
+        var layers = 4;
+        var threads = new Thread[4];
+        var serial = new Dropout.Mask[steps * layers];
+        var parallel = new Dropout.Mask[steps * layers];
+        var a = new Dropout.Zero(new Random(1), 0.5f);
+        var b = new Dropout.Zero(new Random(1), 0.5f);
+
+        for (var i = 0; i < serial.length; i++) {
+            serial[i] = a.init(i / layers, i % layers, 0, 10, 100, null);
+        }
+
+        for (var t = 0; t < threads.length; t++) {
+            final var thread = t;
+            threads[t] = Thread.ofPlatform().start(() -> {
+                for (var i = parallel.length - 1 - thread; i >= 0; i -= threads.length) {
+                    parallel[i] = b.init(i / layers, i % layers, 0, 10, 100, null);
+                }
+            });
+        }
+
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        for (var i = 0; i < serial.length; i++) {
+            assertTrue("" + i, same(serial[i], parallel[i], 10, 100));
+        }
+    }
+
+    @Test
+    public void reusesMask() {
+        var dropout = new Dropout.Zero(new Random(1), 0.3f);
+        var mask = dropout.init(0, 0, 0, 5, 100, null);
+
+        assertSame(mask, dropout.init(1, 0, 0, 5, 100, mask));
+        assertEquals(0, dropped(new Dropout.Zero(new Random(1), 0.0f).init(0, 0, 0, 5, 100, null), 5, 100));
+    }
+
+    @Test
+    public void droppedFraction() {
+        var rows = 100;
+        var columns = 1000;
+        for (var k : new float[]{0.1f, 0.5f, 0.8f}) {
+            var dropout = new Dropout.Zero(new Random(2), k);
+            var mask = dropout.init(3, 1, 0, rows, columns, null);
+            var matrix = new MatrixF32(rows, columns);
+            matrix.asVector().fill(1.0f);
+
+            mask.apply(matrix, 0, rows);
+
+            var zeros = 0;
+            for (var i = 0; i < rows * columns; i++) {
+                zeros += matrix.get(i) == 0.0f ? 1 : 0;
+            }
+
+            assertEquals(dropped(mask, rows, columns), zeros);
+            assertEquals(k, (float) zeros / (rows * columns), 0.01f);
+        }
+    }
+
+    /**
+     * Маска в ядрах активации дает тот же результат, что отдельный проход после активации
+     */
+    @Test
+    public void fusedMask() {
+        var random = new Random(3);
+        var rows = 7;
+        var columns = 37;
+        var mask = new Dropout.Zero(random, 0.5f).init(0, 1, 0, rows, columns, null);
+
+        for (var activation : new Activation.Interface[]{new Activation.ReLU(), new Activation.LeakyReLU(), new Activation.SReLU(), new Activation.Linear(), new Activation.Softmax(), new Activation.SoftmaxStable(), new Activation.SoftmaxStable2()}) {
+            var data = new float[rows * columns];
+            for (var i = 0; i < data.length; i++) {
+                data[i] = random.nextFloat(-2, 2);
+            }
+
+            var fused = new MatrixF32(rows, columns, data.clone());
+            var expected = new MatrixF32(rows, columns, data.clone());
+
+            activation.applyRows(fused, 0, rows, mask);
+            activation.applyRows(expected, 0, rows);
+            mask.apply(expected, 0, rows);
+            assertArrayEquals(expected.getData(), fused.getData(), 0.0f);
+
+            var fusedDiff = activation.diffBatch(expected, new MatrixF32(rows, columns), mask);
+            var expectedDiff = activation.diffBatch(expected, new MatrixF32(rows, columns));
+            mask.apply(expectedDiff, 0, rows);
+            assertArrayEquals(expectedDiff.getData(), fusedDiff.getData(), 0.0f);
+        }
+    }
+}
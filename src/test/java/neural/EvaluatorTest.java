@@ -0,0 +1,55 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+import neural.optimizer.SGD;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class EvaluatorTest {
+
+    /**
+     * Части с неполной последней и несколько потоков дают ту же матрицу ошибок, что eval всей выборки
+     */
+    @Test
+    public void sameAsEval() {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new SGD())
+                .addLayer(20).parent()
+                .addLayer(16).set(new Activation.LeakyReLU()).set(new Dropout.Zero(random, 0.5f)).parent()
+                .addLayer(4).set(new Activation.SoftmaxStable()).parent();
+
+        var rows = 53;
+        var samples = new MatrixF32(rows, 20);
+        var labels = new byte[rows];
+
+        for (var i = 0; i < rows; i++) {
+            labels[i] = (byte) random.nextInt(4);
+
+            for (var j = 0; j < 20; j++) {
+                samples.set(i * 20L + j, random.nextFloat());
+            }
+        }
+
+        var output = network.eval(samples);
+        var expected = new long[16];
+
+        for (var i = 0; i < rows; i++) {
+            expected[labels[i] * 4 + Ops.argmax(output, i)]++;
+        }
+
+        var evaluator = new Evaluator(network, 7, 3);
+        var result = evaluator.evaluate(samples, labels);
+
+        assertArrayEquals(expected, result.confusion());
+        assertEquals(rows, result.samples());
+
+        // Повторный вызов использует те же буферы
+        assertArrayEquals(expected, evaluator.evaluate(samples, labels).confusion());
+        assertArrayEquals(expected, new Evaluator(network, 64, 1).evaluate(samples, labels).confusion());
+    }
+}
@@ -0,0 +1,155 @@
+package neural;
+
+import com.sun.management.ThreadMXBean;
+import linear.MatrixF32;
+import neural.optimizer.SGD;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class InferenceModelTest {
+
+    private static FeedForwardNeuralNetwork network(Random random) {
+        return new FeedForwardNeuralNetwork(random, new SGD())
+                .addLayer(20).parent()
+                .addLayer(16).set(new Activation.LeakyReLU()).set(new Dropout.Zero(random, 0.5f)).parent()
+                .addLayer(4).set(new Activation.SoftmaxStable()).parent();
+    }
+
+    private static MatrixF32 samples(Random random, int rows) {
+        var samples = new MatrixF32(rows, 20);
+
+        for (var i = 0L; i < samples.getLongSize(); i++) {
+            samples.set(i, random.nextFloat());
+        }
+
+        return samples;
+    }
+
+    /**
+     * Пакет длиннее CHUNK и отдельные образцы дают то же, что eval, обучение сети после compile модель не меняет
+     */
+    @Test
+    public void sameAsEval() {
+        var random = new Random(1);
+        var network = network(random);
+        var samples = samples(random, InferenceModel.CHUNK + 37);
+        var expected = network.eval(samples);
+        var model = network.compile();
+
+        assertArrayEquals(expected.getData(), model.predict(samples).getData(), 1e-6f);
+
+        var target = new MatrixF32(samples.getRows(), 4);
+        for (var i = 0; i < samples.getRows(); i++) {
+            target.set(i * 4L + i % 4, 1.0f);
+        }
+        network.train(samples, target, 0.1f);
+
+        assertArrayEquals(expected.getData(), model.predict(samples).getData(), 1e-6f);
+
+        var sample = new float[20];
+        var result = new float[4];
+        for (var i = 0; i < 5; i++) {
+            System.arraycopy(samples.getData(), i * 20, sample, 0, 20);
+            model.predict(sample, result);
+
+            for (var j = 0; j < 4; j++) {
+                assertEquals(expected.get(i * 4L + j), result[j], 1e-6f);
+            }
+        }
+    }
+
+    /**
+     * Одновременные вызовы из многих потоков на одной модели, больше, чем ядер: буферы берутся из общего стека,
+     * пакетные буферы выделяются при первом пакетном вызове буфера
+     */
+    @Test
+    public void concurrentPredict() throws InterruptedException {
+        var random = new Random(2);
+        var model = network(random).compile();
+        var samples = samples(random, 64);
+        var expected = model.predict(samples);
+        var failures = new AtomicInteger();
+        var threads = new ArrayList<Thread>();
+
+        for (var t = 0; t < 32; t++) {
+            final var offset = t;
+            threads.add(Thread.ofVirtual().start(() -> {
+                var sample = new float[20];
+                var result = new float[4];
+                var batch = new MatrixF32(samples.getRows(), 4);
+
+                for (var n = 0; n < 500; n++) {
+                    if (n % 50 == offset % 50) {
+                        model.predict(samples, batch);
+
+                        for (var i = 0L; i < batch.getLongSize(); i++) {
+                            if (batch.get(i) != expected.get(i)) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+
+                    var row = (offset + n) % samples.getRows();
+                    System.arraycopy(samples.getData(), row * 20, sample, 0, 20);
+                    model.predict(sample, result);
+
+                    for (var j = 0; j < 4; j++) {
+                        if (result[j] != expected.get(row * 4L + j)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+    }
+
+    /**
+     * Берется меньшее из окон, до первого без выделений: пока C2 перекомпилирует эпилоги активаций с профилем,
+     * загрязненным другими тестами, векторы в них временно размещаются в куче, и это не зависит от модели
+     */
+    @Test
+    public void predictDoesNotAllocate() {
+        var random = new Random(3);
+        var model = network(random).compile();
+        var samples = samples(random, 16);
+        var output = new MatrixF32(16, 4);
+        var sample = new float[20];
+        var result = new float[4];
+        var threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var thread = Thread.currentThread().threadId();
+
+        // Прогрев: буферы пула и JIT-компиляция
+        for (var i = 0; i < 20000; i++) {
+            model.predict(samples, output);
+            model.predict(sample, result);
+        }
+
+        var allocated = Long.MAX_VALUE;
+
+        for (var window = 0; window < 50 && allocated > 0; window++) {
+            var before = threads.getThreadAllocatedBytes(thread);
+
+            for (var i = 0; i < 1000; i++) {
+                model.predict(samples, output);
+                model.predict(sample, result);
+            }
+
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+
+        assertEquals(0, allocated);
+    }
+}
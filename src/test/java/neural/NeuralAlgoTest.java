@@ -0,0 +1,40 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.VectorF32;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static linear.TestMatrices.random;
+import static linear.TestMatrices.row;
+import static org.junit.Assert.assertArrayEquals;
+
+public class NeuralAlgoTest {
+
+    /**
+     * Пакетный deltaCorrection равен сумме deltaCorrection по строкам пакета: результаты строк посчитаны
+     * на весах до пакета, поправки копятся в общих весах. Размеры не кратны длине вектора
+     */
+    @Test
+    public void batchDeltaCorrection() {
+        var random = new Random(1);
+        var rows = 5;
+        var prev = 13;
+        var outputs = 6;
+        var result = random(random, rows, outputs);
+        var target = random(random, rows, outputs);
+        var hidden = random(random, rows, prev);
+        var weights = random(random, outputs, prev).getData();
+        var expected = weights.clone();
+
+        for (var r = 0; r < rows; r++) {
+            NeuralAlgo.deltaCorrection(0.1f, new VectorF32(row(result, r)), row(target, r), new VectorF32(row(hidden, r)),
+                    new MatrixF32(outputs, prev, expected), 0.0f);
+        }
+
+        NeuralAlgo.deltaCorrection(0.1f, result, target, hidden, new MatrixF32(prev, outputs, weights), new MatrixF32(rows, outputs));
+
+        assertArrayEquals(expected, weights, 1e-5f);
+    }
+}
@@ -0,0 +1,48 @@
+package neural;
+
+import linear.MatrixF32;
+import linear.Ops;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RidgeRegressionTest {
+
+    /**
+     * Точная линейная зависимость восстанавливается при накоплении пакетами разного размера
+     */
+    @Test
+    public void recoversLinearMap() {
+        var random = new Random(1);
+        var features = 150;
+        var outputs = 4;
+        var samples = 1000;
+        var x = new MatrixF32(samples, features);
+        var w = new MatrixF32(features, outputs);
+
+        for (var i = 0; i < x.getData().length; i++) {
+            x.getData()[i] = random.nextFloat(-1, 1);
+        }
+        for (var i = 0; i < w.getData().length; i++) {
+            w.getData()[i] = random.nextFloat(-1, 1);
+        }
+
+        var y = Ops.product(x, w);
+        var regression = new RidgeRegression(features, outputs);
+
+        for (var row = 0; row < samples; row += 300) {
+            var rows = Math.min(300, samples - row);
+            regression.add(x.rows(row, rows), y.rows(row, rows));
+        }
+
+        assertEquals(samples, regression.samples());
+
+        var result = regression.solve(1e-6f, new MatrixF32(features, outputs));
+
+        for (var i = 0; i < w.getData().length; i++) {
+            assertEquals(w.getData()[i], result.getData()[i], 1e-2f);
+        }
+    }
+}
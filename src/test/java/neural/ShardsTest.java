@@ -0,0 +1,57 @@
+package neural;
+
+import linear.MatrixF32;
+import neural.optimizer.Adam;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ShardsTest {
+
+    private static Layer[] network(int shards) {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam()).setShards(shards);
+        network.addLayer(40).set(new Dropout.Zero(random, 0.1f));
+
+        return new Layer[]{
+                network.addLayer(30).set(new Activation.LeakyReLU()).set(new Dropout.Zero(random, 0.3f)),
+                network.addLayer(20).set(new Activation.ReLU()),
+                network.addLayer(10).set(new Activation.SoftmaxStable()),
+        };
+    }
+
+    /**
+     * Обучение по частям пакета совпадает с обучением в одном потоке с точностью до порядка суммирования
+     */
+    @Test
+    public void sameAsSequential() {
+        var random = new Random(2);
+        var batch = 37;
+        var input = new MatrixF32(batch, 40);
+        var target = new MatrixF32(batch, 10);
+
+        for (var i = 0; i < batch; i++) {
+            target.set(i * 10L + random.nextInt(10), 1.0f);
+            for (var j = 0; j < 40; j++) {
+                input.set(i * 40L + j, random.nextFloat());
+            }
+        }
+
+        var sequential = network(1);
+        var parallel = network(5);
+
+        for (var step = 0; step < 20; step++) {
+            var expected = sequential[0].parent().train(input, target, 0.01f).getData().clone();
+            var actual = parallel[0].parent().train(input, target, 0.01f).getData();
+
+            assertArrayEquals(expected, actual, 1e-5f);
+        }
+
+        for (var i = 0; i < sequential.length; i++) {
+            assertArrayEquals(sequential[i].weights.getData(), parallel[i].weights.getData(), 1e-5f);
+            assertArrayEquals(sequential[i].bias.getData(), parallel[i].bias.getData(), 1e-5f);
+        }
+    }
+}
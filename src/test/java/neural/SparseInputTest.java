@@ -0,0 +1,59 @@
+package neural;
+
+import linear.MatrixF32;
+import neural.optimizer.Adam;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SparseInputTest {
+
+    private static Layer[] network(int shards, float sparseInput) {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam()).setShards(shards).setSparseInput(sparseInput);
+        network.addLayer(70).set(new Dropout.Zero(random, 0.1f));
+
+        return new Layer[]{
+                network.addLayer(33).set(new Activation.LeakyReLU()).set(new Dropout.Zero(random, 0.3f)),
+                network.addLayer(10).set(new Activation.SoftmaxStable()),
+        };
+    }
+
+    /**
+     * Обучение через разреженный первый слой совпадает с плотным с точностью до порядка суммирования
+     */
+    @Test
+    public void sameAsDense() {
+        var random = new Random(2);
+        var batch = 37;
+        var input = new MatrixF32(batch, 70);
+        var target = new MatrixF32(batch, 10);
+
+        for (var i = 0; i < batch; i++) {
+            target.set(i * 10L + random.nextInt(10), 1.0f);
+            for (var j = 0; j < 70; j++) {
+                // Около 80% нулей, как в MNIST
+                input.set(i * 70L + j, random.nextFloat() < 0.2f ? random.nextFloat() : 0.0f);
+            }
+        }
+
+        for (var shards : new int[]{1, 3}) {
+            var dense = network(shards, 0.0f);
+            var sparse = network(shards, 0.5f);
+
+            for (var step = 0; step < 20; step++) {
+                var expected = dense[0].parent().train(input, target, 0.01f).getData().clone();
+                var actual = sparse[0].parent().train(input, target, 0.01f).getData();
+
+                assertArrayEquals(expected, actual, 1e-5f);
+            }
+
+            for (var i = 0; i < dense.length; i++) {
+                assertArrayEquals(dense[i].weights.getData(), sparse[i].weights.getData(), 1e-5f);
+                assertArrayEquals(dense[i].bias.getData(), sparse[i].bias.getData(), 1e-5f);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package neural;
+
+import com.sun.management.ThreadMXBean;
+import linear.Backend;
+import linear.MatrixF32;
+import linear.Ops;
+import linear.backend.VectorApi;
+import neural.optimizer.Adam;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Бэкенд VectorApi: netlib на Java сам выделяет упаковочные буферы в sgemm, а его векторные ядра в потоках пула
+ * после поздней перекомпиляции C2 иногда размещают векторы в куче
+ */
+public class TrainAllocationTest {
+    private static final int WINDOWS = 5;
+
+    private final Backend.Interface defaultBackend = Ops.getBackend();
+
+    @Before
+    public void setBackend() {
+        Ops.setBackend(new VectorApi());
+    }
+
+    @After
+    public void restoreBackend() {
+        Ops.setBackend(defaultBackend);
+    }
+
+    @Test
+    public void trainStepDoesNotAllocate() {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam())
+                .addLayer(64).parent()
+                .addLayer(32).set(new Activation.LeakyReLU()).parent()
+                .addLayer(10).set(new Activation.SoftmaxStable()).parent();
+
+        assertStepDoesNotAllocate(random, network);
+    }
+
+    @Test
+    public void dropoutStepDoesNotAllocate() {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam())
+                .addLayer(64).set(new Dropout.Zero(random, 0.2f)).parent()
+                .addLayer(32).set(new Activation.LeakyReLU()).set(new Dropout.Zero(random, 0.5f)).parent()
+                .addLayer(10).set(new Activation.SoftmaxStable()).parent();
+
+        assertStepDoesNotAllocate(random, network);
+    }
+
+    /**
+     * Части пакета считаются в потоках пула Ops, поэтому считается память, выделенная всеми потоками
+     */
+    @Test
+    public void shardedStepDoesNotAllocate() {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam())
+                .setShards(3)
+                .addLayer(64).set(new Dropout.Zero(random, 0.2f)).parent()
+                .addLayer(32).set(new Activation.LeakyReLU()).parent()
+                .addLayer(10).set(new Activation.SoftmaxStable()).parent();
+
+        assertStepDoesNotAllocate(random, network);
+    }
+
+    /**
+     * Вход с долей ненулевых около 0,1 идет через разреженный первый слой: сжатие в CSR в буферы прошлого шага,
+     * веса первого слоя перекладываются один раз на шаг для всех частей пакета
+     */
+    @Test
+    public void sparseInputStepDoesNotAllocate() {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam())
+                .setShards(3)
+                .setSparseInput(0.3f)
+                .addLayer(64).parent()
+                .addLayer(32).set(new Activation.LeakyReLU()).parent()
+                .addLayer(10).set(new Activation.SoftmaxStable()).parent();
+
+        assertStepDoesNotAllocate(random, network, 0.0f, 16, 20000, 1000);
+    }
+
+    /**
+     * Слой 512 x 512 при пакете 40 больше порогов параллельного выполнения и произведений (прямой проход блоками
+     * с epilogue, градиент весов), и оптимизатора: задачи пула берутся из кэша, шаг после прогрева не выделяет памяти
+     */
+    @Test
+    public void parallelStepDoesNotAllocate() {
+        var random = new Random(1);
+        var network = new FeedForwardNeuralNetwork(random, new Adam())
+                .addLayer(512).parent()
+                .addLayer(512).set(new Activation.LeakyReLU()).parent()
+                .addLayer(10).set(new Activation.SoftmaxStable()).parent();
+
+        assertStepDoesNotAllocate(random, network, 0.1f, 40, 3000, 100);
+    }
+
+    private static void assertStepDoesNotAllocate(Random random, FeedForwardNeuralNetwork network) {
+        assertStepDoesNotAllocate(random, network, 0.1f, 16, 20000, 1000);
+    }
+
+    /**
+     * После прогрева из warmUp шагов каждое из WINDOWS окон по window шагов не выделяет памяти.
+     * noise - размах шума, добавляемого к каждому входу, 0 - вход разреженный
+     */
+    private static void assertStepDoesNotAllocate(Random random, FeedForwardNeuralNetwork network, float noise, int batchSize,
+                                                  int warmUp, int window) {
+        var inputs = network.inputSize();
+        var input = new MatrixF32(batchSize, inputs);
+        var target = new MatrixF32(batchSize, 10);
+
+        for (var i = 0; i < batchSize; i++) {
+            var label = random.nextInt(10);
+            target.set(i * 10L + label, 1.0f);
+
+            for (var j = 0; j < inputs; j++) {
+                input.set((long) i * inputs + j, (j % 10 == label ? 1.0f : 0.0f) + random.nextFloat() * noise);
+            }
+        }
+
+        var threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Прогрев: выделение буферов и задач пула, запуск его потоков и JIT-компиляция, включая перекомпиляцию C2,
+        // после которой векторы перестают размещаться в куче
+        for (var i = 0; i < warmUp; i++) {
+            network.train(input, target, 0.001f);
+        }
+
+        // Потоки пула Ops; служебные потоки JDK (Common-Cleaner, Reference Handler) освобождают память других тестов
+        var ids = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t instanceof ForkJoinWorkerThread worker && worker.getPool() != ForkJoinPool.commonPool())
+                .mapToLong(Thread::threadId)
+                .toArray();
+
+        for (var w = 0; w < WINDOWS; w++) {
+            // Чтение счетчика другого потока само выделяет память, поэтому свой счетчик читается внутри окна
+            var others = allocated(threads, ids);
+            var own = threads.getCurrentThreadAllocatedBytes();
+
+            for (var i = 0; i < window; i++) {
+                network.train(input, target, 0.001f);
+            }
+
+            own = threads.getCurrentThreadAllocatedBytes() - own;
+            others = allocated(threads, ids) - others;
+
+            assertEquals("window " + w, 0, own + others);
+        }
+    }
+
+    /**
+     * Память, выделенная потоками ids
+     */
+    private static long allocated(ThreadMXBean threads, long[] ids) {
+        var result = 0L;
+
+        for (var id : ids) {
+            result += Math.max(0, threads.getThreadAllocatedBytes(id));
+        }
+
+        return result;
+    }
+}
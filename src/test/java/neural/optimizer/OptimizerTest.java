@@ -0,0 +1,282 @@
+package neural.optimizer;
+
+import linear.VectorF32;
+import neural.Optimizer;
+import org.junit.Test;
+
+import java.lang.foreign.Arena;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static linear.TestMatrices.random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class OptimizerTest {
+
+    /**
+     * Хвост слоя, не кратный длине вектора, обновляется так же, как начало. Слои с разными размерами
+     * и слой больше порога параллельного обновления лежат в одном массиве состояния
+     */
+    @Test
+    public void adamUpdatesTail() {
+        var random = new Random(1);
+        var adam = new Adam();
+        var sizes = new int[]{37, 5, State.PARALLEL_THRESHOLD + 3};
+        var eta = 0.01f;
+
+        for (var layer = 0; layer < sizes.length; layer++) {
+            var size = sizes[layer];
+            var weights = random(random, size);
+            var expected = weights.clone();
+            var m = new float[size];
+            var v = new float[size];
+            var b1 = 0.9f;
+            var b2 = 0.999f;
+
+            for (var step = 0; step < 3; step++) {
+                var gradient = random(random, size);
+
+                for (var i = 0; i < size; i++) {
+                    m[i] = gradient[i] * (1 - 0.9f) + m[i] * 0.9f;
+                    v[i] = gradient[i] * gradient[i] * (1 - 0.999f) + v[i] * 0.999f;
+                    expected[i] += m[i] / (1 - b1) * -eta / ((float) Math.sqrt(v[i] / (1 - b2)) + 1e-10f);
+                }
+
+                b1 *= 0.9f;
+                b2 *= 0.999f;
+
+                adam.apply(layer + 1, new VectorF32(weights), new VectorF32(gradient), eta);
+            }
+
+            assertArrayEquals(expected, weights, 1e-5f);
+        }
+    }
+
+    @Test
+    public void momentumUpdatesTail() {
+        var random = new Random(2);
+        var momentum = new Momentum(0.5f);
+        var size = 19;
+        var weights = random(random, size);
+        var expected = weights.clone();
+        var m = new float[size];
+
+        for (var step = 0; step < 3; step++) {
+            var gradient = random(random, size);
+
+            for (var i = 0; i < size; i++) {
+                m[i] = gradient[i] * 0.5f + m[i] * 0.5f;
+                expected[i] -= 0.1f * m[i];
+            }
+
+            momentum.apply(1, new VectorF32(weights), new VectorF32(gradient), 0.1f);
+        }
+
+        assertArrayEquals(expected, weights, 1e-6f);
+    }
+
+    /**
+     * Обновление одного параметра эталонной скалярной формулой, state - векторы состояния слоя
+     */
+    private interface Reference {
+        void update(float[][] state, float[] weights, float[] gradient, int i, float eta);
+    }
+
+    /**
+     * Три шага optimizer на слоях с хвостом, не кратным длине вектора, и на слое больше порога параллельного
+     * обновления совпадают с эталоном
+     */
+    private static void assertSameAsReference(Random random, Optimizer.Interface optimizer, float[] init, Reference reference) {
+        var sizes = new int[]{37, 5, State.PARALLEL_THRESHOLD + 3};
+        var eta = 0.01f;
+
+        for (var layer = 0; layer < sizes.length; layer++) {
+            var size = sizes[layer];
+            var weights = random(random, size);
+            var expected = weights.clone();
+            var state = new float[init.length][size];
+
+            for (var k = 0; k < init.length; k++) {
+                Arrays.fill(state[k], init[k]);
+            }
+
+            for (var step = 0; step < 3; step++) {
+                var gradient = random(random, size);
+
+                for (var i = 0; i < size; i++) {
+                    reference.update(state, expected, gradient, i, eta);
+                }
+
+                optimizer.apply(layer + 1, new VectorF32(weights), new VectorF32(gradient), eta);
+            }
+
+            assertArrayEquals(expected, weights, 1e-5f);
+        }
+    }
+
+    @Test
+    public void nesterovUpdatesTail() {
+        var alpha = 0.7f;
+
+        assertSameAsReference(new Random(4), new Nesterov(alpha), new float[]{0}, (state, w, g, i, eta) -> {
+            var m = state[0][i] = g[i] * (1 - alpha) + state[0][i] * alpha;
+            w[i] += (m * eta + g[i]) * (-eta * alpha);
+        });
+    }
+
+    @Test
+    public void adaGradUpdatesTail() {
+        assertSameAsReference(new Random(5), new AdaGrad(), new float[]{0}, (state, w, g, i, eta) -> {
+            var G = state[0][i] += g[i] * g[i];
+            w[i] += g[i] / (float) Math.sqrt(G + 1e-12f) * -eta;
+        });
+    }
+
+    @Test
+    public void rmsPropUpdatesTail() {
+        var alpha = 0.9f;
+
+        assertSameAsReference(new Random(6), new RMSProp(alpha), new float[]{0}, (state, w, g, i, eta) -> {
+            var G = state[0][i] = g[i] * g[i] * (1 - alpha) + state[0][i] * alpha;
+            w[i] += g[i] / (float) Math.sqrt(G + 1e-12f) * -eta;
+        });
+    }
+
+    @Test
+    public void adaDeltaUpdatesTail() {
+        var alpha = 0.9f;
+
+        assertSameAsReference(new Random(7), new AdaDelta(alpha), new float[]{0, 1}, (state, w, g, i, eta) -> {
+            var G = state[0][i] = g[i] * g[i] * (1 - alpha) + state[0][i] * alpha;
+            var o = g[i] * ((float) Math.sqrt(state[1][i]) + 1e-10f) / ((float) Math.sqrt(G) + 1e-10f);
+            w[i] += o * -eta;
+            state[1][i] = o * o * (1 - alpha) + state[1][i] * alpha;
+        });
+    }
+
+    /**
+     * Для off-heap весов состояние тоже off-heap, результат тот же, что у весов в float[]
+     */
+    @Test
+    public void offHeapWeights() {
+        var random = new Random(8);
+        var size = 101;
+        var weights = random(random, size);
+        var heap = new AdaDelta();
+        var direct = new AdaDelta();
+        var offHeap = VectorF32.allocate(Arena.ofAuto(), size);
+
+        for (var i = 0; i < size; i++) {
+            offHeap.set(i, weights[i]);
+        }
+
+        for (var step = 0; step < 3; step++) {
+            var gradient = random(random, size);
+
+            heap.apply(1, new VectorF32(weights), new VectorF32(gradient), 0.01f);
+            direct.apply(1, offHeap, new VectorF32(gradient), 0.01f);
+        }
+
+        for (var i = 0; i < size; i++) {
+            assertEquals(weights[i], offHeap.get(i), 0.0f);
+        }
+    }
+
+    /**
+     * Уменьшившийся слой остается на своем месте, выросший переносится в конец, и вектор собирается без прежнего
+     * места слоя. Состояние остальных слоев при этом сохраняется
+     */
+    @Test
+    public void resizedLayerReusesState() {
+        var state = new State(0.0f, 1.0f);
+        state.allocate(0, new VectorF32(10));
+        state.allocate(1, new VectorF32(20));
+
+        for (var i = 0; i < 40; i++) {
+            state.data.set(state.offset(1) + i, i);
+        }
+
+        state.allocate(0, new VectorF32(5));
+
+        assertEquals(0, state.offset(0));
+        assertEquals(60, state.data.getLongSize());
+        assertEquals(true, state.contains(0, 5));
+        assertEquals(1.0f, state.data.get(9), 0.0f);
+
+        state.allocate(0, new VectorF32(30));
+
+        assertEquals(100, state.data.getLongSize());
+        assertEquals(0, state.offset(1));
+        assertEquals(40, state.offset(0));
+
+        for (var i = 0; i < 40; i++) {
+            assertEquals(i, state.data.get(state.offset(1) + i), 0.0f);
+        }
+
+        for (var i = 0; i < 60; i++) {
+            assertEquals(i < 30 ? 0.0f : 1.0f, state.data.get(40 + i), 0.0f);
+        }
+    }
+
+    /**
+     * L2, ограничение нормы и затухание внутри прохода совпадают с подготовленным заранее градиентом
+     */
+    private static void assertFusedRegularization(Random random, Supplier<Optimizer.Interface> optimizer) {
+        var size = 53;
+        var l2 = 0.1f;
+        var decay = 0.01f;
+        var eta = 0.05f;
+        var fused = random(random, size);
+        var expected = fused.clone();
+        var fusedOptimizer = optimizer.get();
+        var plain = optimizer.get();
+
+        for (var step = 0; step < 3; step++) {
+            var gradient = random(random, size);
+
+            for (var i = 0; i < size; i++) {
+                gradient[i] *= 1000;
+            }
+
+            var prepared = new float[size];
+            var norm = 0.0;
+
+            for (var i = 0; i < size; i++) {
+                prepared[i] = gradient[i] + l2 * expected[i];
+                norm += prepared[i] * prepared[i];
+            }
+
+            var scale = Optimizer.clipScale(new VectorF32(fused), new VectorF32(gradient), l2);
+            assertEquals(Optimizer.NORM_MAX / Math.sqrt(norm), scale, 1e-5);
+
+            for (var i = 0; i < size; i++) {
+                prepared[i] *= scale;
+            }
+
+            var decayed = new float[size];
+
+            for (var i = 0; i < size; i++) {
+                decayed[i] = expected[i] * eta * decay;
+            }
+
+            plain.apply(1, new VectorF32(expected), new VectorF32(prepared), eta);
+
+            for (var i = 0; i < size; i++) {
+                expected[i] -= decayed[i];
+            }
+
+            fusedOptimizer.apply(1, new VectorF32(fused), new VectorF32(gradient), eta, l2, decay, scale);
+
+            assertArrayEquals(expected, fused, 1e-5f);
+        }
+    }
+
+    @Test
+    public void fusedRegularization() {
+        assertFusedRegularization(new Random(3), Adam::new);
+        assertFusedRegularization(new Random(9), SGD::new);
+        assertFusedRegularization(new Random(10), RMSProp::new);
+    }
+}
@@ -0,0 +1,70 @@
+package linear;
+
+import java.util.Random;
+
+/**
+ * Случайные данные и копии матриц для тестов и бенчмарков
+ */
+public final class TestMatrices {
+    private TestMatrices() {}
+
+    /**
+     * size чисел из [-1, 1)
+     */
+    public static float[] random(Random random, int size) {
+        var data = new float[size];
+
+        for (var i = 0; i < size; i++) {
+            data[i] = random.nextFloat(-1, 1);
+        }
+
+        return data;
+    }
+
+    /**
+     * Матрица rows x columns поверх float[] с элементами из [-1, 1)
+     */
+    public static MatrixF32 random(Random random, int rows, int columns) {
+        return random(random, rows, columns, 1.0f);
+    }
+
+    /**
+     * Матрица rows x columns поверх float[] с элементами из [-bound, bound)
+     */
+    public static MatrixF32 random(Random random, int rows, int columns, float bound) {
+        var data = new float[rows * columns];
+
+        for (var i = 0; i < data.length; i++) {
+            data[i] = random.nextFloat(-bound, bound);
+        }
+
+        return new MatrixF32(rows, columns, data);
+    }
+
+    /**
+     * Копия matrix без промежутков между строками хранилища, с тем же флагом transposed
+     */
+    public static MatrixF32 compact(MatrixF32 matrix) {
+        var result = new MatrixF32(matrix.getLines(), matrix.getLineLength());
+        Ops.copy(matrix, result);
+
+        return matrix.isTransposed() ? result.transpose() : result;
+    }
+
+    /**
+     * Элементы matrix построчно в новом массиве, для любого хранилища и транспонирования
+     */
+    public static float[] toArray(MatrixF32 matrix) {
+        var result = new MatrixF32(matrix.getRows(), matrix.getColumns());
+        Ops.copy(matrix, result);
+
+        return result.getData();
+    }
+
+    /**
+     * Строка row матрицы в новом массиве
+     */
+    public static float[] row(MatrixF32 matrix, int row) {
+        return toArray(matrix.rows(row, 1));
+    }
+}